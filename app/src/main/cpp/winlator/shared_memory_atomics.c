@@ -0,0 +1,50 @@
+#include <stdint.h>
+#include <unistd.h>
+#include <limits.h>
+#include <time.h>
+#include <sys/syscall.h>
+#include <linux/futex.h>
+#include <jni.h>
+
+JNIEXPORT jlong JNICALL
+Java_com_winlator_sysvshm_SharedMemoryAtomics_loadAcquire(JNIEnv *env, jclass obj, jobject data, jint offset) {
+    char *dataAddr = (*env)->GetDirectBufferAddress(env, data);
+    return __atomic_load_n((int64_t*)(dataAddr + offset), __ATOMIC_ACQUIRE);
+}
+
+JNIEXPORT void JNICALL
+Java_com_winlator_sysvshm_SharedMemoryAtomics_storeRelease(JNIEnv *env, jclass obj, jobject data, jint offset, jlong value) {
+    char *dataAddr = (*env)->GetDirectBufferAddress(env, data);
+    __atomic_store_n((int64_t*)(dataAddr + offset), value, __ATOMIC_RELEASE);
+}
+
+JNIEXPORT void JNICALL
+Java_com_winlator_sysvshm_SharedMemoryAtomics_storeFence(JNIEnv *env, jclass obj) {
+    __atomic_thread_fence(__ATOMIC_RELEASE);
+}
+
+JNIEXPORT void JNICALL
+Java_com_winlator_sysvshm_SharedMemoryAtomics_wakeFutex(JNIEnv *env, jclass obj, jobject data, jint futexOffset, jint waitingOffset) {
+    char *dataAddr = (*env)->GetDirectBufferAddress(env, data);
+    uint32_t *futex = (uint32_t*)(dataAddr + futexOffset);
+
+    __atomic_add_fetch(futex, 1, __ATOMIC_SEQ_CST);
+    if (__atomic_load_n((uint32_t*)(dataAddr + waitingOffset), __ATOMIC_SEQ_CST) != 0) {
+        syscall(__NR_futex, futex, FUTEX_WAKE, INT_MAX, NULL, NULL, 0);
+    }
+}
+
+JNIEXPORT jint JNICALL
+Java_com_winlator_sysvshm_SharedMemoryAtomics_waitFutex(JNIEnv *env, jclass obj, jobject data, jint futexOffset, jint waitingOffset, jint value, jint timeoutMs) {
+    char *dataAddr = (*env)->GetDirectBufferAddress(env, data);
+    uint32_t *futex = (uint32_t*)(dataAddr + futexOffset);
+    uint32_t *waiting = (uint32_t*)(dataAddr + waitingOffset);
+
+    __atomic_store_n(waiting, 1, __ATOMIC_SEQ_CST);
+    if (__atomic_load_n(futex, __ATOMIC_SEQ_CST) == (uint32_t)value) {
+        struct timespec timeout = {timeoutMs / 1000, (timeoutMs % 1000) * 1000000L};
+        syscall(__NR_futex, futex, FUTEX_WAIT, value, timeoutMs >= 0 ? &timeout : NULL, NULL, 0);
+    }
+    __atomic_store_n(waiting, 0, __ATOMIC_SEQ_CST);
+    return (jint)__atomic_load_n(futex, __ATOMIC_ACQUIRE);
+}
@@ -124,6 +124,8 @@ import com.winlator.inputcontrols.ExternalController
 import com.winlator.inputcontrols.InputControlsManager
 import com.winlator.inputcontrols.MotionControls
 import com.winlator.inputcontrols.TouchMouse
+import com.winlator.renderer.GLProfiler
+import com.winlator.renderer.InputLatencyTracer
 import com.winlator.widget.FrameRating
 import com.winlator.widget.PerformanceHUD
 import com.winlator.widget.InputControlsView
@@ -153,6 +155,7 @@ import com.winlator.xserver.ScreenInfo
 import com.winlator.xserver.Window
 import com.winlator.xserver.WindowManager
 import com.winlator.xserver.XServer
+import com.winlator.xserver.extensions.PresentExtension
 import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
@@ -840,6 +843,30 @@ fun XServerScreen(
                         renderer.forceFullscreenWMClass = Paths.get(container.executablePath).name
                     }
                 }
+                // Internal render scale of the compositor, upscaled to the view with EASU + RCAS
+                val renderScaleTargetFrameTime = container.getExtra("renderScaleTargetFrameTime", "0").toFloatOrNull() ?: 0f
+                if (renderScaleTargetFrameTime > 0f) {
+                    val minRenderScale = container.getExtra("renderScaleMin", "0.5").toFloatOrNull() ?: 0.5f
+                    renderer.setDynamicRenderScale(minRenderScale, renderScaleTargetFrameTime)
+                } else {
+                    renderer.setRenderScale(container.getExtra("renderScale", "1.0").toFloatOrNull() ?: 1.0f)
+                }
+                // Frame limiter, holds back Present completions so the game renders at the paced rate
+                val frameLimiter = getxServer().getExtension<PresentExtension>(PresentExtension.MAJOR_OPCODE.toInt()).frameLimiter
+                frameLimiter.setTargetFps(container.getExtra("frameLimit", "0").toIntOrNull() ?: 0)
+                frameLimiter.setVsyncDivisor(
+                    when (container.getExtra("framePacing", "off")) {
+                        "vsync" -> 1
+                        "half" -> 2
+                        else -> 0
+                    },
+                )
+                // Cursor drawn over a cached copy of the windows, so pointer motion does not recomposite them
+                renderer.isCursorLayerEnabled = container.getExtra("cursorLayer", "1") == "1"
+                // GPU timings of the compositor passes, shown in the performance HUD
+                GLProfiler.setEnabled(container.getExtra("glProfiling", "0") == "1")
+                // Input to swap latency percentiles, shown in the performance HUD
+                InputLatencyTracer.setEnabled(container.getExtra("inputLatencyTracing", "0") == "1")
                 getxServer().windowManager.addOnWindowModificationListener(
                     object : WindowManager.OnWindowModificationListener {
                         private fun changeFrameRatingVisibility(window: Window, property: Property?) {
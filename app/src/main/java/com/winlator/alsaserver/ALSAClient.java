@@ -1,9 +1,7 @@
 package com.winlator.alsaserver;
 
 import android.content.Context;
-import android.media.AudioFormat;
 import android.media.AudioManager;
-import android.media.AudioTrack;
 import android.util.Log;
 
 import com.winlator.container.Container;
@@ -14,23 +12,31 @@ import com.winlator.xenvironment.ImageFs;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Locale;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 public class ALSAClient {
+    private static final long WRITER_POLL_INTERVAL_NS = 1000000;
     private static short framesPerBuffer = 256;
+    private static int outputSampleRate = 48000;
     private ByteBuffer auxBuffer;
-    private int bufferCapacity;
     private int bufferSize;
     private byte frameBytes;
     protected final Options options;
     private int position;
     private ByteBuffer sharedBuffer;
     private DataType dataType = DataType.U8;
-    private AudioTrack audioTrack = null;
     private byte channels = 2;
     private int sampleRate = 0;
-    private short previousUnderrunCount = 0;
+    private float volume = 1.0f;
     private String containerVariant = null;
+    private final AudioOutputThread outputThread;
+    private PCMRingBuffer ringBuffer;
+    private AudioMixer.Stream mixerStream;
+    private AudioMetrics.Client metrics;
+    private int droppedBytes = 0;
+    private volatile int ringPeakFill = 0;
 
     private long streamPtr = 0;
     private long mirrorStreamPtr = 0;
@@ -58,6 +64,9 @@ public class ALSAClient {
 
     public static class Options {
         public short latencyMillis = 40;
+        // Bounds of the output buffer the latency controller stays within, 0 for the device limits
+        public short minLatencyMillis = 0;
+        public short maxLatencyMillis = 0;
         public byte performanceMode = 0;
         public float volume = 1.0f;
         public boolean reflectorMode = false;
@@ -74,17 +83,20 @@ public class ALSAClient {
             }
             options.volume = config.getFloat("volume", 1.0f);
             options.latencyMillis = (short) config.getInt("latencyMillis", 40);
+            options.minLatencyMillis = (short) config.getInt("minLatencyMillis", 0);
+            options.maxLatencyMillis = (short) config.getInt("maxLatencyMillis", 0);
             return options;
         }
     }
 
-    public ALSAClient(Options options, String containerVariant) {
+    public ALSAClient(Options options, String containerVariant, AudioOutputThread outputThread) {
         this.options = options;
         this.containerVariant = containerVariant;
         this.reflectorMode = options.reflectorMode;
+        this.outputThread = outputThread;
     }
 
-    public void release() {
+    public synchronized void release() {
         if (this.sharedBuffer != null) {
             SysVSharedMemory.unmapSHMSegment(this.sharedBuffer, this.sharedBuffer.capacity());
             this.sharedBuffer = null;
@@ -100,12 +112,27 @@ public class ALSAClient {
                 close(mirrorStreamPtr);
             }
         } else {
-            AudioTrack audioTrack = this.audioTrack;
-            if (audioTrack != null) {
-                audioTrack.pause();
-                this.audioTrack.flush();
-                this.audioTrack.release();
-                this.audioTrack = null;
+            if (ringBuffer != null && getWriterBlockedCount() > 0) {
+                Log.d("ALSAClient", "Ring buffer peak fill " + (ringPeakFill * 100 / ringBuffer.getCapacity()) + "%, writer blocked " + getWriterBlockedCount() + " times for " + (getWriterBlockedTimeNs() / 1000000) + "ms");
+            }
+
+            if (metrics != null) {
+                AudioMetrics.removeClient(metrics);
+                metrics = null;
+            }
+
+            if (mixerStream != null) {
+                outputThread.getMixer().removeStream(mixerStream);
+                mixerStream.close();
+                mixerStream = null;
+            }
+
+            if (ringBuffer != null) {
+                if (ringBuffer instanceof SharedPCMRingBuffer) {
+                    ByteBuffer sharedBuffer = ((SharedPCMRingBuffer)ringBuffer).getSharedBuffer();
+                    SysVSharedMemory.unmapSHMSegment(sharedBuffer, sharedBuffer.capacity());
+                }
+                ringBuffer = null;
             }
         }
         playing = false;
@@ -113,24 +140,15 @@ public class ALSAClient {
         mirrorStreamPtr = 0;
     }
 
-    public static int getPCMEncoding(DataType dataType) {
-        switch (dataType) {
-            case U8: return AudioFormat.ENCODING_PCM_8BIT;
-            case S16LE:
-            case S16BE: return AudioFormat.ENCODING_PCM_16BIT;
-            case FLOATLE:
-            case FLOATBE: return AudioFormat.ENCODING_PCM_FLOAT;
-            default: return AudioFormat.ENCODING_DEFAULT;
-        }
-    }
-
-    public static int getChannelConfig(int channels) {
-        return (channels <= 1) ? AudioFormat.CHANNEL_OUT_MONO : AudioFormat.CHANNEL_OUT_STEREO;
+    public synchronized void prepare() {
+        prepare(null);
     }
 
-    public void prepare() {
+    // Prepares the stream on the given ring in shared memory, or on a ring of its own if it is null
+    public synchronized void prepare(SharedPCMRingBuffer sharedRingBuffer) {
         this.position = 0;
-        this.previousUnderrunCount = (short) 0;
+        this.droppedBytes = 0;
+        this.ringPeakFill = 0;
         this.frameBytes = (byte) (this.channels * this.dataType.byteCount);
         release();
 
@@ -139,20 +157,17 @@ public class ALSAClient {
                 streamPtr = simulatedCreate(this.dataType.ordinal(), this.channels, this.sampleRate, this.bufferSize);
                 mirrorStreamPtr = create(this.dataType.ordinal(), this.channels, this.sampleRate, this.bufferSize);
             } else {
-                AudioFormat format = new AudioFormat.Builder().setEncoding(getPCMEncoding(this.dataType)).setSampleRate(this.sampleRate).setChannelMask(getChannelConfig(this.channels)).build();
-                AudioTrack build = new AudioTrack.Builder().setPerformanceMode(this.options.performanceMode).setAudioFormat(format).setBufferSizeInBytes(getBufferSizeInBytes()).build();
-                this.audioTrack = build;
-                this.bufferCapacity = build.getBufferCapacityInFrames();
-                float f = this.options.volume;
-                if (f != 1.0f) {
-                    this.audioTrack.setVolume(f);
-                }
+                this.ringBuffer = sharedRingBuffer != null ? sharedRingBuffer : new PCMRingBuffer(getRingBufferSize());
+                this.mixerStream = outputThread.getMixer().addStream(this.ringBuffer, this.dataType, this.channels, this.sampleRate);
+                this.mixerStream.setVolume(this.volume);
+                String description = String.format(Locale.ENGLISH, "%dHz %dch %s%s", this.sampleRate, this.channels, this.dataType, sharedRingBuffer != null ? " shm" : "");
+                this.metrics = AudioMetrics.addClient(description, this.mixerStream, this.sampleRate, this.bufferSize);
             }
             start();
         }
     }
 
-    public void start() {
+    public synchronized void start() {
         if (reflectorMode) {
             if (streamPtr > 0 && !playing) {
                 simulatedStart(streamPtr);
@@ -160,14 +175,14 @@ public class ALSAClient {
                 playing = true;
             }
         } else {
-            AudioTrack audioTrack = this.audioTrack;
-            if (audioTrack != null && audioTrack.getPlayState() != AudioTrack.PLAYSTATE_PLAYING) {
-                this.audioTrack.play();
+            if (mixerStream != null && !mixerStream.isPlaying()) {
+                mixerStream.setPlaying(true);
+                outputThread.wakeUp();
             }
         }
     }
 
-    public void stop() {
+    public synchronized void stop() {
         if (reflectorMode) {
             if (streamPtr > 0 && playing) {
                 simulatedStop(streamPtr);
@@ -175,15 +190,15 @@ public class ALSAClient {
                 playing = false;
             }
         } else {
-            AudioTrack audioTrack = this.audioTrack;
-            if (audioTrack != null) {
-                audioTrack.stop();
-                this.audioTrack.flush();
+            if (mixerStream != null) {
+                mixerStream.setPlaying(false);
+                discardRingBuffer();
             }
+            if (metrics != null) metrics.onStop();
         }
     }
 
-    public void pause() {
+    public synchronized void pause() {
         if (reflectorMode) {
             if (streamPtr > 0) {
                 simulatedPause(streamPtr);
@@ -191,27 +206,28 @@ public class ALSAClient {
                 playing = false;
             }
         } else {
-            AudioTrack audioTrack = this.audioTrack;
-            if (audioTrack != null) {
-                audioTrack.pause();
-            }
+            if (mixerStream != null) mixerStream.setPlaying(false);
+            if (metrics != null) metrics.onStop();
         }
     }
 
-    public void drain() {
+    public synchronized void drain() {
         if (reflectorMode) {
             if (streamPtr > 0) {
                 simulatedFlush(streamPtr);
                 if (mirrorStreamPtr > 0) flush(mirrorStreamPtr);
             }
         } else {
-            AudioTrack audioTrack = this.audioTrack;
-            if (audioTrack != null) {
-                audioTrack.flush();
-            }
+            if (mixerStream != null) discardRingBuffer();
         }
     }
 
+    // Clearing the ring moves its read position past the discarded data, so the guest waiting
+    // for the pointer sees it as played
+    private void discardRingBuffer() {
+        mixerStream.flush();
+    }
+
     public void writeDataToTrack(ByteBuffer data) {
         if (dataType == DataType.S16LE || dataType == DataType.FLOATLE) {
             data.order(ByteOrder.LITTLE_ENDIAN);
@@ -235,24 +251,50 @@ public class ALSAClient {
                 data.rewind();
             }
         } else {
-            if (this.audioTrack != null) {
+            // A guest with a shared ring writes into it directly
+            PCMRingBuffer ringBuffer = this.ringBuffer;
+            if (ringBuffer != null && !(ringBuffer instanceof SharedPCMRingBuffer)) {
+                AudioMetrics.Client metrics = this.metrics;
+                if (metrics != null) metrics.onWrite(System.nanoTime());
                 data.position(0);
-                do {
-                    try {
-                        int bytesWritten = this.audioTrack.write(data, data.remaining(), AudioTrack.WRITE_BLOCKING);
-                        if (bytesWritten < 0) {
-                            break;
-                        } else {
-                            increaseBufferSizeIfUnderrunOccurs();
-                        }
-                    } catch (Exception e) {}
-                } while (data.position() != data.limit());
-                this.position += data.position();
+                writeDataToRingBuffer(ringBuffer, data);
                 data.rewind();
             }
         }
     }
 
+    // Copies the data into the ring buffer for the audio thread and only waits while the ring is
+    // full, at most for the length of the guest buffer in case the mixer stopped consuming
+    private void writeDataToRingBuffer(PCMRingBuffer ringBuffer, ByteBuffer data) {
+        AudioMetrics.Client metrics = this.metrics;
+        long blockedStartTime = 0;
+        long maxBlockedTimeNs = (long)bufferSize * 1000000000L / Math.max(sampleRate, 1);
+
+        while (true) {
+            ringBuffer.write(data);
+            outputThread.wakeUp();
+            ringPeakFill = Math.max(ringPeakFill, ringBuffer.getReadableBytes());
+            if (!data.hasRemaining()) break;
+
+            long now = System.nanoTime();
+            if (blockedStartTime == 0) {
+                blockedStartTime = now;
+            }
+            else if (now - blockedStartTime > maxBlockedTimeNs) {
+                synchronized (this) {
+                    droppedBytes += data.remaining();
+                }
+                if (metrics != null) metrics.onDropped(data.remaining() / frameBytes);
+                data.position(data.limit());
+                break;
+            }
+            LockSupport.parkNanos(WRITER_POLL_INTERVAL_NS);
+        }
+
+        if (blockedStartTime != 0 && metrics != null) metrics.onWriterBlocked(System.nanoTime() - blockedStartTime);
+    }
+
+
     public void onAudioDeviceChanged() {
         if (!reflectorMode) return;
 
@@ -290,21 +332,52 @@ public class ALSAClient {
         }
     }
 
-    private void increaseBufferSizeIfUnderrunOccurs() {
-        int i;
-        int underrunCount = this.audioTrack.getUnderrunCount();
-        if (underrunCount > this.previousUnderrunCount && (i = this.bufferSize) < this.bufferCapacity) {
-            this.previousUnderrunCount = (short) underrunCount;
-            int i2 = i + framesPerBuffer;
-            this.bufferSize = i2;
-            this.audioTrack.setBufferSizeInFrames(i2);
-        }
-    }
-
     public int pointer() {
+        PCMRingBuffer ringBuffer = this.ringBuffer;
+        if (ringBuffer != null) return (int)(ringBuffer.getReadPosition() + droppedBytes) / this.frameBytes;
         return this.position / this.frameBytes;
     }
 
+    // Fraction of the ring buffer that is filled right now
+    public float getRingFillLevel() {
+        PCMRingBuffer ringBuffer = this.ringBuffer;
+        return ringBuffer != null ? (float)ringBuffer.getReadableBytes() / ringBuffer.getCapacity() : 0;
+    }
+
+    public float getRingPeakFillLevel() {
+        PCMRingBuffer ringBuffer = this.ringBuffer;
+        return ringBuffer != null ? (float)ringPeakFill / ringBuffer.getCapacity() : 0;
+    }
+
+    public int getWriterBlockedCount() {
+        AudioMetrics.Client metrics = this.metrics;
+        return metrics != null ? metrics.getWriterBlockedCount() : 0;
+    }
+
+    public long getWriterBlockedTimeNs() {
+        AudioMetrics.Client metrics = this.metrics;
+        return metrics != null ? metrics.getWriterBlockedTimeNs() : 0;
+    }
+
+    public AudioMetrics.Client getMetrics() {
+        return metrics;
+    }
+
+    // Number of mix passes this client could not fill in time
+    public int getUnderrunCount() {
+        AudioMixer.Stream mixerStream = this.mixerStream;
+        return mixerStream != null ? mixerStream.getUnderrunCount() : 0;
+    }
+
+    public synchronized void setVolume(float volume) {
+        this.volume = volume;
+        if (mixerStream != null) mixerStream.setVolume(volume);
+    }
+
+    public float getVolume() {
+        return volume;
+    }
+
     public void setDataType(DataType dataType) { this.dataType = dataType; }
     public void setContainerVariant(String containerVariant) { this.containerVariant = containerVariant; }
     public String getContainerVariant() { return containerVariant; }
@@ -328,6 +401,17 @@ public class ALSAClient {
 
     public ByteBuffer getAuxBuffer() { return this.auxBuffer; }
     public int getBufferSizeInBytes() { return this.bufferSize * this.frameBytes; }
+    public boolean isReflectorMode() { return reflectorMode; }
+
+    // Twice the guest buffer, the guest never has more than one buffer in flight beyond what the
+    // mixer already consumed. Only depends on the stream parameters, so it is known before prepare()
+    public int getRingBufferSize() {
+        return this.bufferSize * getFrameBytes() * 2;
+    }
+
+    public int getFrameBytes() {
+        return this.channels * this.dataType.byteCount;
+    }
 
     public static int latencyMillisToBufferSize(int latencyMillis, int channels, DataType dataType, int sampleRate) {
         byte frameBytes = (byte) (dataType.byteCount * channels);
@@ -350,6 +434,22 @@ public class ALSAClient {
         } catch (Exception e) {
             framesPerBuffer = (short) 256;
         }
+
+        try {
+            AudioManager am = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+            int sampleRate = Integer.parseInt(am.getProperty(AudioManager.PROPERTY_OUTPUT_SAMPLE_RATE));
+            outputSampleRate = sampleRate > 0 ? sampleRate : 48000;
+        } catch (Exception e) {
+            outputSampleRate = 48000;
+        }
+    }
+
+    public static short getFramesPerBuffer() {
+        return framesPerBuffer;
+    }
+
+    public static int getOutputSampleRate() {
+        return outputSampleRate;
     }
 
     private native long simulatedCreate(int format, byte channelCount, int sampleRate, int bufferSize);
@@ -6,6 +6,7 @@ import com.winlator.xconnector.ConnectionHandler;
 public class ALSAClientConnectionHandler implements ConnectionHandler {
     private final ALSAClient.Options options;
     private final String containerVariant;
+    private AudioOutputThread outputThread;
 
     public ALSAClientConnectionHandler(ALSAClient.Options options, String containerVariant) {
         this.options = options;
@@ -15,7 +16,22 @@ public class ALSAClientConnectionHandler implements ConnectionHandler {
     @Override
     public void handleNewConnection(Client client) {
         client.createIOStreams();
-        client.setTag(new ALSAClient(this.options, this.containerVariant));
+        client.setTag(new ALSAClient(this.options, this.containerVariant, getOutputThread()));
+    }
+
+    private synchronized AudioOutputThread getOutputThread() {
+        if (outputThread == null) {
+            outputThread = new AudioOutputThread(options);
+            outputThread.start();
+        }
+        return outputThread;
+    }
+
+    public synchronized void stopOutputThread() {
+        if (outputThread != null) {
+            outputThread.shutdown();
+            outputThread = null;
+        }
     }
 
     @Override
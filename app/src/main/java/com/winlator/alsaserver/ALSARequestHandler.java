@@ -42,6 +42,7 @@ public class ALSARequestHandler implements RequestHandler {
                 alsaClient.pause();
                 return true;
             case RequestCodes.PREPARE:
+            case RequestCodes.PREPARE_SHARED_RING:
                 if (inputStream.available() < requestLength) {
                     return false;
                 }
@@ -49,6 +50,7 @@ public class ALSARequestHandler implements RequestHandler {
                 alsaClient.setDataType(ALSAClient.DataType.values()[inputStream.readByte()]);
                 alsaClient.setSampleRate(inputStream.readInt());
                 alsaClient.setBufferSize(inputStream.readInt());
+                if (requestCode == RequestCodes.PREPARE_SHARED_RING && createSharedRingBuffer(alsaClient, outputStream)) return true;
                 alsaClient.prepare();
                 createSharedMemory(alsaClient, outputStream);
                 return true;
@@ -123,6 +125,33 @@ public class ALSARequestHandler implements RequestHandler {
         }
     }
 
+    // Prepares the client on a ring in a new shared memory segment and replies with version 2 and
+    // the fd of the segment. Returns false if the client falls back to the v1 protocol, a guest
+    // that receives the reply of PREPARE then keeps sending WRITE requests.
+    private boolean createSharedRingBuffer(ALSAClient alsaClient, XOutputStream outputStream) throws IOException {
+        int capacity = alsaClient.getRingBufferSize();
+        if (alsaClient.isReflectorMode() || capacity <= 0) return false;
+
+        int shmSize = SharedPCMRingBuffer.getSharedSize(capacity);
+        int fd = SysVSharedMemory.createMemoryFd("alsa-ring" + (++maxSHMemoryId), shmSize);
+        if (fd < 0) return false;
+
+        try {
+            ByteBuffer buffer = SysVSharedMemory.mapSHMSegment(fd, shmSize, 0, false);
+            if (buffer == null) return false;
+
+            alsaClient.prepare(new SharedPCMRingBuffer(buffer, alsaClient.getFrameBytes()));
+            try (XStreamLock lock = outputStream.lock()) {
+                outputStream.writeByte((byte)SharedPCMRingBuffer.VERSION);
+                outputStream.setAncillaryFd(fd);
+            }
+            return true;
+        }
+        finally {
+            XConnectorEpoll.closeFd(fd);
+        }
+    }
+
     private void createSharedMemory(ALSAClient alsaClient, XOutputStream outputStream) throws IOException {
         ByteBuffer buffer;
         int shmSize = alsaClient.getBufferSizeInBytes() + 4;
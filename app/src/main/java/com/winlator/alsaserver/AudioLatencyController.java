@@ -0,0 +1,154 @@
+package com.winlator.alsaserver;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+
+// Picks the buffer size of the output track from what happened over the last periods. Underruns
+// grow the buffer right away by two steps. A whole window of periods without underruns shrinks it
+// again by one step if the device never had less than three steps queued, so two are left after
+// shrinking. After an underrun the buffer does not shrink back to the size that underran for a
+// hold-off, which doubles when the next underrun follows soon. Every change is kept in a short
+// timeline so latency settings can be tuned from the log.
+public class AudioLatencyController {
+    public static final int TIMELINE_SIZE = 64;
+    public static final long UNDERRUN_HOLD_OFF_NS = 30000000000L;
+    public static final long MAX_UNDERRUN_HOLD_OFF_NS = 1800000000000L;
+    private final int stepFrames;
+    private final int windowPeriods;
+    private final int sampleRate;
+    private int minFrames;
+    private int maxFrames;
+    private int bufferSize;
+    private int previousUnderrunCount = 0;
+    private int stablePeriods = 0;
+    private int minQueuedFrames = Integer.MAX_VALUE;
+    private boolean underrunSeen = false;
+    private long lastUnderrunTimeNs = 0;
+    private long holdOffNs = UNDERRUN_HOLD_OFF_NS;
+    private int floorFrames = 0;
+    private final ArrayDeque<Change> timeline = new ArrayDeque<>();
+
+    public static class Change {
+        public final long timeNs;
+        public final int oldBufferSize;
+        public final int newBufferSize;
+        public final boolean underrun;
+
+        private Change(long timeNs, int oldBufferSize, int newBufferSize, boolean underrun) {
+            this.timeNs = timeNs;
+            this.oldBufferSize = oldBufferSize;
+            this.newBufferSize = newBufferSize;
+            this.underrun = underrun;
+        }
+    }
+
+    public AudioLatencyController(int stepFrames, int windowPeriods, int sampleRate) {
+        this.stepFrames = stepFrames;
+        this.windowPeriods = windowPeriods;
+        this.sampleRate = sampleRate;
+        this.minFrames = stepFrames;
+        this.maxFrames = Integer.MAX_VALUE;
+        this.bufferSize = 2 * stepFrames;
+    }
+
+    public void setBounds(int minFrames, int maxFrames) {
+        this.minFrames = Math.max(minFrames, 1);
+        this.maxFrames = Math.max(maxFrames, this.minFrames);
+        bufferSize = clamp(bufferSize);
+    }
+
+    public int getMinFrames() {
+        return minFrames;
+    }
+
+    public int getMaxFrames() {
+        return maxFrames;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    // Takes over the size the track actually applied, which may differ from the requested one
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    public void resetUnderrunCount(int underrunCount) {
+        previousUnderrunCount = underrunCount;
+        stablePeriods = 0;
+        minQueuedFrames = Integer.MAX_VALUE;
+        underrunSeen = false;
+        holdOffNs = UNDERRUN_HOLD_OFF_NS;
+        floorFrames = 0;
+    }
+
+    // Called once per period with the underrun count of the output and the number of frames the
+    // device still had queued before the period was written, returns the buffer size to use
+    public int update(int underrunCount, int queuedFrames, long timeNs) {
+        if (underrunCount > previousUnderrunCount) {
+            previousUnderrunCount = underrunCount;
+            stablePeriods = 0;
+            minQueuedFrames = Integer.MAX_VALUE;
+
+            if (underrunSeen && timeNs - lastUnderrunTimeNs < 2 * holdOffNs) {
+                holdOffNs = Math.min(holdOffNs * 2, MAX_UNDERRUN_HOLD_OFF_NS);
+            }
+            else holdOffNs = UNDERRUN_HOLD_OFF_NS;
+            underrunSeen = true;
+            lastUnderrunTimeNs = timeNs;
+            floorFrames = bufferSize + stepFrames;
+
+            changeBufferSize(bufferSize + 2 * stepFrames, true, timeNs);
+            return bufferSize;
+        }
+
+        minQueuedFrames = Math.min(minQueuedFrames, queuedFrames);
+        if (++stablePeriods >= windowPeriods) {
+            int newBufferSize = bufferSize - stepFrames;
+            boolean heldOff = underrunSeen && newBufferSize < floorFrames && timeNs - lastUnderrunTimeNs < holdOffNs;
+            if (minQueuedFrames >= 3 * stepFrames && !heldOff) changeBufferSize(newBufferSize, false, timeNs);
+            stablePeriods = 0;
+            minQueuedFrames = Integer.MAX_VALUE;
+        }
+        return bufferSize;
+    }
+
+    // Time until the buffer may shrink below the size that underran last, 0 if it may already
+    public long getHoldOffRemainingNs(long timeNs) {
+        return underrunSeen ? Math.max(0, lastUnderrunTimeNs + holdOffNs - timeNs) : 0;
+    }
+
+    private void changeBufferSize(int newBufferSize, boolean underrun, long timeNs) {
+        newBufferSize = clamp(newBufferSize);
+        if (newBufferSize == bufferSize) return;
+
+        if (timeline.size() == TIMELINE_SIZE) timeline.poll();
+        timeline.add(new Change(timeNs, bufferSize, newBufferSize, underrun));
+        bufferSize = newBufferSize;
+    }
+
+    private int clamp(int frames) {
+        return Math.max(minFrames, Math.min(frames, maxFrames));
+    }
+
+    public Change getLastChange() {
+        return timeline.peekLast();
+    }
+
+    public float framesToMillis(int frames) {
+        return frames * 1000.0f / sampleRate;
+    }
+
+    // Lists the recent buffer size changes relative to the first of them
+    public String getTimeline() {
+        StringBuilder sb = new StringBuilder();
+        long startTime = timeline.isEmpty() ? 0 : timeline.peekFirst().timeNs;
+        for (Change change : timeline) {
+            if (sb.length() > 0) sb.append('\n');
+            sb.append(String.format(Locale.ENGLISH, "+%.1fs %.1fms -> %.1fms%s", (change.timeNs - startTime) / 1e9f,
+                framesToMillis(change.oldBufferSize), framesToMillis(change.newBufferSize), change.underrun ? " (underrun)" : ""));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,356 @@
+package com.winlator.alsaserver;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Telemetry of the audio pipeline. Every stream of an ALSA client gets a Client that counts what
+// the guest wrote, how long its writes blocked and how regularly they came in. The output thread
+// adds the latency of the output track and publishes a report about once per second for the HUD.
+// The reports of a session are also kept as lines of a log that is written out when the server
+// stops, so a report of crackling audio can be diagnosed after the fact.
+public class AudioMetrics {
+    public static final int SESSION_LOG_SIZE = 3600;
+    private static final CopyOnWriteArrayList<Client> clients = new CopyOnWriteArrayList<>();
+    private static final ArrayDeque<String> sessionLog = new ArrayDeque<>();
+    private static volatile Report latestReport = null;
+    private static long sessionStartTimeNs = 0;
+    private static int maxClientId = 0;
+
+    // Intervals between the events of something that should be periodic, over the current window
+    public static class IntervalStats {
+        private long lastTimeNs = 0;
+        private int count = 0;
+        private long sumNs = 0;
+        private double sumSquaresNs = 0;
+        private long maxNs = 0;
+
+        public void record(long timeNs) {
+            if (lastTimeNs != 0) {
+                long intervalNs = timeNs - lastTimeNs;
+                count++;
+                sumNs += intervalNs;
+                sumSquaresNs += (double)intervalNs * intervalNs;
+                maxNs = Math.max(maxNs, intervalNs);
+            }
+            lastTimeNs = timeNs;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public float getAverageMs() {
+            return count > 0 ? sumNs / (float)count / 1000000.0f : 0;
+        }
+
+        public float getMaxMs() {
+            return maxNs / 1000000.0f;
+        }
+
+        // Standard deviation of the intervals
+        public float getJitterMs() {
+            if (count < 2) return 0;
+            double average = (double)sumNs / count;
+            return (float)(Math.sqrt(Math.max(0, sumSquaresNs / count - average * average)) / 1000000.0);
+        }
+
+        // Starts a new window, the next interval is still measured from the last event
+        public void reset() {
+            count = 0;
+            sumNs = 0;
+            sumSquaresNs = 0;
+            maxNs = 0;
+        }
+
+        // Starts a new window after a pause, which would otherwise count as a long interval
+        public void restart() {
+            reset();
+            lastTimeNs = 0;
+        }
+    }
+
+    public static class Client {
+        private final int id;
+        private final String description;
+        private final AudioMixer.Stream stream;
+        private final int sampleRate;
+        private final int bufferFrames;
+        private final IntervalStats writeIntervals = new IntervalStats();
+        private int writeCount = 0;
+        private int writerBlockedCount = 0;
+        private long writerBlockedTimeNs = 0;
+        private long droppedFrames = 0;
+
+        private Client(int id, String description, AudioMixer.Stream stream, int sampleRate, int bufferFrames) {
+            this.id = id;
+            this.description = description;
+            this.stream = stream;
+            this.sampleRate = sampleRate;
+            this.bufferFrames = bufferFrames;
+        }
+
+        public synchronized void onWrite(long timeNs) {
+            writeIntervals.record(timeNs);
+            writeCount++;
+        }
+
+        // The guest stopped writing on purpose
+        public synchronized void onStop() {
+            writeIntervals.restart();
+        }
+
+        public synchronized void onWriterBlocked(long blockedTimeNs) {
+            writerBlockedCount++;
+            writerBlockedTimeNs += blockedTimeNs;
+        }
+
+        public synchronized void onDropped(int frames) {
+            droppedFrames += frames;
+        }
+
+        public synchronized int getWriterBlockedCount() {
+            return writerBlockedCount;
+        }
+
+        public synchronized long getWriterBlockedTimeNs() {
+            return writerBlockedTimeNs;
+        }
+
+        public long getFramesWritten() {
+            return stream.getFramesWritten();
+        }
+
+        private float framesToMillis(long frames) {
+            return frames * 1000.0f / Math.max(sampleRate, 1);
+        }
+
+        private synchronized String summarize() {
+            return String.format(Locale.ENGLISH, "c%d %s closed: %d frames, %d writes, xrun %d, blocked %d/%dms, dropped %d frames",
+                id, description, getFramesWritten(), writeCount, stream.getUnderrunCount(), writerBlockedCount, writerBlockedTimeNs / 1000000, droppedFrames);
+        }
+    }
+
+    public static Client addClient(String description, AudioMixer.Stream stream, int sampleRate, int bufferFrames) {
+        Client client;
+        synchronized (sessionLog) {
+            if (sessionStartTimeNs == 0) sessionStartTimeNs = System.nanoTime();
+            client = new Client(++maxClientId, description, stream, sampleRate, bufferFrames);
+        }
+        clients.add(client);
+        return client;
+    }
+
+    public static void removeClient(Client client) {
+        if (!clients.remove(client)) return;
+        appendToSessionLog(formatTime(System.nanoTime()) + " " + client.summarize());
+    }
+
+    // Returns the last published report, null while no stream is playing
+    public static Report getLatestReport() {
+        return latestReport;
+    }
+
+    public static void clearLatestReport() {
+        latestReport = null;
+    }
+
+    // Takes a report of the output and all clients, starts a new measurement window and adds the
+    // report to the session log
+    public static Report publish(float outputLatencyMs, float outputBufferMs, int outputUnderrunCount, IntervalStats periodIntervals, long timeNs) {
+        Report report = new Report(outputLatencyMs, outputBufferMs, outputUnderrunCount, periodIntervals, clients.toArray(new Client[0]));
+        periodIntervals.reset();
+        latestReport = report;
+        appendToSessionLog(formatTime(timeNs) + " " + report);
+        return report;
+    }
+
+    private static String formatTime(long timeNs) {
+        long startTimeNs;
+        synchronized (sessionLog) {
+            if (sessionStartTimeNs == 0) sessionStartTimeNs = timeNs;
+            startTimeNs = sessionStartTimeNs;
+        }
+        return String.format(Locale.ENGLISH, "+%.1fs", (timeNs - startTimeNs) / 1000000000.0);
+    }
+
+    private static void appendToSessionLog(String line) {
+        synchronized (sessionLog) {
+            if (sessionLog.size() == SESSION_LOG_SIZE) sessionLog.removeFirst();
+            sessionLog.addLast(line);
+        }
+    }
+
+    public static String getSessionLog() {
+        StringBuilder sb = new StringBuilder();
+        synchronized (sessionLog) {
+            for (String line : sessionLog) sb.append(line).append('\n');
+        }
+        return sb.toString();
+    }
+
+    // Writes the log of the session to the file and starts a new session
+    public static boolean writeSessionLog(File file) {
+        String log = getSessionLog();
+        reset();
+        if (log.isEmpty()) return false;
+
+        try (FileWriter writer = new FileWriter(file, false)) {
+            writer.write(log);
+            return true;
+        }
+        catch (IOException e) {
+            Log.e("AudioMetrics", "Could not write the session log", e);
+            return false;
+        }
+    }
+
+    public static void reset() {
+        synchronized (sessionLog) {
+            sessionLog.clear();
+            sessionStartTimeNs = 0;
+        }
+        latestReport = null;
+    }
+
+    public static class Report {
+        public final float outputLatencyMs;
+        public final float outputBufferMs;
+        public final int outputUnderrunCount;
+        public final float periodJitterMs;
+        private final String[] descriptions;
+        private final int[] ids;
+        private final long[] framesWritten;
+        private final int[] underrunCounts;
+        private final int[] writerBlockedCounts;
+        private final float[] writerBlockedTimesMs;
+        private final long[] droppedFrames;
+        private final float[] bufferSizesMs;
+        private final float[] queuedMs;
+        private final float[] writeIntervalsMs;
+        private final float[] writeJittersMs;
+        private final float[] maxWriteIntervalsMs;
+
+        private Report(float outputLatencyMs, float outputBufferMs, int outputUnderrunCount, IntervalStats periodIntervals, Client[] clients) {
+            this.outputLatencyMs = outputLatencyMs;
+            this.outputBufferMs = outputBufferMs;
+            this.outputUnderrunCount = outputUnderrunCount;
+            this.periodJitterMs = periodIntervals.getJitterMs();
+
+            int count = clients.length;
+            descriptions = new String[count];
+            ids = new int[count];
+            framesWritten = new long[count];
+            underrunCounts = new int[count];
+            writerBlockedCounts = new int[count];
+            writerBlockedTimesMs = new float[count];
+            droppedFrames = new long[count];
+            bufferSizesMs = new float[count];
+            queuedMs = new float[count];
+            writeIntervalsMs = new float[count];
+            writeJittersMs = new float[count];
+            maxWriteIntervalsMs = new float[count];
+
+            for (int i = 0; i < count; i++) {
+                Client client = clients[i];
+                synchronized (client) {
+                    descriptions[i] = client.description;
+                    ids[i] = client.id;
+                    framesWritten[i] = client.getFramesWritten();
+                    underrunCounts[i] = client.stream.getUnderrunCount();
+                    writerBlockedCounts[i] = client.writerBlockedCount;
+                    writerBlockedTimesMs[i] = client.writerBlockedTimeNs / 1000000.0f;
+                    droppedFrames[i] = client.droppedFrames;
+                    bufferSizesMs[i] = client.framesToMillis(client.bufferFrames);
+                    queuedMs[i] = client.framesToMillis(client.stream.getQueuedFrames());
+                    writeIntervalsMs[i] = client.writeIntervals.getAverageMs();
+                    writeJittersMs[i] = client.writeIntervals.getJitterMs();
+                    maxWriteIntervalsMs[i] = client.writeIntervals.getMaxMs();
+                    client.writeIntervals.reset();
+                }
+            }
+        }
+
+        public int getClientCount() {
+            return ids.length;
+        }
+
+        public String getDescription(int client) {
+            return descriptions[client];
+        }
+
+        public long getFramesWritten(int client) {
+            return framesWritten[client];
+        }
+
+        public int getUnderrunCount(int client) {
+            return underrunCounts[client];
+        }
+
+        public int getWriterBlockedCount(int client) {
+            return writerBlockedCounts[client];
+        }
+
+        public float getWriterBlockedTimeMs(int client) {
+            return writerBlockedTimesMs[client];
+        }
+
+        public float getBufferSizeMs(int client) {
+            return bufferSizesMs[client];
+        }
+
+        // Time a frame written by the client now takes until it is played
+        public float getLatencyMs(int client) {
+            return queuedMs[client] + outputLatencyMs;
+        }
+
+        public float getWriteIntervalMs(int client) {
+            return writeIntervalsMs[client];
+        }
+
+        public float getWriteJitterMs(int client) {
+            return writeJittersMs[client];
+        }
+
+        public float getMaxWriteIntervalMs(int client) {
+            return maxWriteIntervalsMs[client];
+        }
+
+        public float getMaxLatencyMs() {
+            float latencyMs = outputLatencyMs;
+            for (int i = 0; i < ids.length; i++) latencyMs = Math.max(latencyMs, getLatencyMs(i));
+            return latencyMs;
+        }
+
+        public int getTotalUnderrunCount() {
+            int count = outputUnderrunCount;
+            for (int underrunCount : underrunCounts) count += underrunCount;
+            return count;
+        }
+
+        public float getMaxWriteJitterMs() {
+            float jitterMs = 0;
+            for (float writeJitterMs : writeJittersMs) jitterMs = Math.max(jitterMs, writeJitterMs);
+            return jitterMs;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(String.format(Locale.ENGLISH, "out %.1fms buf %.1fms xrun %d jit %.2fms",
+                outputLatencyMs, outputBufferMs, outputUnderrunCount, periodJitterMs));
+            for (int i = 0; i < ids.length; i++) {
+                sb.append(String.format(Locale.ENGLISH, " | c%d %s lat %.1fms buf %.1fms frames %d xrun %d blocked %d/%.0fms dropped %d",
+                    ids[i], descriptions[i], getLatencyMs(i), bufferSizesMs[i], framesWritten[i], underrunCounts[i], writerBlockedCounts[i], writerBlockedTimesMs[i], droppedFrames[i]));
+                if (writeIntervalsMs[i] > 0) {
+                    sb.append(String.format(Locale.ENGLISH, " write %.2fms jitter %.2fms max %.2fms", writeIntervalsMs[i], writeJittersMs[i], maxWriteIntervalsMs[i]));
+                }
+            }
+            return sb.toString();
+        }
+    }
+}
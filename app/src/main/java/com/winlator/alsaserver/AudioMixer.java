@@ -0,0 +1,135 @@
+package com.winlator.alsaserver;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Mixes the PCM streams of all ALSA clients into interleaved stereo float at the output rate, so
+// a game only needs one output track no matter how many streams it opens. Each stream is
+// converted from its own format by a PCMConverter, brought to the output rate by a PCMResampler
+// and scaled by its volume.
+public class AudioMixer {
+    public static final byte OUTPUT_CHANNELS = 2;
+    private final int outputSampleRate;
+    private final CopyOnWriteArrayList<Stream> streams = new CopyOnWriteArrayList<>();
+
+    public static class Stream {
+        private final PCMRingBuffer ringBuffer;
+        private final PCMConverter converter;
+        private final PCMResampler resampler;
+        private final int frameBytes;
+        private volatile float volume = 1.0f;
+        private volatile boolean playing = false;
+        private volatile int underrunCount = 0;
+        private boolean closed = false;
+        private final ByteBuffer readBuffer;
+
+        public Stream(PCMRingBuffer ringBuffer, ALSAClient.DataType dataType, int channels, int sampleRate, int outputSampleRate) {
+            this.ringBuffer = ringBuffer;
+            this.converter = new PCMConverter(dataType, channels);
+            this.resampler = new PCMResampler(sampleRate, outputSampleRate);
+            this.frameBytes = converter.getFrameBytes();
+            readBuffer = ByteBuffer.allocateDirect(ringBuffer.getCapacity());
+        }
+
+        public PCMRingBuffer getRingBuffer() {
+            return ringBuffer;
+        }
+
+        public void setVolume(float volume) {
+            this.volume = Math.max(0, volume);
+        }
+
+        public float getVolume() {
+            return volume;
+        }
+
+        public void setPlaying(boolean playing) {
+            this.playing = playing;
+        }
+
+        public boolean isPlaying() {
+            return playing;
+        }
+
+        // Number of mix passes that ran out of data for this stream
+        public int getUnderrunCount() {
+            return underrunCount;
+        }
+
+        public synchronized long getFramesWritten() {
+            return !closed ? ringBuffer.getWritePosition() / frameBytes : 0;
+        }
+
+        // Frames that are buffered but not played yet, including the delay of the resampler
+        public synchronized int getQueuedFrames() {
+            if (closed) return 0;
+            return ringBuffer.getReadableBytes() / frameBytes + (resampler.isPassthrough() ? 0 : resampler.getLatencyFrames());
+        }
+
+        // Drops the buffered and converted data, returns the number of bytes that were not mixed yet
+        public synchronized int flush() {
+            if (closed) return 0;
+            int readable = ringBuffer.getReadableBytes();
+            ringBuffer.clear();
+            resampler.reset();
+            return readable;
+        }
+
+        // Stops all access to the ring buffer, its memory may be unmapped once this returns
+        public synchronized void close() {
+            closed = true;
+            playing = false;
+        }
+
+        private synchronized void mixInto(float[] output, int frames) {
+            if (closed) return;
+            int frameCount = Math.min(resampler.getRequiredInputFrames(frames), ringBuffer.getReadableBytes() / frameBytes);
+            if (frameCount > 0) {
+                readBuffer.clear().limit(frameCount * frameBytes);
+                ringBuffer.read(readBuffer);
+                readBuffer.flip();
+                converter.convert(readBuffer, resampler.getInputBuffer(frameCount), resampler.getInputFrames() * OUTPUT_CHANNELS, frameCount);
+                resampler.commitInput(frameCount);
+            }
+
+            int mixedFrames = resampler.mixInto(output, 0, frames, volume);
+            if (mixedFrames < frames && ringBuffer.getWritePosition() > 0) underrunCount++;
+        }
+    }
+
+    public AudioMixer(int outputSampleRate) {
+        this.outputSampleRate = outputSampleRate;
+    }
+
+    public int getOutputSampleRate() {
+        return outputSampleRate;
+    }
+
+    public Stream addStream(PCMRingBuffer ringBuffer, ALSAClient.DataType dataType, int channels, int sampleRate) {
+        Stream stream = new Stream(ringBuffer, dataType, channels, sampleRate, outputSampleRate);
+        streams.add(stream);
+        return stream;
+    }
+
+    public void removeStream(Stream stream) {
+        streams.remove(stream);
+    }
+
+    public boolean hasPlayingStreams() {
+        for (Stream stream : streams) if (stream.playing) return true;
+        return false;
+    }
+
+    // Fills the output with the given number of interleaved stereo frames, streams without enough
+    // data contribute silence for the rest of the pass
+    public void mix(float[] output, int frames) {
+        int samples = frames * OUTPUT_CHANNELS;
+        for (int i = 0; i < samples; i++) output[i] = 0;
+
+        for (Stream stream : streams) {
+            if (stream.playing) stream.mixInto(output, frames);
+        }
+
+        for (int i = 0; i < samples; i++) output[i] = Math.max(-1.0f, Math.min(output[i], 1.0f));
+    }
+}
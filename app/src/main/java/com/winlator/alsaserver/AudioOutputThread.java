@@ -0,0 +1,176 @@
+package com.winlator.alsaserver;
+
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioTimestamp;
+import android.media.AudioTrack;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+
+// Renders the mix of all ALSA clients into a single low latency output track on a thread with
+// audio priority, so request handling never waits for AudioFlinger. The blocking write of each
+// period paces the thread, while no stream is playing the track is paused and the thread parks.
+public class AudioOutputThread extends Thread {
+    private static final long IDLE_TIMEOUT_NS = 100000000;
+    private final AudioMixer mixer;
+    private final ALSAClient.Options options;
+    private final int framesPerPeriod;
+    private final AudioLatencyController latencyController;
+    private AudioTrack audioTrack;
+    private long framesWritten = 0;
+    private final AudioMetrics.IntervalStats periodIntervals = new AudioMetrics.IntervalStats();
+    private final AudioTimestamp timestamp = new AudioTimestamp();
+    private long nextReportFrame = 0;
+    private volatile boolean running = true;
+
+    public AudioOutputThread(ALSAClient.Options options) {
+        super("AudioOutput");
+        setDaemon(true);
+        this.options = options;
+        this.framesPerPeriod = ALSAClient.getFramesPerBuffer();
+        this.mixer = new AudioMixer(ALSAClient.getOutputSampleRate());
+        // A window of about one second, so the buffer shrinks by at most one period per second
+        this.latencyController = new AudioLatencyController(framesPerPeriod, Math.max(mixer.getOutputSampleRate() / framesPerPeriod, 1), mixer.getOutputSampleRate());
+    }
+
+    public AudioLatencyController getLatencyController() {
+        return latencyController;
+    }
+
+    public AudioMixer getMixer() {
+        return mixer;
+    }
+
+    public void wakeUp() {
+        LockSupport.unpark(this);
+    }
+
+    public void shutdown() {
+        running = false;
+        wakeUp();
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+        float[] mixBuffer = new float[framesPerPeriod * AudioMixer.OUTPUT_CHANNELS];
+
+        while (running) {
+            if (!mixer.hasPlayingStreams()) {
+                AudioMetrics.clearLatestReport();
+                periodIntervals.restart();
+                if (audioTrack != null && audioTrack.getPlayState() == AudioTrack.PLAYSTATE_PLAYING) audioTrack.pause();
+                LockSupport.parkNanos(this, IDLE_TIMEOUT_NS);
+                continue;
+            }
+
+            if (audioTrack == null && !createAudioTrack()) {
+                LockSupport.parkNanos(this, IDLE_TIMEOUT_NS);
+                continue;
+            }
+            if (audioTrack.getPlayState() != AudioTrack.PLAYSTATE_PLAYING) audioTrack.play();
+
+            mixer.mix(mixBuffer, framesPerPeriod);
+            int queuedFrames = getQueuedFrames();
+            int written = audioTrack.write(mixBuffer, 0, mixBuffer.length, AudioTrack.WRITE_BLOCKING);
+            if (written < 0) {
+                Log.w("AudioOutputThread", "Output track write failed (" + written + "), recreating it");
+                releaseAudioTrack();
+                continue;
+            }
+            framesWritten += written / AudioMixer.OUTPUT_CHANNELS;
+            periodIntervals.record(System.nanoTime());
+            updateLatency(queuedFrames);
+            if (framesWritten >= nextReportFrame) {
+                publishMetrics(queuedFrames);
+                nextReportFrame = framesWritten + mixer.getOutputSampleRate();
+            }
+        }
+
+        releaseAudioTrack();
+    }
+
+    private boolean createAudioTrack() {
+        try {
+            AudioFormat format = new AudioFormat.Builder()
+                .setEncoding(AudioFormat.ENCODING_PCM_FLOAT)
+                .setSampleRate(mixer.getOutputSampleRate())
+                .setChannelMask(AudioFormat.CHANNEL_OUT_STEREO)
+                .build();
+            AudioAttributes attributes = new AudioAttributes.Builder()
+                .setUsage(AudioAttributes.USAGE_GAME)
+                .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
+                .build();
+            byte performanceMode = options.performanceMode != 0 ? options.performanceMode : AudioTrack.PERFORMANCE_MODE_LOW_LATENCY;
+            // The capacity leaves the latency controller room to grow, the buffer size starts small
+            int capacityFrames = Math.max(framesPerPeriod * 8, Math.max(options.latencyMillis, options.maxLatencyMillis) * mixer.getOutputSampleRate() / 1000);
+            audioTrack = new AudioTrack.Builder()
+                .setPerformanceMode(performanceMode)
+                .setAudioAttributes(attributes)
+                .setAudioFormat(format)
+                .setBufferSizeInBytes(capacityFrames * AudioMixer.OUTPUT_CHANNELS * 4)
+                .build();
+        }
+        catch (Exception e) {
+            Log.e("AudioOutputThread", "Could not create the output track", e);
+            audioTrack = null;
+            return false;
+        }
+
+        int sampleRate = mixer.getOutputSampleRate();
+        int minFrames = Math.max(framesPerPeriod * 2, options.minLatencyMillis * sampleRate / 1000);
+        int maxFrames = audioTrack.getBufferCapacityInFrames();
+        if (options.maxLatencyMillis > 0) maxFrames = Math.min(maxFrames, options.maxLatencyMillis * sampleRate / 1000);
+        latencyController.setBounds(minFrames, maxFrames);
+        latencyController.setBufferSize(audioTrack.setBufferSizeInFrames(latencyController.getBufferSize()));
+        latencyController.resetUnderrunCount(0);
+        framesWritten = 0;
+        nextReportFrame = 0;
+
+        if (options.volume != 1.0f) audioTrack.setVolume(options.volume);
+        return true;
+    }
+
+    private void releaseAudioTrack() {
+        if (audioTrack != null) {
+            if (latencyController.getLastChange() != null) Log.d("AudioOutputThread", "Latency timeline:\n" + latencyController.getTimeline());
+            audioTrack.pause();
+            audioTrack.flush();
+            audioTrack.release();
+            audioTrack = null;
+        }
+    }
+
+    // Frames the device still has to present, from the timestamp of the frame being presented. The
+    // track position is only used until the track has a timestamp: it advances in bursts of the
+    // mixer, so right after a blocking write it always reads about a period below the buffer size.
+    private int getQueuedFrames() {
+        if (audioTrack.getTimestamp(timestamp)) {
+            double presentedFrames = timestamp.framePosition + (System.nanoTime() - timestamp.nanoTime) * mixer.getOutputSampleRate() / 1000000000.0;
+            return (int)Math.max(0, framesWritten - presentedFrames);
+        }
+        return (int)(framesWritten - (audioTrack.getPlaybackHeadPosition() & 0xffffffffL));
+    }
+
+    private float getOutputLatencyMs(int queuedFrames) {
+        return queuedFrames * 1000.0f / mixer.getOutputSampleRate();
+    }
+
+    private void publishMetrics(int queuedFrames) {
+        AudioMetrics.publish(getOutputLatencyMs(queuedFrames), latencyController.framesToMillis(latencyController.getBufferSize()),
+            audioTrack.getUnderrunCount(), periodIntervals, System.nanoTime());
+    }
+
+    private void updateLatency(int queuedFrames) {
+        int bufferSize = latencyController.getBufferSize();
+        int newBufferSize = latencyController.update(audioTrack.getUnderrunCount(), queuedFrames, System.nanoTime());
+        if (newBufferSize == bufferSize) return;
+
+        latencyController.setBufferSize(audioTrack.setBufferSizeInFrames(newBufferSize));
+        Log.d("AudioOutputThread", String.format(Locale.ENGLISH, "Latency %.1fms -> %.1fms%s", latencyController.framesToMillis(bufferSize),
+            latencyController.framesToMillis(latencyController.getBufferSize()), latencyController.getLastChange().underrun ? " after underrun" : ""));
+    }
+}
@@ -0,0 +1,125 @@
+package com.winlator.alsaserver;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Converts blocks of client PCM to interleaved stereo float for the mixer. Samples are read with
+// the bulk get of a typed view in the byte order of the format, which swaps big endian data in one
+// pass, and the per-sample work is kept to plain loops over arrays the JIT can vectorize.
+// Layouts with more than two channels are down-mixed in the ALSA channel order.
+public class PCMConverter {
+    private static final float CENTER_GAIN = 0.70710678f;
+    private static final float SURROUND_GAIN = 0.70710678f;
+    private final ALSAClient.DataType dataType;
+    private final byte channels;
+    private final ByteOrder byteOrder;
+    private byte[] byteSamples = new byte[0];
+    private short[] shortSamples = new short[0];
+    private float[] floatSamples = new float[0];
+
+    public PCMConverter(ALSAClient.DataType dataType, int channels) {
+        this.dataType = dataType;
+        this.channels = (byte)channels;
+        byteOrder = dataType == ALSAClient.DataType.S16BE || dataType == ALSAClient.DataType.FLOATBE ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+    }
+
+    public int getFrameBytes() {
+        return channels * dataType.byteCount;
+    }
+
+    // Reads the given number of frames from the source and writes them as stereo float to the
+    // destination, the position of the source is moved past the frames
+    public void convert(ByteBuffer src, float[] dst, int dstOffset, int frames) {
+        int samples = frames * channels;
+        float[] input = channels == 2 ? null : ensureFloatSamples(samples);
+        float[] output = input != null ? input : dst;
+        int offset = input != null ? 0 : dstOffset;
+
+        ByteOrder srcOrder = src.order();
+        src.order(byteOrder);
+        switch (dataType) {
+            case U8:
+                decodeU8(src, output, offset, samples);
+                break;
+            case S16LE:
+            case S16BE:
+                decodeS16(src, output, offset, samples);
+                break;
+            default:
+                src.asFloatBuffer().get(output, offset, samples);
+                src.position(src.position() + samples * 4);
+                break;
+        }
+        src.order(srcOrder);
+
+        if (channels == 1) {
+            upmixMono(input, dst, dstOffset, frames);
+        }
+        else if (channels > 2) {
+            downmix(input, dst, dstOffset, frames);
+        }
+    }
+
+    private void decodeU8(ByteBuffer src, float[] dst, int offset, int samples) {
+        byte[] bytes = ensureByteSamples(samples);
+        src.get(bytes, 0, samples);
+        for (int i = 0; i < samples; i++) dst[offset + i] = ((bytes[i] & 0xff) - 128) * (1.0f / 128);
+    }
+
+    private void decodeS16(ByteBuffer src, float[] dst, int offset, int samples) {
+        short[] shorts = ensureShortSamples(samples);
+        src.asShortBuffer().get(shorts, 0, samples);
+        src.position(src.position() + samples * 2);
+        for (int i = 0; i < samples; i++) dst[offset + i] = shorts[i] * (1.0f / 32768);
+    }
+
+    private static void upmixMono(float[] input, float[] dst, int dstOffset, int frames) {
+        for (int i = 0, o = dstOffset; i < frames; i++, o += 2) {
+            dst[o] = input[i];
+            dst[o + 1] = input[i];
+        }
+    }
+
+    // ALSA orders channels FL FR RL RR FC LFE SL SR, the low frequency channel is dropped and
+    // the rest is folded into the front pair
+    private void downmix(float[] input, float[] dst, int dstOffset, int frames) {
+        int channels = this.channels;
+        for (int i = 0, s = 0, o = dstOffset; i < frames; i++, s += channels, o += 2) {
+            float left = input[s];
+            float right = input[s + 1];
+            if (channels >= 4) {
+                left += input[s + 2] * SURROUND_GAIN;
+                right += input[s + 3] * SURROUND_GAIN;
+            }
+            else {
+                left += input[s + 2] * CENTER_GAIN;
+                right += input[s + 2] * CENTER_GAIN;
+            }
+            if (channels >= 5) {
+                left += input[s + 4] * CENTER_GAIN;
+                right += input[s + 4] * CENTER_GAIN;
+            }
+            if (channels >= 8) {
+                left += input[s + 6] * SURROUND_GAIN;
+                right += input[s + 7] * SURROUND_GAIN;
+            }
+            dst[o] = left;
+            dst[o + 1] = right;
+        }
+    }
+
+    private byte[] ensureByteSamples(int samples) {
+        if (byteSamples.length < samples) byteSamples = new byte[samples];
+        return byteSamples;
+    }
+
+    private short[] ensureShortSamples(int samples) {
+        if (shortSamples.length < samples) shortSamples = new short[samples];
+        return shortSamples;
+    }
+
+    private float[] ensureFloatSamples(int samples) {
+        if (floatSamples.length < samples) floatSamples = new float[samples];
+        return floatSamples;
+    }
+}
@@ -0,0 +1,170 @@
+package com.winlator.alsaserver;
+
+// Converts interleaved stereo float between sample rates with a Kaiser windowed sinc filter.
+// The filter is tabulated for a fixed number of fractional positions and interpolated linearly in
+// between, its cutoff follows the lower of the two rates so downsampling does not alias. Equal
+// rates pass the samples through unchanged and without delay.
+// The caller appends converted frames to the input buffer and mixes the output from it, the
+// input keeps the frames the filter still needs for the next pass.
+public class PCMResampler {
+    private static final int PHASES = 128;
+    private static final int BASE_HALF_TAPS = 16;
+    private static final int MAX_HALF_TAPS = 64;
+    private static final double KAISER_BETA = 8.0;
+    private static final double PASSBAND = 0.92;
+    private final double step;
+    private final boolean passthrough;
+    private final int halfTaps;
+    private final float[] filter;
+    private float[] input = new float[0];
+    private int inputFrames;
+    private double position;
+
+    public PCMResampler(int inputSampleRate, int outputSampleRate) {
+        step = (double)inputSampleRate / outputSampleRate;
+        passthrough = inputSampleRate == outputSampleRate;
+
+        if (passthrough) {
+            halfTaps = 0;
+            filter = null;
+        }
+        else {
+            double cutoff = Math.min(1.0, 1.0 / step) * PASSBAND;
+            halfTaps = (int)Math.min(MAX_HALF_TAPS, Math.ceil(BASE_HALF_TAPS / Math.min(1.0, 1.0 / step)));
+            filter = createFilter(halfTaps, cutoff);
+        }
+        reset();
+    }
+
+    // Row p holds the taps for the fractional position p / PHASES, tap t weights the input frame
+    // t - halfTaps + 1 frames away from the integer position. Rows are normalized to unity gain.
+    private static float[] createFilter(int halfTaps, double cutoff) {
+        int taps = halfTaps * 2;
+        float[] filter = new float[(PHASES + 1) * taps];
+        double besselBeta = bessel0(KAISER_BETA);
+
+        for (int p = 0; p <= PHASES; p++) {
+            double frac = (double)p / PHASES;
+            double sum = 0;
+            double[] row = new double[taps];
+            for (int t = 0; t < taps; t++) {
+                double x = frac - (t - halfTaps + 1);
+                double sinc = x == 0 ? 1.0 : Math.sin(Math.PI * cutoff * x) / (Math.PI * cutoff * x);
+                double w = x / halfTaps;
+                double window = Math.abs(w) >= 1.0 ? 0 : bessel0(KAISER_BETA * Math.sqrt(1.0 - w * w)) / besselBeta;
+                row[t] = sinc * window;
+                sum += row[t];
+            }
+            for (int t = 0; t < taps; t++) filter[p * taps + t] = (float)(row[t] / sum);
+        }
+        return filter;
+    }
+
+    private static double bessel0(double x) {
+        double sum = 1.0;
+        double term = 1.0;
+        for (int k = 1; k < 32; k++) {
+            term *= (x / (2 * k)) * (x / (2 * k));
+            sum += term;
+        }
+        return sum;
+    }
+
+    public boolean isPassthrough() {
+        return passthrough;
+    }
+
+    // Delay of the output in input frames
+    public int getLatencyFrames() {
+        return halfTaps;
+    }
+
+    // Forgets the buffered input, the filter history starts from silence again
+    public void reset() {
+        inputFrames = passthrough ? 0 : halfTaps - 1;
+        if (input.length < inputFrames * 2) input = new float[inputFrames * 2];
+        for (int i = 0; i < inputFrames * 2; i++) input[i] = 0;
+        position = passthrough ? 0 : halfTaps - 1;
+    }
+
+    // Number of input frames that still have to be appended to produce the given number of frames
+    public int getRequiredInputFrames(int outputFrames) {
+        if (outputFrames <= 0) return 0;
+        int lastIndex = (int)(position + (outputFrames - 1) * step);
+        return Math.max(0, lastIndex + halfTaps + 1 - inputFrames);
+    }
+
+    // Makes room for the given number of frames and returns the buffer to write them to, starting
+    // at frame getInputFrames()
+    public float[] getInputBuffer(int frames) {
+        int required = (inputFrames + frames) * 2;
+        if (input.length < required) {
+            float[] newInput = new float[Math.max(required, input.length * 2)];
+            System.arraycopy(input, 0, newInput, 0, inputFrames * 2);
+            input = newInput;
+        }
+        return input;
+    }
+
+    public int getInputFrames() {
+        return inputFrames;
+    }
+
+    public void commitInput(int frames) {
+        inputFrames += frames;
+    }
+
+    // Adds up to the given number of resampled frames scaled by the volume to the output and
+    // returns how many frames the buffered input was enough for
+    public int mixInto(float[] output, int outputOffset, int frames, float volume) {
+        int produced;
+        if (passthrough) {
+            produced = Math.min(frames, inputFrames);
+            int samples = produced * 2;
+            for (int i = 0; i < samples; i++) output[outputOffset + i] += input[i] * volume;
+            discardInput(produced);
+            return produced;
+        }
+
+        int taps = halfTaps * 2;
+        float[] filter = this.filter;
+        float[] input = this.input;
+        double position = this.position;
+        for (produced = 0; produced < frames; produced++) {
+            int index = (int)position;
+            if (index + halfTaps >= inputFrames) break;
+
+            double phase = (position - index) * PHASES;
+            int p = (int)phase;
+            float mix = (float)(phase - p);
+            int row0 = p * taps;
+            int row1 = row0 + taps;
+            int s = (index - halfTaps + 1) * 2;
+
+            float left = 0;
+            float right = 0;
+            for (int t = 0; t < taps; t++, s += 2) {
+                float c = filter[row0 + t] + (filter[row1 + t] - filter[row0 + t]) * mix;
+                left += input[s] * c;
+                right += input[s + 1] * c;
+            }
+
+            int o = outputOffset + produced * 2;
+            output[o] += left * volume;
+            output[o + 1] += right * volume;
+            position += step;
+        }
+
+        // Keeps the frames before the new position that the next taps still reach
+        int discard = Math.max(0, Math.min((int)position - halfTaps + 1, inputFrames));
+        this.position = position - discard;
+        discardInput(discard);
+        return produced;
+    }
+
+    private void discardInput(int frames) {
+        if (frames <= 0) return;
+        inputFrames -= frames;
+        System.arraycopy(input, frames * 2, input, 0, inputFrames * 2);
+    }
+}
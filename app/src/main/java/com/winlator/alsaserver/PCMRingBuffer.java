@@ -0,0 +1,114 @@
+package com.winlator.alsaserver;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Single-producer/single-consumer ring of PCM bytes between the request handler of a client and
+// the audio thread. Both positions only grow, each side writes its own one and reads the other,
+// so the fill level is their difference and no locking is needed. Subclasses may keep the
+// positions elsewhere, like SharedPCMRingBuffer does for a ring shared with the guest.
+public class PCMRingBuffer {
+    private final ByteBuffer buffer;
+    private final ByteBuffer writeView;
+    private final ByteBuffer readView;
+    private final int capacity;
+    private volatile long writePosition = 0;
+    private volatile long readPosition = 0;
+
+    public PCMRingBuffer(int capacity) {
+        this(ByteBuffer.allocateDirect(capacity));
+    }
+
+    protected PCMRingBuffer(ByteBuffer buffer) {
+        this.capacity = buffer.capacity();
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        writeView = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        readView = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getReadableBytes() {
+        return (int)(getWritePosition() - getReadPosition());
+    }
+
+    public int getWritableBytes() {
+        return capacity - getReadableBytes();
+    }
+
+    public long getWritePosition() {
+        return writePosition;
+    }
+
+    public long getReadPosition() {
+        return readPosition;
+    }
+
+    protected void setWritePosition(long writePosition) {
+        this.writePosition = writePosition;
+    }
+
+    protected void setReadPosition(long readPosition) {
+        this.readPosition = readPosition;
+    }
+
+    // Producer side: copies as much of the remaining data as fits and returns the number of bytes copied
+    public int write(ByteBuffer data) {
+        int length = Math.min(data.remaining(), getWritableBytes());
+        if (length == 0) return 0;
+
+        long position = getWritePosition();
+        int offset = (int)(position % capacity);
+        int firstLength = Math.min(length, capacity - offset);
+
+        int limit = data.limit();
+        data.limit(data.position() + firstLength);
+        writeView.limit(offset + firstLength).position(offset);
+        writeView.put(data);
+
+        if (firstLength < length) {
+            data.limit(data.position() + length - firstLength);
+            writeView.limit(length - firstLength).position(0);
+            writeView.put(data);
+        }
+        data.limit(limit);
+
+        setWritePosition(position + length);
+        return length;
+    }
+
+    // Consumer side: returns a view of the readable bytes that are contiguous in memory, the
+    // caller reads from it and passes the number of bytes it used to consume()
+    public ByteBuffer peek() {
+        int readable = getReadableBytes();
+        int offset = (int)(getReadPosition() % capacity);
+        readView.limit(offset + Math.min(readable, capacity - offset)).position(offset);
+        return readView;
+    }
+
+    // Consumer side: copies up to the remaining space of the destination and returns the number of bytes copied
+    public int read(ByteBuffer dst) {
+        int length = Math.min(dst.remaining(), getReadableBytes());
+        int copied = 0;
+        while (copied < length) {
+            ByteBuffer region = peek();
+            region.limit(region.position() + Math.min(region.remaining(), length - copied));
+            int count = region.remaining();
+            dst.put(region);
+            consume(count);
+            copied += count;
+        }
+        return copied;
+    }
+
+    public void consume(int length) {
+        setReadPosition(getReadPosition() + Math.min(length, getReadableBytes()));
+    }
+
+    // Drops the buffered data, must not run concurrently with the consumer
+    public void clear() {
+        setReadPosition(getWritePosition());
+    }
+}
@@ -0,0 +1,99 @@
+package com.winlator.alsaserver;
+
+import com.winlator.sysvshm.SharedMemoryAtomics;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Ring of PCM bytes in the shared memory segment of a client that speaks the v2 protocol. The
+// guest plugin writes its frames and advances the write position itself, the audio thread reads
+// them and advances the read position, so neither a WRITE request nor a copy is needed per period.
+// A guest waiting for space sets the waiting flag and sleeps on the read sequence, which is bumped
+// and woken whenever data is consumed. All values are little endian, the positions only grow.
+//
+//   0 u32 magic, 4 u32 version, 8 u32 capacity, 12 u32 frameBytes
+//   64 u64 writePosition (written by the guest)
+//   96 u64 readPosition, 104 u32 readSequence (written by the server), 108 u32 writerWaiting
+//   128 u8[capacity] data
+public class SharedPCMRingBuffer extends PCMRingBuffer {
+    public static final int MAGIC = 0x474e5241;
+    public static final int VERSION = 2;
+    public static final int HEADER_SIZE = 128;
+    public static final int CAPACITY_OFFSET = 8;
+    public static final int FRAME_BYTES_OFFSET = 12;
+    public static final int WRITE_POSITION_OFFSET = 64;
+    public static final int READ_POSITION_OFFSET = 96;
+    public static final int READ_SEQUENCE_OFFSET = 104;
+    public static final int WRITER_WAITING_OFFSET = 108;
+    private final ByteBuffer sharedBuffer;
+    private final ByteBuffer header;
+
+    public SharedPCMRingBuffer(ByteBuffer sharedBuffer, int frameBytes) {
+        super(sliceData(sharedBuffer));
+        this.sharedBuffer = sharedBuffer;
+        this.header = sharedBuffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+
+        header.putInt(4, VERSION);
+        header.putInt(CAPACITY_OFFSET, getCapacity());
+        header.putInt(FRAME_BYTES_OFFSET, frameBytes);
+        storePosition(WRITE_POSITION_OFFSET, 0);
+        storePosition(READ_POSITION_OFFSET, 0);
+        header.putInt(READ_SEQUENCE_OFFSET, 0);
+        header.putInt(WRITER_WAITING_OFFSET, 0);
+        header.putInt(0, MAGIC);
+    }
+
+    private static ByteBuffer sliceData(ByteBuffer sharedBuffer) {
+        ByteBuffer data = sharedBuffer.duplicate();
+        data.position(HEADER_SIZE);
+        return data.slice();
+    }
+
+    // Size of the segment that holds a ring of the given capacity
+    public static int getSharedSize(int capacity) {
+        return HEADER_SIZE + capacity;
+    }
+
+    public ByteBuffer getSharedBuffer() {
+        return sharedBuffer;
+    }
+
+    @Override
+    public long getWritePosition() {
+        return loadPosition(WRITE_POSITION_OFFSET);
+    }
+
+    @Override
+    public long getReadPosition() {
+        return loadPosition(READ_POSITION_OFFSET);
+    }
+
+    // The guest owns the write position, a value that does not fit the ring reads as empty
+    @Override
+    public int getReadableBytes() {
+        long readable = getWritePosition() - getReadPosition();
+        return readable >= 0 && readable <= getCapacity() ? (int)readable : 0;
+    }
+
+    // Written by the guest only
+    @Override
+    protected void setWritePosition(long writePosition) {}
+
+    @Override
+    protected void setReadPosition(long readPosition) {
+        storePosition(READ_POSITION_OFFSET, readPosition);
+        wakeWriter();
+    }
+
+    protected long loadPosition(int offset) {
+        return SharedMemoryAtomics.loadAcquire(header, offset);
+    }
+
+    protected void storePosition(int offset, long value) {
+        SharedMemoryAtomics.storeRelease(header, offset, value);
+    }
+
+    protected void wakeWriter() {
+        SharedMemoryAtomics.wakeFutex(header, READ_SEQUENCE_OFFSET, WRITER_WAITING_OFFSET);
+    }
+}
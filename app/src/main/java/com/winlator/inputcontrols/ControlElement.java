@@ -31,6 +31,9 @@ public class ControlElement {
     public static final float TRACKPAD_MAX_SPEED = 20.0f;
     public static final byte TRACKPAD_ACCELERATION_THRESHOLD = 4;
     public static final short BUTTON_MIN_TIME_TO_KEEP_PRESSED = 300;
+    // Room around the bounding box for the shadow, the outlines and the shadow layer of the paint
+    private static final byte DRAW_MARGIN = 8;
+    private static final float STICK_ADAPTIVE_RADIUS = 1.4f;
     public enum Type {
         BUTTON, D_PAD, RANGE_BUTTON, STICK, TRACKPAD;
 
@@ -87,6 +90,11 @@ public class ControlElement {
     private RangeScroller scroller;
     private CubicBezierInterpolator interpolator;
     private Object touchTime;
+    private final Rect drawBounds = new Rect();
+    private final Rect hitBounds = new Rect();
+    private Bitmap cachedBitmap;
+    private int cacheGeneration = -1;
+    private boolean cacheNeedsUpdate = true;
 
     private final PointF touchDownOrigin = new PointF();
 
@@ -118,7 +126,7 @@ public class ControlElement {
         text = "";
         iconId = 0;
         range = null;
-        boundingBoxNeedsUpdate = true;
+        invalidateLayout();
     }
 
     public Type getType() {
@@ -132,7 +140,7 @@ public class ControlElement {
 
     public void setTypeWithoutReset(Type type) {
         this.type = type;
-        boundingBoxNeedsUpdate = true;
+        invalidateLayout();
     }
 
     public int getBindingCount() {
@@ -143,7 +151,7 @@ public class ControlElement {
         bindings = new Binding[bindingCount];
         setBinding(Binding.NONE);
         states = new boolean[bindingCount];
-        boundingBoxNeedsUpdate = true;
+        invalidateLayout();
     }
 
     public Shape getShape() {
@@ -152,7 +160,7 @@ public class ControlElement {
 
     public void setShape(Shape shape) {
         this.shape = shape;
-        boundingBoxNeedsUpdate = true;
+        invalidateLayout();
     }
 
     public Range getRange() {
@@ -161,6 +169,7 @@ public class ControlElement {
 
     public void setRange(Range range) {
         this.range = range;
+        cacheNeedsUpdate = true;
     }
 
     public byte getOrientation() {
@@ -169,7 +178,7 @@ public class ControlElement {
 
     public void setOrientation(byte orientation) {
         this.orientation = orientation;
-        boundingBoxNeedsUpdate = true;
+        invalidateLayout();
     }
 
     public boolean isToggleSwitch() {
@@ -190,13 +199,15 @@ public class ControlElement {
             bindings = Arrays.copyOf(bindings, index+1);
             Arrays.fill(bindings, oldLength-1, bindings.length, Binding.NONE);
             states = new boolean[bindings.length];
-            boundingBoxNeedsUpdate = true;
+            invalidateLayout();
         }
         bindings[index] = binding;
+        cacheNeedsUpdate = true;
     }
 
     public void setBinding(Binding binding) {
         Arrays.fill(bindings, binding);
+        cacheNeedsUpdate = true;
     }
 
     public float getScale() {
@@ -205,7 +216,7 @@ public class ControlElement {
 
     public void setScale(float scale) {
         this.scale = scale;
-        boundingBoxNeedsUpdate = true;
+        invalidateLayout();
     }
 
     public short getX() {
@@ -214,7 +225,7 @@ public class ControlElement {
 
     public void setX(int x) {
         this.x = (short)x;
-        boundingBoxNeedsUpdate = true;
+        invalidateLayout();
     }
 
     public short getY() {
@@ -223,7 +234,7 @@ public class ControlElement {
 
     public void setY(int y) {
         this.y = (short)y;
-        boundingBoxNeedsUpdate = true;
+        invalidateLayout();
     }
 
     public boolean isSelected() {
@@ -232,6 +243,7 @@ public class ControlElement {
 
     public void setSelected(boolean selected) {
         this.selected = selected;
+        cacheNeedsUpdate = true;
     }
 
     public String getText() {
@@ -240,6 +252,7 @@ public class ControlElement {
 
     public void setText(String text) {
         this.text = text != null ? text : "";
+        cacheNeedsUpdate = true;
     }
 
     public byte getIconId() {
@@ -248,6 +261,7 @@ public class ControlElement {
 
     public void setIconId(int iconId) {
         this.iconId = (byte)iconId;
+        cacheNeedsUpdate = true;
     }
 
     public Rect getBoundingBox() {
@@ -255,6 +269,23 @@ public class ControlElement {
         return boundingBox;
     }
 
+    private void invalidateLayout() {
+        boundingBoxNeedsUpdate = true;
+        cacheNeedsUpdate = true;
+        inputControlsView.invalidateElementGrid();
+    }
+
+    // Area in which handleTouchDown can accept a touch, hidden sticks take touches around them
+    public Rect getHitBounds() {
+        Rect boundingBox = getBoundingBox();
+        if (!inputControlsView.isShowJoysticks() && (type == Type.STICK || type == Type.D_PAD)) {
+            int radius = (int)Math.ceil(boundingBox.width() * 0.5f * STICK_ADAPTIVE_RADIUS) + 1;
+            hitBounds.set(boundingBox.centerX() - radius, boundingBox.centerY() - radius, boundingBox.centerX() + radius, boundingBox.centerY() + radius);
+        }
+        else hitBounds.set(boundingBox);
+        return hitBounds;
+    }
+
     private Rect computeBoundingBox() {
         int snappingSize = inputControlsView.getSnappingSize();
         int halfWidth = 0;
@@ -353,20 +384,63 @@ public class ControlElement {
         return text;
     }
 
+    // Elements that are touched, latched or scrolled change from frame to frame and are drawn directly,
+    // all others are drawn from their cached bitmap
+    public boolean isLive() {
+        return isEngaged();
+    }
+
+    private boolean isHidden() {
+        return !inputControlsView.isShowJoysticks() && type == Type.STICK && !isEngaged();
+    }
+
+    // Area the element draws to, including its shadow and outlines
+    public Rect getDrawBounds() {
+        Rect boundingBox = getBoundingBox();
+        int margin = (int)Math.ceil(inputControlsView.getSnappingSize() * 0.5f) + DRAW_MARGIN;
+        drawBounds.set(boundingBox.left - margin, boundingBox.top - margin, boundingBox.right + margin, boundingBox.bottom + margin);
+        return drawBounds;
+    }
+
+    // Draws the element from a bitmap that is only rendered again when the element or the look of the
+    // overlay changed, the paint applies the overlay opacity
+    public void drawCached(Canvas canvas, Paint paint) {
+        if (isHidden()) return;
+        Rect bounds = getDrawBounds();
+        int width = bounds.width();
+        int height = bounds.height();
+        if (width <= 0 || height <= 0) return;
+
+        int generation = inputControlsView.getElementCacheGeneration();
+        if (cacheNeedsUpdate || cacheGeneration != generation || cachedBitmap == null) {
+            if (cachedBitmap == null || cachedBitmap.getWidth() != width || cachedBitmap.getHeight() != height) {
+                cachedBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            }
+            else cachedBitmap.eraseColor(Color.TRANSPARENT);
+
+            Canvas cacheCanvas = new Canvas(cachedBitmap);
+            cacheCanvas.translate(-bounds.left, -bounds.top);
+            draw(cacheCanvas);
+            cacheGeneration = generation;
+            cacheNeedsUpdate = false;
+        }
+        canvas.drawBitmap(cachedBitmap, bounds.left, bounds.top, paint);
+    }
+
+    public void releaseCache() {
+        cachedBitmap = null;
+        cacheNeedsUpdate = true;
+    }
+
+    // Draws the element as it looks now, the caller applies the overlay opacity
     public void draw(Canvas canvas) {
-        boolean isStickType = (type == Type.STICK || type == Type.D_PAD);
-        if (!inputControlsView.isShowJoysticks() && type == Type.STICK && !isEngaged()) return;
+        if (isHidden()) return;
 
         int snappingSize = inputControlsView.getSnappingSize();
         Paint paint = inputControlsView.getPaint();
-        float overlayOpacity = inputControlsView.getOverlayOpacity();
         int primaryColor = inputControlsView.getPrimaryColor();
 
-        // Apply global transparency via a layer to ensure all components blend correctly
-        paint.setAlpha((int)(overlayOpacity * 255));
-        int saveCount = canvas.saveLayer(0, 0, canvas.getWidth(), canvas.getHeight(), paint);
-
-        // Base alphas for components (will be multiplied by the layer's alpha)
+        // Base alphas for components (will be multiplied by the overlay opacity)
         int fillAlpha = 50;
         int engagedFillAlpha = 90;
         int shadowAlpha = 140; // Increased for better visibility
@@ -674,8 +748,6 @@ public class ControlElement {
                 break;
             }
         }
-        canvas.restoreToCount(saveCount);
-        paint.setAlpha(255);
     }
 
     private void drawShape(Canvas canvas, float cx, float cy, Rect boundingBox, Paint paint, float expansion) {
@@ -758,7 +830,7 @@ public class ControlElement {
         float cx = bb.centerX();
         float cy = bb.centerY();
         float radius = bb.width() * 0.5f;
-        float adaptiveRadius = radius * 1.4f; // 40% larger area
+        float adaptiveRadius = radius * STICK_ADAPTIVE_RADIUS; // 40% larger area
         float dx = touchX - cx;
         float dy = touchY - cy;
         return (dx * dx + dy * dy) <= (adaptiveRadius * adaptiveRadius);
@@ -1012,6 +1084,7 @@ public class ControlElement {
             }
 
             currentPointerId = -1;
+            cacheNeedsUpdate = true;
             inputControlsView.invalidate();
             return true;
         }
@@ -1031,6 +1104,7 @@ public class ControlElement {
         }
 
         currentPointerId = -1;
+        cacheNeedsUpdate = true;
         inputControlsView.invalidate();
         return true;
     }
@@ -1048,6 +1122,7 @@ public class ControlElement {
             currentPosition = new PointF();
         }
         currentPosition.set(x, y);
+        cacheNeedsUpdate = true;
         // Optionally invalidate the view to trigger a redraw
         inputControlsView.invalidate();
     }
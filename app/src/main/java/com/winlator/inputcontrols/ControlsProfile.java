@@ -26,6 +26,7 @@ public class ControlsProfile implements Comparable<ControlsProfile> {
     private final ArrayList<ExternalController> controllers = new ArrayList<>();
     private final List<ControlElement> immutableElements = Collections.unmodifiableList(elements);
     private boolean elementsLoaded = false;
+    private int layoutVersion = 0;
     private boolean controllersLoaded = false;
     private boolean virtualGamepad = false;
     private final Context context;
@@ -124,6 +125,11 @@ public class ControlsProfile implements Comparable<ControlsProfile> {
         return elementsLoaded;
     }
 
+    // Bumped whenever elements are loaded, added or removed
+    public int getLayoutVersion() {
+        return layoutVersion;
+    }
+
     public void save() {
         File file = getProfileFile(context, id);
         Log.d("ControlsProfile", "Saving profile: " + name + " (ID: " + id + ") to " + file.getAbsolutePath());
@@ -170,11 +176,13 @@ public class ControlsProfile implements Comparable<ControlsProfile> {
     public void addElement(ControlElement element) {
         elements.add(element);
         elementsLoaded = true;
+        layoutVersion++;
     }
 
     public void removeElement(ControlElement element) {
         elements.remove(element);
         elementsLoaded = true;
+        layoutVersion++;
     }
 
     public List<ControlElement> getElements() {
@@ -237,6 +245,7 @@ public class ControlsProfile implements Comparable<ControlsProfile> {
 
     public void loadElements(InputControlsView inputControlsView) {
         elements.clear();
+        layoutVersion++;
         elementsLoaded = false;
         virtualGamepad = false;
 
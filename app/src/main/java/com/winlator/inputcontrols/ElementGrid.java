@@ -0,0 +1,65 @@
+package com.winlator.inputcontrols;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Uniform grid over the hit bounds of the elements of a layout, so a touch is only tested against
+// the elements whose bounds overlap the cell it falls in instead of against all of them. Each cell
+// keeps its items in the order they were added, which is the order of the profile. Points and bounds
+// outside the area are clamped to the edge cells, so elements partly off screen are still found.
+public class ElementGrid<T> {
+    private final ArrayList<ArrayList<T>> cells = new ArrayList<>();
+    private int cellSize = 1;
+    private int columns = 0;
+    private int rows = 0;
+    private int size = 0;
+
+    // Removes all items and lays out cells of cellSize pixels over an area of width by height
+    public void reset(int width, int height, int cellSize) {
+        this.cellSize = Math.max(1, cellSize);
+        columns = Math.max(1, (width + this.cellSize - 1) / this.cellSize);
+        rows = Math.max(1, (height + this.cellSize - 1) / this.cellSize);
+        size = 0;
+
+        int cellCount = columns * rows;
+        for (int i = 0; i < cells.size(); i++) cells.get(i).clear();
+        while (cells.size() < cellCount) cells.add(new ArrayList<>());
+    }
+
+    // Adds an item to every cell its bounds touch, right and bottom included
+    public void add(T item, int left, int top, int right, int bottom) {
+        int startColumn = getColumn(left);
+        int endColumn = getColumn(right);
+        int startRow = getRow(top);
+        int endRow = getRow(bottom);
+
+        for (int row = startRow; row <= endRow; row++) {
+            for (int column = startColumn; column <= endColumn; column++) cells.get(row * columns + column).add(item);
+        }
+        size++;
+    }
+
+    // Returns the items whose bounds may contain the point, rounded like ControlElement.containsPoint.
+    // The list belongs to the grid and is only valid until the next reset.
+    public List<T> query(float x, float y) {
+        if (size == 0) return Collections.emptyList();
+        return cells.get(getRow((int)(y + 0.5f)) * columns + getColumn((int)(x + 0.5f)));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getCellSize() {
+        return cellSize;
+    }
+
+    private int getColumn(int x) {
+        return Math.max(0, Math.min(columns - 1, Math.floorDiv(x, cellSize)));
+    }
+
+    private int getRow(int y) {
+        return Math.max(0, Math.min(rows - 1, Math.floorDiv(y, cellSize)));
+    }
+}
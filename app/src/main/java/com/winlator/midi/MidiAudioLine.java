@@ -0,0 +1,157 @@
+package com.winlator.midi;
+
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+
+import cn.sherlock.javax.sound.sampled.DataLine;
+import cn.sherlock.javax.sound.sampled.Line;
+import cn.sherlock.javax.sound.sampled.LineUnavailableException;
+import cn.sherlock.javax.sound.sampled.SourceDataLine;
+
+// Output line of the synthesizer on a low latency track at the native rate of the device, so the
+// rendered audio takes the fast mixer path without being resampled by AudioFlinger. The default
+// line of the synthesizer library opens a plain track at 44.1kHz with a large buffer.
+public class MidiAudioLine implements SourceDataLine {
+    private final cn.sherlock.javax.sound.sampled.AudioFormat format;
+    private AudioTrack audioTrack;
+    private int bufferSize;
+    private long framesWritten = 0;
+
+    public MidiAudioLine() {
+        int sampleRate = AudioTrack.getNativeOutputSampleRate(AudioManager.STREAM_MUSIC);
+        format = new cn.sherlock.javax.sound.sampled.AudioFormat(sampleRate > 0 ? sampleRate : 48000, 16, 2, true, false);
+    }
+
+    @Override
+    public void open(cn.sherlock.javax.sound.sampled.AudioFormat format, int bufferSize) throws LineUnavailableException {
+        if (audioTrack != null) return;
+        try {
+            AudioFormat trackFormat = new AudioFormat.Builder()
+                .setEncoding(AudioFormat.ENCODING_PCM_16BIT)
+                .setSampleRate((int)this.format.getSampleRate())
+                .setChannelMask(AudioFormat.CHANNEL_OUT_STEREO)
+                .build();
+            AudioAttributes attributes = new AudioAttributes.Builder()
+                .setUsage(AudioAttributes.USAGE_GAME)
+                .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
+                .build();
+            audioTrack = new AudioTrack.Builder()
+                .setPerformanceMode(AudioTrack.PERFORMANCE_MODE_LOW_LATENCY)
+                .setAudioAttributes(attributes)
+                .setAudioFormat(trackFormat)
+                .setBufferSizeInBytes(bufferSize)
+                .build();
+        }
+        catch (Exception e) {
+            throw new LineUnavailableException(e.getMessage());
+        }
+        this.bufferSize = audioTrack.getBufferSizeInFrames() * this.format.getFrameSize();
+        framesWritten = 0;
+    }
+
+    @Override
+    public void open(cn.sherlock.javax.sound.sampled.AudioFormat format) throws LineUnavailableException {
+        open(format, (int)(this.format.getFrameRate() * this.format.getFrameSize() / 50));
+    }
+
+    @Override
+    public void open() throws LineUnavailableException {
+        open(format);
+    }
+
+    @Override
+    public int write(byte[] data, int offset, int length) {
+        if (audioTrack == null) return 0;
+        int written = audioTrack.write(data, offset, length, AudioTrack.WRITE_BLOCKING);
+        if (written <= 0) return 0;
+        framesWritten += written / format.getFrameSize();
+        return written;
+    }
+
+    @Override
+    public void drain() {}
+
+    @Override
+    public void flush() {
+        if (audioTrack != null) audioTrack.flush();
+    }
+
+    @Override
+    public void start() {
+        if (audioTrack != null) audioTrack.play();
+    }
+
+    @Override
+    public void stop() {
+        if (audioTrack != null) audioTrack.pause();
+    }
+
+    @Override
+    public void close() {
+        if (audioTrack != null) {
+            audioTrack.pause();
+            audioTrack.flush();
+            audioTrack.release();
+            audioTrack = null;
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return audioTrack != null;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return audioTrack != null && audioTrack.getPlayState() == AudioTrack.PLAYSTATE_PLAYING;
+    }
+
+    @Override
+    public boolean isActive() {
+        return isRunning();
+    }
+
+    @Override
+    public cn.sherlock.javax.sound.sampled.AudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    @Override
+    public int available() {
+        if (audioTrack == null) return 0;
+        long queuedFrames = framesWritten - (audioTrack.getPlaybackHeadPosition() & 0xffffffffL);
+        return Math.max(0, bufferSize - (int)queuedFrames * format.getFrameSize());
+    }
+
+    @Override
+    public int getFramePosition() {
+        return (int)getLongFramePosition();
+    }
+
+    @Override
+    public long getLongFramePosition() {
+        return audioTrack != null ? audioTrack.getPlaybackHeadPosition() & 0xffffffffL : 0;
+    }
+
+    @Override
+    public long getMicrosecondPosition() {
+        return (long)(getLongFramePosition() * 1000000L / format.getFrameRate());
+    }
+
+    @Override
+    public float getLevel() {
+        return -1;
+    }
+
+    @Override
+    public Line.Info getLineInfo() {
+        return new DataLine.Info(SourceDataLine.class, format);
+    }
+}
@@ -0,0 +1,47 @@
+package com.winlator.midi;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Reads the events of a MIDI_BATCH packet. After the request code a batch holds the number of
+// events and the guest time of the batch in microseconds, every event its time relative to it,
+// its length and its bytes, a short message or a complete SysEx message. All values are little endian.
+//
+//   u8 requestCode, u16 eventCount, u64 baseTimeUs
+//   eventCount x (u32 deltaTimeUs, u16 length, u8[length] data)
+public class MidiBatchReader {
+    public static final int HEADER_SIZE = 11;
+    public static final int EVENT_HEADER_SIZE = 6;
+
+    public interface Listener {
+        void onMidiEvent(long timeUs, byte[] data, int length);
+    }
+
+    private byte[] data = new byte[256];
+
+    // Reads the batch after its request code, returns false if the packet was cut short
+    public boolean read(ByteBuffer packet, Listener listener) {
+        ByteOrder byteOrder = packet.order();
+        packet.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (packet.remaining() < HEADER_SIZE - 1) return false;
+            int eventCount = packet.getShort() & 0xffff;
+            long baseTimeUs = packet.getLong();
+
+            for (int i = 0; i < eventCount; i++) {
+                if (packet.remaining() < EVENT_HEADER_SIZE) return false;
+                long timeUs = baseTimeUs + (packet.getInt() & 0xffffffffL);
+                int length = packet.getShort() & 0xffff;
+                if (length == 0 || packet.remaining() < length) return false;
+
+                if (data.length < length) data = new byte[Math.max(length, data.length * 2)];
+                packet.get(data, 0, length);
+                listener.onMidiEvent(timeUs, data, length);
+            }
+            return true;
+        }
+        finally {
+            packet.order(byteOrder);
+        }
+    }
+}
@@ -7,14 +7,21 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import cn.sherlock.com.sun.media.sound.ModelPatch;
+import cn.sherlock.com.sun.media.sound.SF2Instrument;
 import cn.sherlock.com.sun.media.sound.SF2Soundbank;
 import cn.sherlock.com.sun.media.sound.SoftSynthesizer;
+import jp.kshoji.javax.sound.midi.Instrument;
+import jp.kshoji.javax.sound.midi.MidiMessage;
 import jp.kshoji.javax.sound.midi.Receiver;
 import jp.kshoji.javax.sound.midi.ShortMessage;
+import jp.kshoji.javax.sound.midi.SysexMessage;
 
 public class MidiHandler {
     private static final String TAG = "MidiHandler";
@@ -22,7 +29,8 @@ public class MidiHandler {
     private boolean running = false;
     private static final short SERVER_PORT = 7942;
     private static final short CLIENT_PORT = 7941;
-    private static final int BUF_SIZE = 9;
+    // Large enough for the biggest datagram, batches and SysEx messages share the socket with short messages
+    private static final int BUF_SIZE = 65507;
     private final ByteBuffer receiveData = ByteBuffer.allocate(BUF_SIZE).order(ByteOrder.LITTLE_ENDIAN);
     private final DatagramPacket receivePacket = new DatagramPacket(receiveData.array(), BUF_SIZE);
     private SoftSynthesizer synth;
@@ -30,13 +38,38 @@ public class MidiHandler {
     private SF2Soundbank sf2SoundBank;
     private long lastMidiMsgTime = 0;
     private ShortMessage message = new ShortMessage();
-    private ScheduledExecutorService scheduler;
+    private ScheduledExecutorService checkScheduler;
     private static final long CHECK_DELAY = 200;
+    private static final byte PERCUSSION_CHANNEL = 9;
+    private static final int SYNTH_LATENCY_US = 20000;
+    // Instruments of the soundbank by patch key, only those a program change asked for are loaded
+    private final HashMap<Integer, Instrument> instruments = new HashMap<>();
+    private final HashSet<Integer> loadedPatches = new HashSet<>();
+    private final int[] channelBanks = new int[16];
+    private final MidiBatchReader batchReader = new MidiBatchReader();
+    private final MidiScheduler scheduler = new MidiScheduler();
+
+    public synchronized void setSoundBank(SF2Soundbank soundBank) {
+        if (soundBank == this.sf2SoundBank) return;
+        if (synth != null && this.sf2SoundBank != null) {
+            sendAllOff(true);
+            synth.unloadAllInstruments(this.sf2SoundBank);
+        }
 
-    public void setSoundBank(SF2Soundbank soundBank) {
-        clearRecv();
-        clearSynth();
         this.sf2SoundBank = soundBank;
+        instruments.clear();
+        loadedPatches.clear();
+        if (soundBank != null) {
+            for (SF2Instrument instrument : soundBank.getInstruments()) {
+                ModelPatch patch = (ModelPatch)instrument.getPatch();
+                instruments.put(getPatchKey(patch.getBank(), patch.getProgram(), patch.isPercussion()), instrument);
+            }
+        }
+        if (synth != null) loadDefaultInstruments();
+    }
+
+    private static int getPatchKey(int bank, int program, boolean percussion) {
+        return (percussion ? 1 << 24 : 0) | (bank << 8) | program;
     }
 
     public void start() {
@@ -48,8 +81,9 @@ public class MidiHandler {
                 socket.bind(new InetSocketAddress((InetAddress) null, SERVER_PORT));
 
                 while (running) {
+                    receivePacket.setLength(BUF_SIZE);
                     socket.receive(receivePacket);
-                    receiveData.rewind();
+                    receiveData.clear().limit(receivePacket.getLength());
                     handleRequest(receiveData);
 
                 }
@@ -58,7 +92,7 @@ public class MidiHandler {
         });
     }
 
-    public void stop() {
+    public synchronized void stop() {
         running = false;
 
         if (socket != null) {
@@ -68,27 +102,46 @@ public class MidiHandler {
 
         clearRecv();
         clearSynth();
+        loadedPatches.clear();
 
-        if (scheduler != null) {
-            scheduler.shutdown();
-            scheduler = null;
+        if (checkScheduler != null) {
+            checkScheduler.shutdown();
+            checkScheduler = null;
         }
     }
 
-    private void handleRequest(ByteBuffer received) {
+    private synchronized void handleRequest(ByteBuffer received) {
         byte requestCode = received.get();
         switch (requestCode) {
             case RequestCodes.MIDI_SHORT:
                 if (recv != null) {
                     try {
                         lastMidiMsgTime = System.currentTimeMillis();
-                        message.setMessage(received.get(), received.get(), received.get());
+                        int status = received.get() & 0xff;
+                        int data1 = received.get() & 0xff;
+                        int data2 = received.get() & 0xff;
+                        trackProgram(status, data1, data2);
+                        message.setMessage(status, data1, data2);
                         recv.send(message, -1);
                     } catch (Exception e) {}
                 }
                 break;
             case RequestCodes.MIDI_LONG:
-                // FIXME: not implemented.
+                if (recv != null && received.remaining() >= 2) {
+                    int length = received.getShort() & 0xffff;
+                    if (length > 0 && received.remaining() >= length) {
+                        lastMidiMsgTime = System.currentTimeMillis();
+                        byte[] data = new byte[length];
+                        received.get(data);
+                        sendMessage(data, length, -1);
+                    }
+                }
+                break;
+            case RequestCodes.MIDI_BATCH:
+                if (recv != null) {
+                    lastMidiMsgTime = System.currentTimeMillis();
+                    batchReader.read(received, (timeUs, data, length) -> sendMessage(data, length, scheduler.toSynthTime(timeUs, synth.getMicrosecondPosition())));
+                }
                 break;
             case RequestCodes.MIDI_PREPARE:
                 // stub
@@ -97,25 +150,82 @@ public class MidiHandler {
                 // stub
                 break;
             case RequestCodes.MIDI_OPEN:
+                // The synthesizer outlives the device, reopening it between tracks costs nothing
                 if (synth == null || recv == null) {
                     clearRecv();
                     clearSynth();
                     prepareSynthAndRecv();
-                    startMidiDataChecking();
                 }
+                scheduler.reset();
+                startMidiDataChecking();
                 break;
             case RequestCodes.MIDI_CLOSE:
-                clearRecv();
-                clearSynth();
-                if (scheduler != null)
-                    scheduler.shutdown();
+                sendAllOff(true);
+                if (checkScheduler != null) {
+                    checkScheduler.shutdown();
+                    checkScheduler = null;
+                }
                 break;
             case RequestCodes.MIDI_RESET:
-                // stub
+                resetChannels();
+                scheduler.reset();
+                break;
+        }
+    }
+
+    // Sends a short or SysEx message to the synthesizer, at the given synthesizer time or right
+    // away for -1. Scheduled messages are queued by reference so each gets its own object.
+    private void sendMessage(byte[] data, int length, long timeUs) {
+        try {
+            MidiMessage midiMessage;
+            int status = data[0] & 0xff;
+            if (status == ShortMessage.START_OF_EXCLUSIVE || status == ShortMessage.END_OF_EXCLUSIVE) {
+                midiMessage = new SysexMessage(data, length);
+            }
+            else {
+                int data1 = length > 1 ? data[1] & 0xff : 0;
+                int data2 = length > 2 ? data[2] & 0xff : 0;
+                trackProgram(status, data1, data2);
+                ShortMessage shortMessage = new ShortMessage();
+                if (length == 1) shortMessage.setMessage(status);
+                else shortMessage.setMessage(status, data1, data2);
+                midiMessage = shortMessage;
+            }
+            recv.send(midiMessage, timeUs);
+        } catch (Exception e) {}
+    }
+
+    // Follows bank selects so a program change loads the instrument of the selected bank
+    private void trackProgram(int status, int data1, int data2) {
+        int channel = status & 0x0f;
+        switch (status & 0xf0) {
+            case ShortMessage.CONTROL_CHANGE:
+                if (data1 == 0) channelBanks[channel] = (data2 << 7) | (channelBanks[channel] & 0x7f);
+                else if (data1 == 32) channelBanks[channel] = (channelBanks[channel] & ~0x7f) | data2;
+                break;
+            case ShortMessage.PROGRAM_CHANGE:
+                loadInstrument(channelBanks[channel], data1, channel == PERCUSSION_CHANNEL);
                 break;
         }
     }
 
+    private void loadInstrument(int bank, int program, boolean percussion) {
+        int patchKey = getPatchKey(bank, program, percussion);
+        if (synth == null || loadedPatches.contains(patchKey)) return;
+
+        Instrument instrument = instruments.get(patchKey);
+        // Missing banks fall back to the general MIDI instrument, like the synthesizer does
+        if (instrument == null && bank != 0) instrument = instruments.get(getPatchKey(0, program, percussion));
+        if (instrument != null) synth.loadInstrument(instrument);
+        loadedPatches.add(patchKey);
+    }
+
+    // Channels play the first program before any program change, so it is always loaded
+    private void loadDefaultInstruments() {
+        loadInstrument(0, 0, false);
+        loadInstrument(0, 0, true);
+    }
+
     private void clearRecv() {
         if (recv != null) {
             recv.close();
@@ -132,9 +242,12 @@ public class MidiHandler {
 
     private void prepareSynthAndRecv() {
         try {
+            HashMap<String, Object> info = new HashMap<>();
+            info.put("latency", (long)SYNTH_LATENCY_US);
             synth = new SoftSynthesizer();
-            synth.open();
-            synth.loadAllInstruments(sf2SoundBank);
+            synth.open(new MidiAudioLine(), info);
+            loadedPatches.clear();
+            loadDefaultInstruments();
             recv = synth.getReceiver();
         } catch (Exception e) {
             clearRecv();
@@ -142,16 +255,37 @@ public class MidiHandler {
         }
     }
 
-    private void sendAllOff() {
-        // FIXME: A bad implement.
+    // Sends all notes off to every channel. Releasing the sustain pedal first also stops held notes,
+    // but changes controller state the guest set, so the silence watchdog leaves the pedal alone.
+    private void sendAllOff(boolean releaseSustain) {
         if (recv != null) {
             try {
                 ShortMessage msg = new ShortMessage();
-                for (int i = 0; i < 128; i++) {
-                    for (int j = 0; j < 16; j++) {
-                        msg.setMessage(ShortMessage.NOTE_OFF, j, i, 0);
+                for (int channel = 0; channel < 16; channel++) {
+                    if (releaseSustain) {
+                        msg.setMessage(ShortMessage.CONTROL_CHANGE, channel, 64, 0);
                         recv.send(msg, -1);
                     }
+                    msg.setMessage(ShortMessage.CONTROL_CHANGE, channel, 123, 0);
+                    recv.send(msg, -1);
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Silences every channel at once and restores the controllers, programs start from bank 0 again
+    private void resetChannels() {
+        if (recv != null) {
+            try {
+                ShortMessage msg = new ShortMessage();
+                for (int channel = 0; channel < 16; channel++) {
+                    msg.setMessage(ShortMessage.CONTROL_CHANGE, channel, 120, 0);
+                    recv.send(msg, -1);
+                    msg.setMessage(ShortMessage.CONTROL_CHANGE, channel, 121, 0);
+                    recv.send(msg, -1);
+                    channelBanks[channel] = 0;
                 }
             } catch (Exception e) {
                 e.printStackTrace();
@@ -160,19 +294,19 @@ public class MidiHandler {
     }
 
     public void startMidiDataChecking() {
-        // FIXME: A bad implement.
-        //  Since this synth doesn't supported 0xB0 0x7B 0x00 as ALL_NOTES_OFF
-        if (scheduler != null)
-            scheduler.shutdown();
+        if (checkScheduler != null)
+            checkScheduler.shutdown();
 
-        scheduler = Executors.newScheduledThreadPool(1);
+        checkScheduler = Executors.newScheduledThreadPool(1);
         Runnable checkTask = () -> {
             long currentTime = System.currentTimeMillis();
             if (lastMidiMsgTime != 0 && currentTime - lastMidiMsgTime > (CHECK_DELAY /2)) {
-                sendAllOff();
+                synchronized (this) {
+                    sendAllOff(false);
+                }
                 lastMidiMsgTime = 0;
             }
         };
-        scheduler.scheduleWithFixedDelay(checkTask, 0, CHECK_DELAY, TimeUnit.MILLISECONDS);
+        checkScheduler.scheduleWithFixedDelay(checkTask, 0, CHECK_DELAY, TimeUnit.MILLISECONDS);
     }
 }
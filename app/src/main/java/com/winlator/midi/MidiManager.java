@@ -13,7 +13,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Executors;
 
 import cn.sherlock.com.sun.media.sound.SF2Soundbank;
@@ -25,6 +27,25 @@ public class MidiManager {
     public static final int ERROR_UNKNOWN = 0;
     public static final int ERROR_EXIST = 1;
     public static final int ERROR_BADFORMAT = 2;
+    private static final int SOUND_BANK_CACHE_SIZE = 2;
+    // The last parsed soundbanks by path, least recently used first, so switching back to one does
+    // not parse it again. A file that changed replaces the entry of its path.
+    private static final LinkedHashMap<String, CachedSoundBank> soundBankCache = new LinkedHashMap<String, CachedSoundBank>(4, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedSoundBank> eldest) {
+            return size() > SOUND_BANK_CACHE_SIZE;
+        }
+    };
+
+    private static class CachedSoundBank {
+        private final long lastModified;
+        private final SF2Soundbank soundBank;
+
+        private CachedSoundBank(long lastModified, SF2Soundbank soundBank) {
+            this.lastModified = lastModified;
+            this.soundBank = soundBank;
+        }
+    }
 
     public interface OnMidiLoadedCallback {
         void onSuccess(SF2Soundbank soundbank);
@@ -39,7 +60,19 @@ public class MidiManager {
     public static void load(File file, OnMidiLoadedCallback callback) {
         Executors.newSingleThreadExecutor().execute(() -> {
             try {
-                SF2Soundbank soundBank = new SF2Soundbank(file);
+                String path = file.getAbsolutePath();
+                long lastModified = file.lastModified();
+                SF2Soundbank soundBank = null;
+                synchronized (soundBankCache) {
+                    CachedSoundBank cached = soundBankCache.get(path);
+                    if (cached != null && cached.lastModified == lastModified) soundBank = cached.soundBank;
+                }
+                if (soundBank == null) {
+                    soundBank = new SF2Soundbank(file);
+                    synchronized (soundBankCache) {
+                        soundBankCache.put(path, new CachedSoundBank(lastModified, soundBank));
+                    }
+                }
                 callback.onSuccess(soundBank);
             } catch (Exception e) {
                 callback.onFailed(e);
@@ -72,7 +105,11 @@ public class MidiManager {
     }
 
     public static boolean removeSF2File(Context context, String fileName) {
-        return new File(getSoundFontDir(context), fileName).delete();
+        File file = new File(getSoundFontDir(context), fileName);
+        synchronized (soundBankCache) {
+            soundBankCache.remove(file.getAbsolutePath());
+        }
+        return file.delete();
     }
 
     public static void installSF2File(Context context, Uri uri, OnSoundFontInstalledCallback callback) {
@@ -0,0 +1,49 @@
+package com.winlator.midi;
+
+// Maps guest event times onto the clock of the synthesizer. The offset between both clocks is
+// taken from the first event plus a fixed delay that absorbs batching and delivery jitter, so
+// events keep their relative timing instead of playing whenever their packet arrives. An event
+// that would already be late, or one far ahead after a jump of the guest clock, anchors the
+// mapping again.
+public class MidiScheduler {
+    public static final long DEFAULT_DELAY_US = 10000;
+    private static final long MAX_AHEAD_US = 1000000;
+    private final long delayUs;
+    private long offsetUs = 0;
+    private boolean anchored = false;
+    private int reanchorCount = 0;
+
+    public MidiScheduler() {
+        this(DEFAULT_DELAY_US);
+    }
+
+    public MidiScheduler(long delayUs) {
+        this.delayUs = delayUs;
+    }
+
+    // Returns the synthesizer time to play an event of the given guest time at
+    public long toSynthTime(long guestTimeUs, long synthTimeUs) {
+        long timeUs = guestTimeUs + offsetUs;
+        if (!anchored || timeUs < synthTimeUs || timeUs > synthTimeUs + delayUs + MAX_AHEAD_US) {
+            if (anchored) reanchorCount++;
+            offsetUs = synthTimeUs + delayUs - guestTimeUs;
+            anchored = true;
+            timeUs = guestTimeUs + offsetUs;
+        }
+        return timeUs;
+    }
+
+    public long getDelayUs() {
+        return delayUs;
+    }
+
+    // Number of times the mapping had to be corrected after it was first anchored
+    public int getReanchorCount() {
+        return reanchorCount;
+    }
+
+    public void reset() {
+        anchored = false;
+        offsetUs = 0;
+    }
+}
@@ -8,4 +8,5 @@ public class RequestCodes {
     public static final byte MIDI_OPEN = 5;
     public static final byte MIDI_CLOSE = 6;
     public static final byte MIDI_RESET = 7;
+    public static final byte MIDI_BATCH = 8;
 }
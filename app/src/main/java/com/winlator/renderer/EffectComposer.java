@@ -3,22 +3,45 @@ package com.winlator.renderer;
 import android.opengl.GLES20;
 import android.util.Log;
 
+import com.winlator.XrActivity;
 import com.winlator.renderer.effects.Effect;
+import com.winlator.renderer.effects.EffectPass;
 import com.winlator.renderer.effects.ToonEffect;
+import com.winlator.renderer.material.EASUMaterial;
+import com.winlator.renderer.material.RCASMaterial;
 import com.winlator.renderer.material.ShaderMaterial;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 
 public class EffectComposer {
     // Constants
     private static final String TAG = "EffectComposer";
-    private boolean isRendering = false;
+    public static final float MIN_RENDER_SCALE = 0.25f;
+    private static final float DEFAULT_SHARPNESS = 0.87f;
 
     // Instance fields
     private final List<Effect> effects = new ArrayList<>();
+    private final HashMap<String, ShaderMaterial> passMaterials = new HashMap<>();
+    private List<EffectPass> passes = new ArrayList<>();
+    private List<EffectPass> framePasses = null;
+    private boolean passesNeedUpdate = true;
     private RenderTarget readBuffer;
     private RenderTarget writeBuffer;
+    private RenderTarget upscaleBuffer;
+    private final EASUMaterial easuMaterial = new EASUMaterial();
+    private final RCASMaterial rcasMaterial = new RCASMaterial();
+    private volatile float renderScale = 1.0f;
+    private float sharpness = DEFAULT_SHARPNESS;
+    private float frameScale = 1.0f;
+    private int outputFramebuffer = 0;
+    private int frameWidth;
+    private int frameHeight;
+    private final ArrayList<GPUTimer> passTimers = new ArrayList<>();
+    private final GPUTimer upscaleTimer = new GPUTimer();
+    private int timedPassCount = 0;
+    private boolean upscaleTimed = false;
     private final GLRenderer renderer;
 
     // Constructor
@@ -27,26 +50,70 @@ public class EffectComposer {
 //        Log.d(TAG, "EffectComposer created");
     }
 
-    // Initializes the buffers if they are not already initialized
+    // Initializes the buffers if they are not already initialized or the frame size changed
     private void initBuffers() {
 //        Log.d(TAG, "initBuffers() called");
+        readBuffer = ensureBuffer(readBuffer, frameWidth, frameHeight);
+        writeBuffer = ensureBuffer(writeBuffer, frameWidth, frameHeight);
 
-        if (readBuffer == null) {
-            readBuffer = new RenderTarget();
-            readBuffer.allocateFramebuffer(renderer.getSurfaceWidth(), renderer.getSurfaceHeight());
-//            Log.d(TAG, "Initialized readBuffer with size: " + renderer.getSurfaceWidth() + "x" + renderer.getSurfaceHeight());
+        if (frameScale < 1.0f) {
+            upscaleBuffer = ensureBuffer(upscaleBuffer, renderer.getSurfaceWidth(), renderer.getSurfaceHeight());
         }
-
-        if (writeBuffer == null) {
-            writeBuffer = new RenderTarget();
-            writeBuffer.allocateFramebuffer(renderer.getSurfaceWidth(), renderer.getSurfaceHeight());
-//            Log.d(TAG, "Initialized writeBuffer with size: " + renderer.getSurfaceWidth() + "x" + renderer.getSurfaceHeight());
+        else if (upscaleBuffer != null) {
+            upscaleBuffer.destroy();
+            upscaleBuffer = null;
         }
     }
 
+    private static RenderTarget ensureBuffer(RenderTarget buffer, int width, int height) {
+        if (buffer != null && buffer.hasSize(width, height)) return buffer;
+        if (buffer != null) buffer.destroy();
+        buffer = new RenderTarget();
+        buffer.allocateFramebuffer(width, height);
+//        Log.d(TAG, "Initialized buffer with size: " + width + "x" + height);
+        return buffer;
+    }
+
+    // Forgets the buffers and programs of a lost GL context without deleting them
+    public synchronized void onSurfaceCreated() {
+        readBuffer = null;
+        writeBuffer = null;
+        upscaleBuffer = null;
+        passMaterials.clear();
+        easuMaterial.reset();
+        rcasMaterial.reset();
+        for (GPUTimer timer : passTimers) timer.destroy();
+        upscaleTimer.destroy();
+    }
+
+    // Sets the internal resolution of the scene relative to the surface, anything below 1
+    // composites the X screen into a smaller target and upscales it with EASU and RCAS
+    public void setRenderScale(float renderScale) {
+        renderScale = Math.max(MIN_RENDER_SCALE, Math.min(renderScale, 1.0f));
+        if (renderScale == this.renderScale) return;
+        this.renderScale = renderScale;
+        renderer.xServerView.requestRender();
+    }
+
+    public float getRenderScale() {
+        return renderScale;
+    }
+
+    // Sets the RCAS sharpness from 0 (none) to 1 (maximum)
+    public void setSharpness(float sharpness) {
+        this.sharpness = Math.max(0.0f, Math.min(sharpness, 1.0f));
+        renderer.xServerView.requestRender();
+    }
+
+    // Returns the scale of the scene target used by the current frame
+    public float getFrameScale() {
+        return frameScale;
+    }
+
     public synchronized void addEffect(Effect effect) {
         if (!effects.contains(effect)) {
             effects.add(effect);
+            passesNeedUpdate = true;
 //            Log.d(TAG, "Effect added: " + effect.getClass().getSimpleName());
         } else {
 //            Log.d(TAG, "Effect already present: " + effect.getClass().getSimpleName());
@@ -81,6 +148,7 @@ public class EffectComposer {
     // Removes a specific effect from the composer
     public synchronized void removeEffect(Effect effect) {
         if (effects.remove(effect)) {
+            passesNeedUpdate = true;
 //            Log.d(TAG, "Effect removed: " + effect.getClass().getSimpleName());
         } else {
 //            Log.d(TAG, "Effect not found for removal: " + effect.getClass().getSimpleName());
@@ -88,93 +156,161 @@ public class EffectComposer {
         renderer.xServerView.requestRender();
     }
 
-    // Renders all the effects in the composer
-    public synchronized void render() {
-        // Check for recursive rendering
-        if (isRendering) {
-//            Log.d(TAG, "Render already in progress, skipping.");
-            return;
+    // Redirects the scene pass of the current frame into the offscreen scene target.
+    // The passes are snapshotted here so that effects added or removed by the UI thread
+    // mid-frame cannot make render() disagree with where the scene was drawn.
+    // Returns false if there are no effects, no upscaling and the scene should be drawn to the screen directly.
+    public synchronized boolean beginScene() {
+        timedPassCount = 0;
+        upscaleTimed = false;
+
+        if (passesNeedUpdate) {
+            passes = EffectPass.build(effects);
+            passesNeedUpdate = false;
         }
 
-        isRendering = true; // Set flag to true
-
-//        Log.d(TAG, "render() called");
+        // The XR compositor owns its viewport, so render scale only applies to the regular surface
+        frameScale = XrActivity.isEnabled(null) ? 1.0f : renderScale;
+        if (passes.isEmpty() && frameScale == 1.0f) return false;
+        framePasses = passes;
 
+        frameWidth = Math.max(1, Math.round(renderer.getSurfaceWidth() * frameScale));
+        frameHeight = Math.max(1, Math.round(renderer.getSurfaceHeight() * frameScale));
         initBuffers();
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, readBuffer.getFramebuffer());
+        return true;
+    }
 
-        // Set up framebuffer if there are effects to render
-        if (hasEffects()) {
-            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, readBuffer.getFramebuffer());
-//            Log.d(TAG, "Binding to readBuffer framebuffer: " + readBuffer.getFramebuffer());
-        } else {
-            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
-//            Log.d(TAG, "Binding to default framebuffer (0)");
-        }
+    // Runs the effect passes over the scene drawn after beginScene() at the internal resolution,
+    // then upscales the result if needed. The last pass renders to the screen.
+    public void render() {
+        if (framePasses == null) return;
+        boolean upscale = frameScale < 1.0f;
 
-        // Draw the initial frame
-        renderer.drawFrame();
-//        Log.d(TAG, "Initial frame drawn");
+        GLES20.glViewport(0, 0, frameWidth, frameHeight);
+        renderer.setViewportNeedsUpdate(true);
 
-        // Iterate through each effect and render it
-        for (Effect effect : effects) {
-            boolean renderToScreen = effect == effects.get(effects.size() - 1);
-            int targetFramebuffer = renderToScreen ? 0 : writeBuffer.getFramebuffer();
+        // Iterate through each pass and render it
+        for (int i = 0, size = framePasses.size(); i < size; i++) {
+            boolean renderToScreen = !upscale && i == size - 1;
 
             // Bind appropriate framebuffer
-            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, targetFramebuffer);
-//            Log.d(TAG, "Binding to " + (renderToScreen ? "screen" : "writeBuffer") + " framebuffer: " + targetFramebuffer);
-
-            GLES20.glViewport(0, 0, renderer.surfaceWidth, renderer.surfaceHeight);
-            renderer.setViewportNeedsUpdate(true);
-//            Log.d(TAG, "Viewport updated to size: " + renderer.surfaceWidth + "x" + renderer.surfaceHeight);
+            if (renderToScreen) {
+                bindScreenFramebuffer();
+            }
+            else GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, writeBuffer.getFramebuffer());
 
             // Clear the buffer
             GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
-//            Log.d(TAG, "Framebuffer cleared");
 
-            // Render the effect
-            renderEffect(effect);
-//            Log.d(TAG, "Effect rendered: " + effect.getClass().getSimpleName());
+            // Render the pass
+            if (i == passTimers.size()) passTimers.add(new GPUTimer());
+            passTimers.get(i).begin();
+            renderPass(framePasses.get(i));
+            passTimers.get(i).end();
 
             // Swap the read and write buffers
             swapBuffers();
-//            Log.d(TAG, "Buffers swapped");
         }
 
-        isRendering = false; // Reset flag after rendering
+        timedPassCount = framePasses.size();
+        if (upscale) {
+            upscaleTimer.begin();
+            renderUpscale();
+            upscaleTimer.end();
+            upscaleTimed = true;
+        }
+        framePasses = null;
+    }
+
+    // Returns the GPU time of the effect passes and the upscaling of the last frame that ran them
+    public long getLastGPUTimeNs() {
+        long timeNs = 0;
+        for (int i = 0; i < timedPassCount; i++) timeNs += Math.max(0, passTimers.get(i).getLastElapsedNs());
+        if (upscaleTimed) timeNs += Math.max(0, upscaleTimer.getLastElapsedNs());
+        return timeNs;
+    }
+
+    public void recordProfile(GLProfiler profiler) {
+        for (int i = 0; i < timedPassCount; i++) profiler.record("fx" + i, passTimers.get(i));
+        if (upscaleTimed) profiler.record("upscale", upscaleTimer);
+    }
+
+    // Upscales the scene with EASU into the full resolution buffer and sharpens it to the screen with RCAS
+    private void renderUpscale() {
+        int surfaceWidth = renderer.getSurfaceWidth();
+        int surfaceHeight = renderer.getSurfaceHeight();
+        GLES20.glViewport(0, 0, surfaceWidth, surfaceHeight);
+
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, upscaleBuffer.getFramebuffer());
+        easuMaterial.use();
+        renderer.getQuadVertices().bind(easuMaterial);
+        easuMaterial.setUniformVec2("inputSize", frameWidth, frameHeight);
+        easuMaterial.setUniformVec2("outputSize", surfaceWidth, surfaceHeight);
+        drawScreenTexture(easuMaterial, readBuffer);
+
+        bindScreenFramebuffer();
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        rcasMaterial.use();
+        renderer.getQuadVertices().bind(rcasMaterial);
+        rcasMaterial.setUniformVec2("resolution", surfaceWidth, surfaceHeight);
+        rcasMaterial.setUniformFloat("sharpness", sharpness);
+        drawScreenTexture(rcasMaterial, upscaleBuffer);
     }
 
-    // Renders a single effect
-    private void renderEffect(Effect effect) {
-//        Log.d(TAG, "renderEffect() called for: " + effect.getClass().getSimpleName());
+    private void drawScreenTexture(ShaderMaterial material, RenderTarget source) {
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, source.getTextureId());
+        material.setUniformInt("screenTexture", 0);
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, renderer.quadVertices.count());
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+    }
 
-        ShaderMaterial material = effect.getMaterial();
+    // Returns the fused program of the pass, compiled once per effect combination
+    private ShaderMaterial getPassMaterial(EffectPass pass) {
+        ShaderMaterial material = passMaterials.get(pass.getKey());
         if (material == null) {
-//            Log.e(TAG, "Material is null for effect: " + effect.getClass().getSimpleName());
-            return;
+            material = pass.createMaterial();
+            passMaterials.put(pass.getKey(), material);
+        }
+        return material;
+    }
+
+    // Sets where the last pass renders to, 0 for the screen
+    public void setOutputFramebuffer(int outputFramebuffer) {
+        this.outputFramebuffer = outputFramebuffer;
+    }
+
+    private void bindScreenFramebuffer() {
+        if (outputFramebuffer != 0) {
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, outputFramebuffer);
         }
+        else if (XrActivity.isEnabled(null)) {
+            XrActivity.getInstance().bindFramebuffer();
+        }
+        else GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+    }
 
+    // Renders a single pass of fused effects
+    private void renderPass(EffectPass pass) {
+        ShaderMaterial material = getPassMaterial(pass);
         material.use();
-//        Log.d(TAG, "ShaderMaterial used: " + material.getClass().getSimpleName());
 
         // Bind the quad vertices to the shader program
-        renderer.getQuadVertices().bind(material.programId);
-//        Log.d(TAG, "Quad vertices bound to program ID: " + material.programId);
+        renderer.getQuadVertices().bind(material);
 
         // Set uniform values
-        material.setUniformVec2("resolution", renderer.surfaceWidth, renderer.surfaceHeight);
+        if (material.hasUniform("resolution")) material.setUniformVec2("resolution", frameWidth, frameHeight);
         GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
         GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, readBuffer.getTextureId());
         material.setUniformInt("screenTexture", 0);
-//        Log.d(TAG, "Uniforms set: resolution=" + renderer.surfaceWidth + "x" + renderer.surfaceHeight + ", screenTexture=" + readBuffer.getTextureId());
+        pass.applyUniforms(material);
 
         // Draw the quad
         GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, renderer.quadVertices.count());
-//        Log.d(TAG, "Quad drawn");
 
         // Unbind the texture
         GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
-//        Log.d(TAG, "Texture unbound");
     }
 
     // Swaps the read and write buffers
@@ -0,0 +1,143 @@
+package com.winlator.renderer;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.view.Choreographer;
+
+import java.util.ArrayDeque;
+
+// Paces presentation by holding back the completion of presented frames. Clients wait for the
+// completion (or the idle fence) before they render into the buffer again, so delaying it slows
+// the game itself down instead of dropping frames it already rendered.
+// Completions are released in order, at most one per frame interval of the target FPS and,
+// with vsync pacing, at most one per refresh or every other refresh of the display.
+public class FrameLimiter implements Choreographer.FrameCallback {
+    // Deadlines this close are considered reached, posted callbacks only have millisecond precision
+    private static final long DEADLINE_TOLERANCE_NS = 500000;
+    private final ArrayDeque<Runnable> pendingPresents = new ArrayDeque<>();
+    private final Runnable releaseCallback = this::onReleaseDeadline;
+    private HandlerThread thread;
+    private Handler handler;
+    private Choreographer choreographer;
+    private volatile int targetFps = 0;
+    private volatile byte vsyncDivisor = 0;
+    private long frameIntervalNs = 0;
+    private long nextDeadlineNs = 0;
+    private int vsyncCount = 0;
+    private boolean frameCallbackPosted = false;
+    private boolean releasePosted = false;
+
+    // Limits presentation to the given rate, 0 for no limit
+    public synchronized void setTargetFps(int targetFps) {
+        this.targetFps = Math.max(targetFps, 0);
+        frameIntervalNs = this.targetFps > 0 ? 1000000000L / this.targetFps : 0;
+    }
+
+    public int getTargetFps() {
+        return targetFps;
+    }
+
+    // Releases at most one frame every given number of display refreshes, 0 disables vsync pacing,
+    // 1 paces to the refresh rate and 2 to half of it
+    public synchronized void setVsyncDivisor(int vsyncDivisor) {
+        this.vsyncDivisor = (byte)Math.max(0, Math.min(vsyncDivisor, 4));
+        this.vsyncCount = this.vsyncDivisor;
+    }
+
+    public int getVsyncDivisor() {
+        return vsyncDivisor;
+    }
+
+    public boolean isEnabled() {
+        return targetFps > 0 || vsyncDivisor > 0;
+    }
+
+    // True if presents can complete inline, frames held back before pacing was turned off go first
+    public synchronized boolean isIdle() {
+        return !isEnabled() && pendingPresents.isEmpty();
+    }
+
+    // Completes the presented frame now or once the pacing allows it
+    public void submit(Runnable present) {
+        synchronized (this) {
+            if (isEnabled() || !pendingPresents.isEmpty()) {
+                if (thread == null) start();
+                pendingPresents.add(present);
+                scheduleRelease();
+                return;
+            }
+        }
+        present.run();
+    }
+
+    private void start() {
+        thread = new HandlerThread("FrameLimiter", Process.THREAD_PRIORITY_DISPLAY);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        handler.post(() -> choreographer = Choreographer.getInstance());
+    }
+
+    public synchronized void stop() {
+        if (thread == null) return;
+        while (!pendingPresents.isEmpty()) handler.post(pendingPresents.poll());
+        thread.quitSafely();
+        thread = null;
+        handler = null;
+        frameCallbackPosted = false;
+        releasePosted = false;
+    }
+
+    private void scheduleRelease() {
+        if (vsyncDivisor > 0) {
+            if (!frameCallbackPosted) {
+                frameCallbackPosted = true;
+                handler.post(() -> choreographer.postFrameCallback(this));
+            }
+        }
+        else if (!releasePosted) {
+            releasePosted = true;
+            long delayMs = Math.max(0, (nextDeadlineNs - System.nanoTime() - DEADLINE_TOLERANCE_NS) / 1000000);
+            handler.postDelayed(releaseCallback, delayMs);
+        }
+    }
+
+    private void onReleaseDeadline() {
+        Runnable present;
+        synchronized (this) {
+            releasePosted = false;
+            present = pollPresent(System.nanoTime());
+            if (!pendingPresents.isEmpty()) scheduleRelease();
+        }
+        if (present != null) present.run();
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        Runnable present = null;
+        synchronized (this) {
+            frameCallbackPosted = false;
+            if (vsyncCount < vsyncDivisor) vsyncCount++;
+
+            if (vsyncCount >= vsyncDivisor) {
+                present = pollPresent(System.nanoTime());
+                if (present != null) vsyncCount = 0;
+            }
+
+            if (!pendingPresents.isEmpty() && thread != null) scheduleRelease();
+        }
+        if (present != null) present.run();
+    }
+
+    // Returns the next frame to complete if its deadline passed and moves the deadline on
+    private Runnable pollPresent(long now) {
+        if (pendingPresents.isEmpty()) return null;
+
+        if (frameIntervalNs > 0) {
+            if (now < nextDeadlineNs - DEADLINE_TOLERANCE_NS) return null;
+            // A late frame starts a new interval instead of letting the next ones catch up in a burst
+            nextDeadlineNs = (now - nextDeadlineNs > frameIntervalNs ? now : nextDeadlineNs) + frameIntervalNs;
+        }
+        return pendingPresents.poll();
+    }
+}
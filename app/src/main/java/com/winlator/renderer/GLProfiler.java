@@ -0,0 +1,174 @@
+package com.winlator.renderer;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+// Collects the GPU times of the compositor passes while profiling is enabled. Every named section
+// keeps a rolling history of its timer results, the render thread publishes a report of it a few
+// times per second so the HUD can tell a slow compositor apart from a slow game.
+public class GLProfiler {
+    public static final int HISTORY_SIZE = 120;
+    // Upper bounds of the histogram buckets in milliseconds, the last bucket holds everything above
+    public static final float[] HISTOGRAM_BOUNDS_MS = {0.25f, 0.5f, 1.0f, 2.0f, 4.0f, 8.0f, 16.0f};
+    private static final short REPORT_INTERVAL = 30;
+    private static final short LOG_INTERVAL = 300;
+    private static volatile boolean enabled = false;
+    private static volatile Report latestReport = null;
+    private final ArrayList<Section> sections = new ArrayList<>();
+    private int frameCount = 0;
+
+    private static class Section {
+        private final String name;
+        private final float[] history = new float[HISTORY_SIZE];
+        private int historyIndex = 0;
+        private int historySize = 0;
+        private int resultCount = 0;
+        private boolean usedThisReport = false;
+
+        private Section(String name) {
+            this.name = name;
+        }
+    }
+
+    public static void setEnabled(boolean enabled) {
+        GLProfiler.enabled = enabled;
+        if (!enabled) latestReport = null;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    // Returns the last published report, null if profiling is disabled or nothing was measured yet
+    public static Report getLatestReport() {
+        return latestReport;
+    }
+
+    // Adds the latest result of the timer to the history of the section, if it has a new one
+    public void record(String name, GPUTimer timer) {
+        if (!enabled) return;
+
+        Section section = null;
+        for (int i = 0; i < sections.size(); i++) {
+            if (sections.get(i).name.equals(name)) {
+                section = sections.get(i);
+                break;
+            }
+        }
+
+        if (section == null) {
+            section = new Section(name);
+            sections.add(section);
+        }
+
+        section.usedThisReport = true;
+        int resultCount = timer.getResultCount();
+        if (resultCount == section.resultCount || timer.getLastElapsedNs() < 0) return;
+        section.resultCount = resultCount;
+
+        section.history[section.historyIndex] = timer.getLastElapsedNs() / 1000000.0f;
+        section.historyIndex = (section.historyIndex + 1) % HISTORY_SIZE;
+        if (section.historySize < HISTORY_SIZE) section.historySize++;
+    }
+
+    public void endFrame() {
+        if (!enabled) return;
+
+        frameCount++;
+        if (frameCount % REPORT_INTERVAL != 0) return;
+
+        // Sections of passes that are gone, like removed effects, drop out of the report
+        for (int i = sections.size() - 1; i >= 0; i--) {
+            Section section = sections.get(i);
+            if (!section.usedThisReport) sections.remove(i);
+            section.usedThisReport = false;
+        }
+
+        Report report = new Report(sections);
+        latestReport = report;
+        if (frameCount % LOG_INTERVAL == 0) Log.d("GLProfiler", report.toString());
+    }
+
+    // Forgets the results of a lost context, timer queries start over with new ids
+    public void reset() {
+        sections.clear();
+        frameCount = 0;
+    }
+
+    public static class Report {
+        private final String[] names;
+        private final float[] lastTimesMs;
+        private final float[] averageTimesMs;
+        private final float[] maxTimesMs;
+        private final int[][] histograms;
+
+        private Report(ArrayList<Section> sections) {
+            int count = sections.size();
+            names = new String[count];
+            lastTimesMs = new float[count];
+            averageTimesMs = new float[count];
+            maxTimesMs = new float[count];
+            histograms = new int[count][HISTOGRAM_BOUNDS_MS.length + 1];
+
+            for (int i = 0; i < count; i++) {
+                Section section = sections.get(i);
+                names[i] = section.name;
+                if (section.historySize == 0) continue;
+
+                float sum = 0;
+                float max = 0;
+                for (int j = 0; j < section.historySize; j++) {
+                    float time = section.history[j];
+                    sum += time;
+                    max = Math.max(max, time);
+
+                    int bucket = 0;
+                    while (bucket < HISTOGRAM_BOUNDS_MS.length && time > HISTOGRAM_BOUNDS_MS[bucket]) bucket++;
+                    histograms[i][bucket]++;
+                }
+
+                lastTimesMs[i] = section.history[(section.historyIndex + HISTORY_SIZE - 1) % HISTORY_SIZE];
+                averageTimesMs[i] = sum / section.historySize;
+                maxTimesMs[i] = max;
+            }
+        }
+
+        public int getSectionCount() {
+            return names.length;
+        }
+
+        public String getName(int section) {
+            return names[section];
+        }
+
+        public float getLastTimeMs(int section) {
+            return lastTimesMs[section];
+        }
+
+        public float getAverageTimeMs(int section) {
+            return averageTimesMs[section];
+        }
+
+        public float getMaxTimeMs(int section) {
+            return maxTimesMs[section];
+        }
+
+        // Returns how many of the recent results fall into each bucket of HISTOGRAM_BOUNDS_MS
+        public int[] getHistogram(int section) {
+            return histograms[section].clone();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < names.length; i++) {
+                if (i > 0) sb.append('\n');
+                sb.append(String.format(Locale.ENGLISH, "%s: avg %.2fms, max %.2fms, histogram", names[i], averageTimesMs[i], maxTimesMs[i]));
+                for (int count : histograms[i]) sb.append(' ').append(count);
+            }
+            return sb.toString();
+        }
+    }
+}
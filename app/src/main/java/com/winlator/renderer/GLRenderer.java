@@ -4,14 +4,26 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.opengl.GLES20;
+import android.opengl.GLES30;
 import android.opengl.GLSurfaceView;
 import android.util.Log;
 
+import app.gamenative.BuildConfig;
 import app.gamenative.R;
 import com.winlator.XrActivity;
 import com.winlator.math.Mathf;
 import com.winlator.math.XForm;
+import com.winlator.renderer.effects.CRTEffect;
+import com.winlator.renderer.effects.ColorEffect;
+import com.winlator.renderer.effects.Effect;
+import com.winlator.renderer.effects.EffectPass;
+import com.winlator.renderer.effects.FXAAEffect;
+import com.winlator.renderer.effects.NTSCCombinedEffect;
+import com.winlator.renderer.effects.ToonEffect;
 import com.winlator.renderer.material.CursorMaterial;
+import com.winlator.renderer.material.EASUMaterial;
+import com.winlator.renderer.material.ProgramBinaryCache;
+import com.winlator.renderer.material.RCASMaterial;
 import com.winlator.renderer.material.ShaderMaterial;
 import com.winlator.renderer.material.WindowMaterial;
 import com.winlator.widget.XServerView;
@@ -25,7 +37,12 @@ import com.winlator.xserver.WindowManager;
 import com.winlator.xserver.XLock;
 import com.winlator.xserver.XServer;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -40,7 +57,7 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
     private final WindowMaterial windowMaterial = new WindowMaterial();
     public final ViewTransformation viewTransformation = new ViewTransformation();
     private final Drawable rootCursorDrawable;
-    private final ArrayList<RenderableWindow> renderableWindows = new ArrayList<>();
+    private final WindowDisplayList displayList;
     private boolean fullscreen = false;
     private boolean toggleFullscreen = false;
     public boolean viewportNeedsUpdate = true;
@@ -53,8 +70,24 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
     public int surfaceWidth;
     public int surfaceHeight;
     private final EffectComposer effectComposer;
+    private final GPUTimer sceneTimer = new GPUTimer();
+    private final GPUTimer uploadTimer = new GPUTimer();
+    private final GLProfiler profiler = new GLProfiler();
+    private final PixelBufferUploader pixelBufferUploader = new PixelBufferUploader();
+    private final WindowBatchRenderer windowBatchRenderer = new WindowBatchRenderer();
+    private long frameUploadTimeNs = 0;
+    private volatile RenderScaleController renderScaleController = null;
+    private float lastSceneScale = 1.0f;
+    private int scenePassCount = 0;
+    private int lastFrameScenePassCount = 0;
+    private RenderTarget sceneCache;
+    private final AtomicBoolean sceneNeedsUpdate = new AtomicBoolean(true);
+    private volatile boolean cursorLayerEnabled = true;
+    private boolean lastFrameUsedCursorLayer = false;
+    private boolean lastFrameRedrewScene = false;
 
     private static int frameCount = 0;
+    private static long uploadTimeNs = 0;
 
     public static int getAndResetFrameCount() {
         int count = frameCount;
@@ -62,10 +95,18 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
         return count;
     }
 
+    // Returns the CPU time the render thread spent uploading window contents since the last call
+    public static long getAndResetUploadTimeNs() {
+        long time = uploadTimeNs;
+        uploadTimeNs = 0;
+        return time;
+    }
+
     public GLRenderer(XServerView xServerView, XServer xServer) {
         this.xServerView = xServerView;
         this.xServer = xServer;
         this.effectComposer = new EffectComposer(this);
+        this.displayList = new WindowDisplayList(this, xServer.windowManager.rootWindow);
         rootCursorDrawable = createRootCursorDrawable();
 
         quadVertices.put(new float[]{
@@ -92,6 +133,40 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
         GLES20.glEnable(GLES20.GL_BLEND);
         GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
         GLES20.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
+
+        effectComposer.onSurfaceCreated();
+        windowMaterial.reset();
+        cursorMaterial.reset();
+        sceneTimer.destroy();
+        uploadTimer.destroy();
+        profiler.reset();
+        pixelBufferUploader.reset();
+        pixelBufferUploader.init();
+        windowBatchRenderer.init();
+        sceneCache = null;
+        invalidateScene();
+
+        ProgramBinaryCache.init(new File(xServerView.getContext().getCacheDir(), "program_cache"));
+        ProgramBinaryCache.prewarm(createPrewarmMaterials());
+    }
+
+    // Materials whose programs are compiled ahead of their first use, including every screen effect
+    // on its own and followed by the color adjustments it is most often combined with
+    private List<ShaderMaterial> createPrewarmMaterials() {
+        ArrayList<ShaderMaterial> materials = new ArrayList<>();
+        materials.add(new WindowMaterial());
+        materials.add(new CursorMaterial());
+        materials.add(new EASUMaterial());
+        materials.add(new RCASMaterial());
+
+        Effect[] effects = {new FXAAEffect(), new CRTEffect(), new ToonEffect(), new NTSCCombinedEffect()};
+        ColorEffect colorEffect = new ColorEffect();
+        materials.add(EffectPass.build(Collections.singletonList(colorEffect)).get(0).createMaterial());
+        for (Effect effect : effects) {
+            materials.add(EffectPass.build(Collections.singletonList(effect)).get(0).createMaterial());
+            materials.add(EffectPass.build(Arrays.asList(effect, colorEffect)).get(0).createMaterial());
+        }
+        return materials;
     }
 
     @Override
@@ -109,6 +184,7 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
         surfaceHeight = height;
         viewTransformation.update(width, height, xServer.screenInfo.width, xServer.screenInfo.height);
         viewportNeedsUpdate = true;
+        invalidateScene();
     }
 
     @Override
@@ -121,7 +197,39 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
 
         }
 
+        scenePassCount = 0;
+        frameUploadTimeNs = 0;
+        InputLatencyTracer.onFrameStart();
+        long uploadStartTime = System.nanoTime();
+        pixelBufferUploader.beginFrame();
+        frameUploadTimeNs += System.nanoTime() - uploadStartTime;
         drawFrame();
+        pixelBufferUploader.endFrame();
+        lastFrameScenePassCount = scenePassCount;
+        uploadTimeNs += frameUploadTimeNs;
+
+        if (GLProfiler.isEnabled()) {
+            profiler.record("upload", uploadTimer);
+            profiler.record("scene", sceneTimer);
+            effectComposer.recordProfile(profiler);
+            profiler.endFrame();
+        }
+
+        // Reading back errors may stall the pipeline, release builds leave it to the driver
+        if (BuildConfig.DEBUG) {
+            int error = GLES20.glGetError();
+            if (error != GLES20.GL_NO_ERROR) {
+                Log.e("GLRenderer", "OpenGL Error: " + error);
+            }
+        }
+
+        // Cursor-only frames reuse the scene cache, the scene timer still holds the last full frame
+        if (renderScaleController != null && lastFrameRedrewScene) {
+            effectComposer.setRenderScale(renderScaleController.update(getCompositorGPUTimeMs()));
+        }
+
+        // GLSurfaceView swaps the buffers right after this returns
+        if (InputLatencyTracer.isEnabled()) InputLatencyTracer.onFrameSwapped(System.nanoTime());
     }
 
     public void drawFrame() {
@@ -132,13 +240,68 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
             xrFrame = XrActivity.getInstance().beginFrame(xrImmersive, XrActivity.getSBS());
         }
 
+        // Pointer motion only re-blends the cursor over the cached scene unless the scene itself follows the pointer
+        boolean cursorLayer = cursorLayerEnabled && magnifierEnabled && !XrActivity.isEnabled(null) && !isSceneFollowingPointer();
+        boolean redrawScene = sceneNeedsUpdate.getAndSet(false) || !cursorLayer || !lastFrameUsedCursorLayer;
+        if (cursorLayer && (sceneCache == null || !sceneCache.hasSize(surfaceWidth, surfaceHeight))) {
+            if (sceneCache != null) sceneCache.destroy();
+            sceneCache = new RenderTarget();
+            sceneCache.allocateFramebuffer(surfaceWidth, surfaceHeight);
+            redrawScene = true;
+        }
+        lastFrameUsedCursorLayer = cursorLayer;
+        lastFrameRedrewScene = redrawScene;
+
+        updateSceneTransform();
+        if (redrawScene) drawScene(cursorLayer);
+
+        if (cursorLayer) {
+            GLES20.glBindFramebuffer(GLES30.GL_READ_FRAMEBUFFER, sceneCache.getFramebuffer());
+            GLES20.glBindFramebuffer(GLES30.GL_DRAW_FRAMEBUFFER, 0);
+            GLES30.glBlitFramebuffer(0, 0, surfaceWidth, surfaceHeight, 0, 0, surfaceWidth, surfaceHeight, GLES20.GL_COLOR_BUFFER_BIT, GLES20.GL_NEAREST);
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+
+            if (cursorVisible) {
+                if (fullscreen) {
+                    GLES20.glViewport(0, 0, surfaceWidth, surfaceHeight);
+                }
+                else GLES20.glViewport(viewTransformation.viewOffsetX, viewTransformation.viewOffsetY, viewTransformation.viewWidth, viewTransformation.viewHeight);
+                viewportNeedsUpdate = true;
+                renderCursor();
+            }
+        }
+
+        // Finalize XR frame if supported
+        if (xrFrame) {
+            XrActivity.getInstance().endFrame();
+            XrActivity.updateControllers();
+            xServerView.requestRender();
+        }
+    }
+
+    // Draws the windows, and the cursor unless it has its own layer, applying the effects if there are any.
+    // With a cursor layer the result goes to the scene cache instead of the screen.
+    private void drawScene(boolean cursorLayer) {
+        // Without the layer the frame goes to whatever is bound, which XrActivity.beginFrame set in XR
+        int outputFramebuffer = cursorLayer ? sceneCache.getFramebuffer() : 0;
+        if (cursorLayer) GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, outputFramebuffer);
+        effectComposer.setOutputFramebuffer(outputFramebuffer);
+
+        // Draw the scene into the offscreen target of the effect chain instead of the screen
+        boolean effectsActive = effectComposer.beginScene();
+        float sceneScale = effectsActive ? effectComposer.getFrameScale() : 1.0f;
+        if (sceneScale != lastSceneScale) {
+            lastSceneScale = sceneScale;
+            viewportNeedsUpdate = true;
+        }
+
         // Update the viewport if necessary
         if (viewportNeedsUpdate && magnifierEnabled) {
             if (fullscreen) {
-                GLES20.glViewport(0, 0, surfaceWidth, surfaceHeight);
+                setSceneViewport(0, 0, surfaceWidth, surfaceHeight, sceneScale);
             }
             else {
-                GLES20.glViewport(viewTransformation.viewOffsetX, viewTransformation.viewOffsetY, viewTransformation.viewWidth, viewTransformation.viewHeight);
+                setSceneViewport(viewTransformation.viewOffsetX, viewTransformation.viewOffsetY, viewTransformation.viewWidth, viewTransformation.viewHeight, sceneScale);
             }
             viewportNeedsUpdate = false;
         }
@@ -146,7 +309,39 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
         // Clear the screen before drawing
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
 
-        // Apply basic transformations and draw windows
+        // The uploads get their own timer while profiling, timer queries can not be nested
+        if (GLProfiler.isEnabled()) {
+            uploadTimer.begin();
+            uploadWindowTextures();
+            uploadTimer.end();
+        }
+
+        sceneTimer.begin();
+        scenePassCount++;
+
+        if (!magnifierEnabled && !fullscreen) {
+            GLES20.glEnable(GLES20.GL_SCISSOR_TEST);
+            GLES20.glScissor(viewTransformation.viewOffsetX, viewTransformation.viewOffsetY, viewTransformation.viewWidth, viewTransformation.viewHeight);
+        }
+
+        renderWindows();
+
+        // Render cursor if enabled
+        if (cursorVisible && !cursorLayer) renderCursor();
+
+        sceneTimer.end();
+
+        // Disable scissor test if magnifier is disabled and not in fullscreen mode
+        if (!magnifierEnabled && !fullscreen) {
+            GLES20.glDisable(GLES20.GL_SCISSOR_TEST);
+        }
+
+        // Apply all the effects to the scene target using EffectComposer
+        if (effectsActive) effectComposer.render();
+    }
+
+    // Apply basic transformations shared by the windows and the cursor
+    private void updateSceneTransform() {
         if (magnifierEnabled) {
             // Apply magnifier transformations if enabled
             float pointerX = 0;
@@ -173,53 +368,49 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
                 }
 
                 XForm.makeTransform(tmpXForm2, viewTransformation.sceneOffsetX, viewTransformation.sceneOffsetY - pointerY, viewTransformation.sceneScaleX, viewTransformation.sceneScaleY, 0);
-
-                GLES20.glEnable(GLES20.GL_SCISSOR_TEST);
-                GLES20.glScissor(viewTransformation.viewOffsetX, viewTransformation.viewOffsetY, viewTransformation.viewWidth, viewTransformation.viewHeight);
             } else {
                 XForm.identity(tmpXForm2);
             }
         }
+    }
 
-        renderWindows();
-
-        // Render cursor if enabled
-        if (cursorVisible) renderCursor();
-
-        // Disable scissor test if magnifier is disabled and not in fullscreen mode
-        if (!magnifierEnabled && !fullscreen) {
-            GLES20.glDisable(GLES20.GL_SCISSOR_TEST);
-        }
+    private boolean isSceneFollowingPointer() {
+        return screenOffsetYRelativeToCursor || magnifierZoom != 1.0f;
+    }
 
-        // Apply all the effects using EffectComposer
-        if (effectComposer.hasEffects()) {
-            effectComposer.render();  // <-- This line applies the effects
-        }
+    // Marks the composited windows as changed, the next frame redraws the whole scene
+    public void invalidateScene() {
+        sceneNeedsUpdate.set(true);
+    }
 
-        // Finalize XR frame if supported
-        if (xrFrame) {
-            XrActivity.getInstance().endFrame();
-            XrActivity.updateControllers();
-            xServerView.requestRender();
+    private static void setSceneViewport(int x, int y, int width, int height, float scale) {
+        if (scale == 1.0f) {
+            GLES20.glViewport(x, y, width, height);
         }
+        else GLES20.glViewport(Math.round(x * scale), Math.round(y * scale), Math.round(width * scale), Math.round(height * scale));
     }
 
-
     @Override
     public void onMapWindow(Window window) {
-        xServerView.queueEvent(this::updateScene);
+        xServerView.queueEvent(() -> updateScene(window));
         xServerView.requestRender();
     }
 
     @Override
     public void onUnmapWindow(Window window) {
-        xServerView.queueEvent(this::updateScene);
+        xServerView.queueEvent(() -> updateScene(window));
+        xServerView.requestRender();
+    }
+
+    @Override
+    public void onDestroyWindow(Window window) {
+        xServerView.queueEvent(() -> removeWindow(window));
         xServerView.requestRender();
     }
 
     @Override
     public void onChangeWindowZOrder(Window window) {
-        xServerView.queueEvent(this::updateScene);
+        xServerView.queueEvent(() -> updateScene(window));
         xServerView.requestRender();
     }
 
@@ -231,7 +422,7 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
     @Override
     public void onUpdateWindowGeometry(final Window window, boolean resized) {
         if (resized) {
-            xServerView.queueEvent(this::updateScene);
+            xServerView.queueEvent(() -> updateScene(window));
         }
         else xServerView.queueEvent(() -> updateWindowPosition(window));
         xServerView.requestRender();
@@ -239,12 +430,12 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
 
     @Override
     public void onUpdateWindowAttributes(Window window, Bitmask mask) {
-        if (mask.isSet(WindowAttributes.FLAG_CURSOR)) xServerView.requestRender();
+        if (mask.isSet(WindowAttributes.FLAG_CURSOR)) xServerView.requestCursorRender();
     }
 
     @Override
     public void onPointerMove(short x, short y) {
-        xServerView.requestRender();
+        xServerView.requestCursorRender();
     }
 
 
@@ -252,7 +443,7 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
         if (drawable == null) return;
         synchronized (drawable.renderLock) {
             Texture texture = drawable.getTexture();
-            texture.updateFromDrawable(drawable);
+            updateTexture(texture, drawable);
 
             XForm.set(tmpXForm1, x, y, drawable.width, drawable.height);
 
@@ -260,37 +451,78 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
 
             GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
             GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture.getTextureId());
-            GLES20.glUniform1i(material.getUniformLocation("texture"), 0);
-            GLES20.glUniform1fv(material.getUniformLocation("xform"), tmpXForm1.length, tmpXForm1, 0);
+            material.setUniformInt(WindowMaterial.TEXTURE, 0);
+            material.setUniformFloatArray(WindowMaterial.XFORM, tmpXForm1);
             GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, quadVertices.count());
             GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
         }
     }
 
+    private void updateTexture(Texture texture, Drawable drawable) {
+        if (texture.isAllocated() && !texture.needsUpdate) return;
+        long startTime = System.nanoTime();
+        texture.updateFromDrawable(drawable, pixelBufferUploader);
+        frameUploadTimeNs += System.nanoTime() - startTime;
+    }
+
     private void renderWindows() {
+        if (windowBatchRenderer.isSupported()) {
+            renderWindowBatches();
+            return;
+        }
+
         windowMaterial.use();
-        GLES20.glUniform2f(windowMaterial.getUniformLocation("viewSize"), xServer.screenInfo.width, xServer.screenInfo.height);
-        quadVertices.bind(windowMaterial.programId);
+        windowMaterial.setUniformVec2(WindowMaterial.VIEW_SIZE, xServer.screenInfo.width, xServer.screenInfo.height);
+        quadVertices.bind(windowMaterial);
 
         try (XLock lock = xServer.lock(XServer.Lockable.DRAWABLE_MANAGER)) {
-            for (RenderableWindow window : renderableWindows) {
+            for (RenderableWindow window : displayList.getWindows()) {
                 renderDrawable(window.content, window.rootX, window.rootY, windowMaterial);
             }
         }
 
         quadVertices.disable();
+    }
 
-        int error = GLES20.glGetError();
-        if (error != GLES20.GL_NO_ERROR) {
-            Log.e("GLRenderer", "OpenGL Error: " + error);
+    private void uploadWindowTextures() {
+        try (XLock lock = xServer.lock(XServer.Lockable.DRAWABLE_MANAGER)) {
+            for (RenderableWindow window : displayList.getWindows()) {
+                Drawable drawable = window.content;
+                if (drawable == null) continue;
+                synchronized (drawable.renderLock) {
+                    updateTexture(drawable.getTexture(), drawable);
+                }
+            }
         }
+    }
 
+    // Same as renderWindows() but with one instanced draw call per batch of windows
+    private void renderWindowBatches() {
+        windowBatchRenderer.begin(quadVertices, xServer.screenInfo.width, xServer.screenInfo.height);
+
+        try (XLock lock = xServer.lock(XServer.Lockable.DRAWABLE_MANAGER)) {
+            for (RenderableWindow window : displayList.getWindows()) {
+                Drawable drawable = window.content;
+                if (drawable == null) continue;
+                synchronized (drawable.renderLock) {
+                    Texture texture = drawable.getTexture();
+                    updateTexture(texture, drawable);
+
+                    XForm.set(tmpXForm1, window.rootX, window.rootY, drawable.width, drawable.height);
+                    XForm.multiply(tmpXForm1, tmpXForm1, tmpXForm2);
+                    windowBatchRenderer.add(texture.getTextureId(), tmpXForm1);
+                }
+            }
+
+            // The last batch is drawn while the drawables can not be removed yet
+            windowBatchRenderer.end(quadVertices);
+        }
     }
 
     private void renderCursor() {
         cursorMaterial.use();
-        GLES20.glUniform2f(cursorMaterial.getUniformLocation("viewSize"), xServer.screenInfo.width, xServer.screenInfo.height);
-        quadVertices.bind(cursorMaterial.programId);
+        cursorMaterial.setUniformVec2(WindowMaterial.VIEW_SIZE, xServer.screenInfo.width, xServer.screenInfo.height);
+        quadVertices.bind(cursorMaterial);
 
         try (XLock lock = xServer.lock(XServer.Lockable.DRAWABLE_MANAGER)) {
             Window pointWindow = xServer.inputDeviceManager.getPointWindow();
@@ -320,54 +552,34 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
         return Drawable.fromBitmap(bitmap);
     }
 
-    private void updateScene() {
+    private void updateScene(Window window) {
         try (XLock lock = xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.DRAWABLE_MANAGER)) {
-            renderableWindows.clear();
-            collectRenderableWindows(xServer.windowManager.rootWindow, xServer.windowManager.rootWindow.getX(), xServer.windowManager.rootWindow.getY());
+            displayList.updateSubtree(window);
         }
     }
 
-    private void collectRenderableWindows(Window window, int x, int y) {
-        if (!window.attributes.isMapped()) return;
-        if (window != xServer.windowManager.rootWindow) {
-            boolean viewable = true;
-
-            if (unviewableWMClasses != null) {
-                String wmClass = window.getClassName();
-                for (String unviewableWMClass : unviewableWMClasses) {
-                    if (wmClass.contains(unviewableWMClass)) {
-                        if (window.attributes.isEnabled()) window.disableAllDescendants();
-                        viewable = false;
-                        break;
-                    }
-                }
-            }
-
-            if (viewable)
-                renderableWindows.add(new RenderableWindow(window.getContent(), x, y));
-        }
-
-        for (Window child : window.getChildren()) {
-            collectRenderableWindows(child, child.getX() + x, child.getY() + y);
+    private void removeWindow(Window window) {
+        try (XLock lock = xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.DRAWABLE_MANAGER)) {
+            displayList.remove(window);
         }
     }
 
-    private void removeRenderableWindow(Window window) {
-        for (int i = 0; i < renderableWindows.size(); i++) {
-            if (renderableWindows.get(i).content == window.getContent()) {
-                renderableWindows.remove(i);
-                break;
+    boolean isWindowViewable(Window window) {
+        if (unviewableWMClasses != null) {
+            String wmClass = window.getClassName();
+            for (String unviewableWMClass : unviewableWMClasses) {
+                if (wmClass.contains(unviewableWMClass)) {
+                    if (window.attributes.isEnabled()) window.disableAllDescendants();
+                    return false;
+                }
             }
         }
+        return true;
     }
 
     private void updateWindowPosition(Window window) {
-        for (RenderableWindow renderableWindow : renderableWindows) {
-            if (renderableWindow.content == window.getContent()) {
-                renderableWindow.rootX = window.getRootX();
-                renderableWindow.rootY = window.getRootY();
-                break;
-            }
+        try (XLock lock = xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
+            displayList.updatePosition(window);
         }
     }
 
@@ -376,6 +588,16 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
         xServerView.requestRender();
     }
 
+    // Draws the cursor over a cached copy of the composited windows, so pointer motion does not recomposite them
+    public void setCursorLayerEnabled(boolean cursorLayerEnabled) {
+        this.cursorLayerEnabled = cursorLayerEnabled;
+        xServerView.requestRender();
+    }
+
+    public boolean isCursorLayerEnabled() {
+        return cursorLayerEnabled;
+    }
+
     public boolean isCursorVisible() {
         return cursorVisible;
     }
@@ -426,11 +648,50 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
         return effectComposer;
     }
 
+    public PixelBufferUploader getPixelBufferUploader() {
+        return pixelBufferUploader;
+    }
+
+    public int getLastFrameScenePassCount() {
+        return lastFrameScenePassCount;
+    }
+
+    public long getSceneGPUTimeNs() {
+        return sceneTimer.getLastElapsedNs();
+    }
+
+    // Returns the GPU time of the scene and post-processing passes, or -1 if it is not measurable
+    public float getCompositorGPUTimeMs() {
+        long sceneTimeNs = sceneTimer.getLastElapsedNs();
+        if (sceneTimeNs < 0) return -1;
+        return (sceneTimeNs + effectComposer.getLastGPUTimeNs()) / 1000000.0f;
+    }
+
+    public void setRenderScale(float renderScale) {
+        renderScaleController = null;
+        effectComposer.setRenderScale(renderScale);
+    }
+
+    // Lets the render scale follow the GPU time of the compositor, pass 0 to use a fixed scale again
+    public void setDynamicRenderScale(float minScale, float targetFrameTimeMs) {
+        if (targetFrameTimeMs > 0) {
+            renderScaleController = new RenderScaleController(Math.max(EffectComposer.MIN_RENDER_SCALE, minScale), 1.0f, targetFrameTimeMs);
+        }
+        else {
+            renderScaleController = null;
+            effectComposer.setRenderScale(1.0f);
+        }
+    }
+
+    public float getRenderScale() {
+        return effectComposer.getRenderScale();
+    }
+
     private void renderWindowEffect(Drawable drawable, int x, int y, ShaderMaterial material) {
         // Implement the rendering effect logic here
         synchronized (drawable.renderLock) {
             Texture texture = drawable.getTexture();
-            texture.updateFromDrawable(drawable);
+            updateTexture(texture, drawable);
 
             XForm.set(tmpXForm1, x, y, drawable.width, drawable.height);
             XForm.multiply(tmpXForm1, tmpXForm1, tmpXForm2);
@@ -441,8 +702,8 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
                 Log.e("GLRenderer", "Invalid texture binding!");
             }
 
-            GLES20.glUniform1i(material.getUniformLocation("texture"), 0);
-            GLES20.glUniform1fv(material.getUniformLocation("xform"), tmpXForm1.length, tmpXForm1, 0);
+            material.setUniformInt(WindowMaterial.TEXTURE, 0);
+            material.setUniformFloatArray(WindowMaterial.XFORM, tmpXForm1);
             GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, quadVertices.count());
             GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
         }
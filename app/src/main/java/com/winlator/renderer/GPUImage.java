@@ -62,7 +62,7 @@ public class GPUImage extends Texture {
     }
 
     @Override
-    public void updateFromDrawable(Drawable drawable) {
+    public void updateFromDrawable(Drawable drawable, PixelBufferUploader uploader) {
         if (!isAllocated()) allocateTexture(drawable.width, drawable.height, null);
         needsUpdate = false;
     }
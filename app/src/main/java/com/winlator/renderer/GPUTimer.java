@@ -0,0 +1,91 @@
+package com.winlator.renderer;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+/**
+ * Measures GPU time of a block of GL commands using EXT_disjoint_timer_query.
+ * Results are read back asynchronously a few frames later so the render thread never waits on the GPU.
+ */
+public class GPUTimer {
+    private static final int GL_TIME_ELAPSED_EXT = 0x88BF;
+    private static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+    private static final byte QUERY_COUNT = 4;
+    private static Boolean supported = null;
+    private final int[] queryIds = new int[QUERY_COUNT];
+    private final boolean[] pending = new boolean[QUERY_COUNT];
+    private final int[] tmpResult = new int[1];
+    private byte writeIndex = 0;
+    private boolean active = false;
+    private long lastElapsedNs = -1;
+    private int resultCount = 0;
+
+    public static boolean isSupported() {
+        if (supported == null) {
+            String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+            supported = extensions != null && extensions.contains("GL_EXT_disjoint_timer_query");
+        }
+        return supported;
+    }
+
+    public void begin() {
+        if (active || !isSupported()) return;
+        if (queryIds[0] == 0) GLES30.glGenQueries(QUERY_COUNT, queryIds, 0);
+
+        collectResults();
+        if (pending[writeIndex]) return;
+
+        GLES30.glBeginQuery(GL_TIME_ELAPSED_EXT, queryIds[writeIndex]);
+        active = true;
+    }
+
+    public void end() {
+        if (!active) return;
+        GLES30.glEndQuery(GL_TIME_ELAPSED_EXT);
+        pending[writeIndex] = true;
+        writeIndex = (byte)((writeIndex + 1) % QUERY_COUNT);
+        active = false;
+    }
+
+    private void collectResults() {
+        GLES20.glGetIntegerv(GL_GPU_DISJOINT_EXT, tmpResult, 0);
+        boolean disjoint = tmpResult[0] != 0;
+
+        for (byte i = 0; i < QUERY_COUNT; i++) {
+            int index = (writeIndex + i) % QUERY_COUNT;
+            if (!pending[index]) continue;
+
+            GLES30.glGetQueryObjectuiv(queryIds[index], GLES30.GL_QUERY_RESULT_AVAILABLE, tmpResult, 0);
+            if (tmpResult[0] == 0) break;
+
+            GLES30.glGetQueryObjectuiv(queryIds[index], GLES30.GL_QUERY_RESULT, tmpResult, 0);
+            if (!disjoint) {
+                lastElapsedNs = tmpResult[0] & 0xffffffffL;
+                resultCount++;
+            }
+            pending[index] = false;
+        }
+    }
+
+    public long getLastElapsedNs() {
+        return lastElapsedNs;
+    }
+
+    // Increases with every result read back, tells a new result apart from a repeated one
+    public int getResultCount() {
+        return resultCount;
+    }
+
+    public void destroy() {
+        if (queryIds[0] != 0) {
+            GLES30.glDeleteQueries(QUERY_COUNT, queryIds, 0);
+            for (byte i = 0; i < QUERY_COUNT; i++) {
+                queryIds[i] = 0;
+                pending[i] = false;
+            }
+        }
+        active = false;
+        writeIndex = 0;
+        lastElapsedNs = -1;
+    }
+}
@@ -0,0 +1,168 @@
+package com.winlator.renderer;
+
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+// Measures the time from an input event to the frame that shows its effect while tracing is enabled.
+// InputDeviceManager and WinHandler stamp an event when they dispatch it, the stamp travels with the
+// X event and counts as pending once the event was written to a client. The next PresentPixmap takes
+// the oldest pending input along, and the renderer completes it with the swap of the first frame it
+// started drawing after that present. Inputs that never lead to a present within MAX_LATENCY_NS are
+// counted as unmatched instead of turning up as a huge latency once the game shows something else.
+public class InputLatencyTracer {
+    public static final int HISTORY_SIZE = 256;
+    public static final long MAX_LATENCY_NS = 1000000000L;
+    private static final int MAX_PRESENTED = 16;
+    private static final long REPORT_INTERVAL_NS = 500000000L;
+    private static final short LOG_INTERVAL = 20;
+    private static volatile boolean enabled = false;
+    private static volatile Report latestReport = null;
+    private static final Object lock = new Object();
+    private static long pendingInputTimeNs = 0;
+    private static final long[] presentedInputTimesNs = new long[MAX_PRESENTED];
+    private static final long[] presentTimesNs = new long[MAX_PRESENTED];
+    private static int presentedCount = 0;
+    private static int inFrameCount = 0;
+    private static final float[] latencies = new float[HISTORY_SIZE];
+    private static final float[] presentDelays = new float[HISTORY_SIZE];
+    private static int historyIndex = 0;
+    private static int historySize = 0;
+    private static int unmatchedCount = 0;
+    private static long lastReportTimeNs = 0;
+    private static int reportCount = 0;
+
+    public static void setEnabled(boolean enabled) {
+        InputLatencyTracer.enabled = enabled;
+        if (!enabled) reset();
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    // Returns the last published report, null if tracing is disabled or nothing was measured yet
+    public static Report getLatestReport() {
+        return latestReport;
+    }
+
+    // Returns the time stamp for an input event being dispatched now, 0 while tracing is disabled
+    public static long stamp() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    // The input stamped at the time reached the guest
+    public static void onInputDelivered(long inputTimeNs) {
+        if (!enabled || inputTimeNs == 0) return;
+        synchronized (lock) {
+            if (pendingInputTimeNs == 0 || inputTimeNs < pendingInputTimeNs) pendingInputTimeNs = inputTimeNs;
+        }
+    }
+
+    // A client presented new content for one of its windows
+    public static void onPresent(long timeNs) {
+        if (!enabled) return;
+        synchronized (lock) {
+            if (pendingInputTimeNs == 0) return;
+
+            if (timeNs - pendingInputTimeNs > MAX_LATENCY_NS) {
+                unmatchedCount++;
+            }
+            else if (presentedCount < MAX_PRESENTED) {
+                presentedInputTimesNs[presentedCount] = pendingInputTimeNs;
+                presentTimesNs[presentedCount] = timeNs;
+                presentedCount++;
+            }
+            pendingInputTimeNs = 0;
+        }
+    }
+
+    // The renderer starts drawing a frame, which shows everything presented so far
+    public static void onFrameStart() {
+        if (!enabled) return;
+        synchronized (lock) {
+            inFrameCount = presentedCount;
+        }
+    }
+
+    // The frame started last was handed to the display
+    public static void onFrameSwapped(long timeNs) {
+        if (!enabled) return;
+        synchronized (lock) {
+            for (int i = 0; i < inFrameCount; i++) {
+                latencies[historyIndex] = (timeNs - presentedInputTimesNs[i]) / 1000000.0f;
+                presentDelays[historyIndex] = (presentTimesNs[i] - presentedInputTimesNs[i]) / 1000000.0f;
+                historyIndex = (historyIndex + 1) % HISTORY_SIZE;
+                if (historySize < HISTORY_SIZE) historySize++;
+            }
+
+            // Presents that came in while the frame was drawn wait for the next one
+            int remaining = presentedCount - inFrameCount;
+            System.arraycopy(presentedInputTimesNs, inFrameCount, presentedInputTimesNs, 0, remaining);
+            System.arraycopy(presentTimesNs, inFrameCount, presentTimesNs, 0, remaining);
+            presentedCount = remaining;
+            inFrameCount = 0;
+
+            if (lastReportTimeNs == 0) lastReportTimeNs = timeNs;
+            if (timeNs - lastReportTimeNs < REPORT_INTERVAL_NS || historySize == 0) return;
+            lastReportTimeNs = timeNs;
+
+            Report report = new Report();
+            latestReport = report;
+            if (++reportCount % LOG_INTERVAL == 0) Log.d("InputLatencyTracer", report.toString());
+        }
+    }
+
+    public static void reset() {
+        synchronized (lock) {
+            pendingInputTimeNs = 0;
+            presentedCount = 0;
+            inFrameCount = 0;
+            historyIndex = 0;
+            historySize = 0;
+            unmatchedCount = 0;
+            lastReportTimeNs = 0;
+            reportCount = 0;
+        }
+        latestReport = null;
+    }
+
+    // Nearest rank percentile of sorted values
+    private static float getPercentile(float[] sortedValues, int count, float percentile) {
+        int rank = (int)Math.ceil(percentile / 100.0f * count);
+        return sortedValues[Math.max(0, Math.min(count, rank) - 1)];
+    }
+
+    public static class Report {
+        public final int sampleCount;
+        public final int unmatchedCount;
+        public final float p50LatencyMs;
+        public final float p95LatencyMs;
+        public final float p99LatencyMs;
+        public final float maxLatencyMs;
+        public final float averagePresentDelayMs;
+
+        private Report() {
+            sampleCount = historySize;
+            unmatchedCount = InputLatencyTracer.unmatchedCount;
+
+            float[] sortedLatencies = Arrays.copyOf(latencies, historySize);
+            Arrays.sort(sortedLatencies);
+            p50LatencyMs = getPercentile(sortedLatencies, historySize, 50);
+            p95LatencyMs = getPercentile(sortedLatencies, historySize, 95);
+            p99LatencyMs = getPercentile(sortedLatencies, historySize, 99);
+            maxLatencyMs = sortedLatencies[historySize - 1];
+
+            float sum = 0;
+            for (int i = 0; i < historySize; i++) sum += presentDelays[i];
+            averagePresentDelayMs = sum / historySize;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ENGLISH, "input to swap: p50 %.1fms, p95 %.1fms, p99 %.1fms, max %.1fms, input to present avg %.1fms, %d samples, %d unmatched",
+                p50LatencyMs, p95LatencyMs, p99LatencyMs, maxLatencyMs, averagePresentDelayMs, sampleCount, unmatchedCount);
+        }
+    }
+}
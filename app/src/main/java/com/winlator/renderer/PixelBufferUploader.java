@@ -0,0 +1,238 @@
+package com.winlator.renderer;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import com.winlator.xserver.Drawable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+// Streams texture uploads through a ring of pixel buffer objects on GLES3.
+// Between two frames the current slot stays mapped, and the X side copies presented frames into it
+// with stage() while it still holds the drawable. The render thread then only unmaps the slot and
+// issues glTexSubImage2D calls sourced from it, which the driver transfers asynchronously.
+// Drawables that were not staged, or were drawn to after their copy, are copied into the slot by
+// upload() on the render thread instead. Each ring slot is fenced, a slot still in use by the GPU
+// is never waited on; the frame falls back to direct uploads instead.
+public class PixelBufferUploader {
+    private static final byte SLOT_COUNT = 3;
+    private static final int MIN_CAPACITY = 4 * 1024 * 1024;
+    private final int[] bufferIds = new int[SLOT_COUNT];
+    private final int[] capacities = new int[SLOT_COUNT];
+    private final long[] fences = new long[SLOT_COUNT];
+    private final ArrayList<StagedUpload> stagedUploads = new ArrayList<>();
+    private final ArrayList<StagedUpload> readyUploads = new ArrayList<>();
+    private boolean supported = false;
+    private boolean slotAvailable = false;
+    private boolean slotMapped = false;
+    private byte slot = 0;
+    private int offset = 0;
+    // Mapping of the current slot the X side writes into, guarded by this
+    private ByteBuffer stagingBuffer;
+    private int stagingOffset = 0;
+    private int stagingDemand = 0;
+
+    private static class StagedUpload {
+        private final Drawable drawable;
+        private final int offset;
+        private Texture texture;
+        private int version;
+
+        private StagedUpload(Drawable drawable, int offset) {
+            this.drawable = drawable;
+            this.offset = offset;
+        }
+    }
+
+    public void init() {
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        supported = version != null && version.startsWith("OpenGL ES 3");
+        if (supported) {
+            GLES20.glGenBuffers(SLOT_COUNT, bufferIds, 0);
+            mapStagingSlot();
+        }
+    }
+
+    public boolean isSupported() {
+        return supported;
+    }
+
+    // Copies the contents of the drawable into the mapped slot on the calling thread, which has to
+    // hold the render lock of the drawable. Returns false if there is no room, the render thread
+    // then copies it as before.
+    public synchronized boolean stage(Drawable drawable) {
+        Texture texture = drawable.getTexture();
+        ByteBuffer data = drawable.getData();
+        if (stagingBuffer == null || texture instanceof GPUImage || data == null) return false;
+
+        int size = drawable.width * drawable.height * 4;
+        StagedUpload upload = null;
+        for (int i = 0; i < stagedUploads.size(); i++) {
+            if (stagedUploads.get(i).drawable == drawable) upload = stagedUploads.get(i);
+        }
+
+        if (upload == null) {
+            stagingDemand += size;
+            if (stagingOffset + size > stagingBuffer.capacity()) return false;
+            upload = new StagedUpload(drawable, stagingOffset);
+            stagedUploads.add(upload);
+            stagingOffset += size;
+        }
+        upload.texture = texture;
+        upload.version = texture.getVersion();
+
+        ByteBuffer source = data.duplicate();
+        source.clear().limit(size);
+        ByteBuffer target = stagingBuffer.duplicate();
+        target.clear().position(upload.offset);
+        target.put(source);
+        return true;
+    }
+
+    // Stops the X side from writing into the mapped slot, a lost context takes the mapping with it
+    public synchronized void stopStaging() {
+        stagingBuffer = null;
+        stagedUploads.clear();
+    }
+
+    public void beginFrame() {
+        slotAvailable = false;
+        if (!supported) return;
+
+        if (slotMapped) {
+            // Waits for a copy the X side is still making, the slot is unmapped afterwards
+            synchronized (this) {
+                readyUploads.addAll(stagedUploads);
+                stagedUploads.clear();
+                offset = stagingOffset;
+                stagingBuffer = null;
+            }
+
+            GLES20.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, bufferIds[slot]);
+            GLES30.glUnmapBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER);
+            slotMapped = false;
+            uploadStaged();
+            GLES20.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, 0);
+            slotAvailable = true;
+            return;
+        }
+
+        if (!waitSlot()) return;
+        slotAvailable = true;
+        offset = 0;
+    }
+
+    private void uploadStaged() {
+        for (int i = 0; i < readyUploads.size(); i++) {
+            StagedUpload upload = readyUploads.get(i);
+            Drawable drawable = upload.drawable;
+            synchronized (drawable.renderLock) {
+                Texture texture = drawable.getTexture();
+                // Drawn to again since the copy, or not allocated yet: the render thread uploads it
+                if (texture != upload.texture || texture.getVersion() != upload.version || !texture.isAllocated()) continue;
+                texture.updateFromPixelBuffer(drawable.width, drawable.height, upload.offset);
+            }
+        }
+        readyUploads.clear();
+    }
+
+    public boolean upload(int textureId, short width, short height, int format, ByteBuffer data) {
+        if (!slotAvailable) return false;
+
+        int size = width * height * 4;
+        int bufferId = bufferIds[slot];
+        GLES20.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, bufferId);
+
+        if (offset + size > capacities[slot]) {
+            // Orphans the current storage, pending uploads keep reading from the old one
+            int capacity = Math.max(Math.max(capacities[slot], size), MIN_CAPACITY);
+            GLES20.glBufferData(GLES30.GL_PIXEL_UNPACK_BUFFER, capacity, null, GLES30.GL_STREAM_DRAW);
+            capacities[slot] = capacity;
+            offset = 0;
+        }
+
+        ByteBuffer mapped = (ByteBuffer)GLES30.glMapBufferRange(GLES30.GL_PIXEL_UNPACK_BUFFER, offset, size, GLES30.GL_MAP_WRITE_BIT | GLES30.GL_MAP_INVALIDATE_RANGE_BIT | GLES30.GL_MAP_UNSYNCHRONIZED_BIT);
+        if (mapped == null) {
+            GLES20.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, 0);
+            return false;
+        }
+
+        ByteBuffer source = data.duplicate();
+        source.clear().limit(size);
+        mapped.put(source);
+        GLES30.glUnmapBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER);
+
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+        GLES30.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width, height, format, GLES20.GL_UNSIGNED_BYTE, offset);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        GLES20.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, 0);
+
+        offset += size;
+        return true;
+    }
+
+    public void endFrame() {
+        if (slotAvailable && offset > 0) {
+            fences[slot] = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+            slot = (byte)((slot + 1) % SLOT_COUNT);
+        }
+        slotAvailable = false;
+        mapStagingSlot();
+    }
+
+    // Returns true once the GPU no longer reads from the current slot, without waiting for it
+    private boolean waitSlot() {
+        long fence = fences[slot];
+        if (fence != 0) {
+            int status = GLES30.glClientWaitSync(fence, 0, 0);
+            if (status == GLES30.GL_TIMEOUT_EXPIRED) return false;
+            GLES30.glDeleteSync(fence);
+            fences[slot] = 0;
+        }
+        return true;
+    }
+
+    // Maps the whole current slot for the frames the X side presents until the next frame, sized
+    // for what it staged last time. Skipped while the GPU still reads from the slot.
+    private void mapStagingSlot() {
+        if (!supported || slotMapped || !waitSlot()) return;
+
+        int capacity;
+        synchronized (this) {
+            capacity = Math.max(Math.max(capacities[slot], stagingDemand), MIN_CAPACITY);
+            stagingDemand = 0;
+        }
+
+        GLES20.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, bufferIds[slot]);
+        if (capacity != capacities[slot]) {
+            GLES20.glBufferData(GLES30.GL_PIXEL_UNPACK_BUFFER, capacity, null, GLES30.GL_STREAM_DRAW);
+            capacities[slot] = capacity;
+        }
+        ByteBuffer mapped = (ByteBuffer)GLES30.glMapBufferRange(GLES30.GL_PIXEL_UNPACK_BUFFER, 0, capacity, GLES30.GL_MAP_WRITE_BIT | GLES30.GL_MAP_INVALIDATE_BUFFER_BIT | GLES30.GL_MAP_UNSYNCHRONIZED_BIT);
+        GLES20.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, 0);
+        if (mapped == null) return;
+
+        slotMapped = true;
+        synchronized (this) {
+            stagingBuffer = mapped;
+            stagingOffset = 0;
+        }
+    }
+
+    // Forgets the buffers of a lost GL context without deleting them
+    public void reset() {
+        stopStaging();
+        readyUploads.clear();
+        for (byte i = 0; i < SLOT_COUNT; i++) {
+            bufferIds[i] = 0;
+            capacities[i] = 0;
+            fences[i] = 0;
+        }
+        supported = false;
+        slotAvailable = false;
+        slotMapped = false;
+        slot = 0;
+        offset = 0;
+    }
+}
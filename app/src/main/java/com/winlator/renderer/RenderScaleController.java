@@ -0,0 +1,52 @@
+package com.winlator.renderer;
+
+// Picks the internal render scale of the compositor from its measured frame time.
+// The scale drops quickly while the frame time is above the target and only climbs back
+// once there is enough headroom, so it does not oscillate around the target.
+public class RenderScaleController {
+    private static final float STEP = 0.05f;
+    private static final float RAISE_THRESHOLD = 0.7f;
+    private static final float SMOOTHING = 0.1f;
+    private static final short COOLDOWN_FRAMES = 30;
+    private final float minScale;
+    private final float maxScale;
+    private final float targetFrameTimeMs;
+    private float averageFrameTimeMs = -1;
+    private float scale;
+    private short framesSinceChange = 0;
+
+    public RenderScaleController(float minScale, float maxScale, float targetFrameTimeMs) {
+        this.minScale = minScale;
+        this.maxScale = maxScale;
+        this.targetFrameTimeMs = targetFrameTimeMs;
+        this.scale = maxScale;
+    }
+
+    public float update(float frameTimeMs) {
+        if (frameTimeMs < 0) return scale;
+        averageFrameTimeMs = averageFrameTimeMs < 0 ? frameTimeMs : averageFrameTimeMs + (frameTimeMs - averageFrameTimeMs) * SMOOTHING;
+
+        if (framesSinceChange < COOLDOWN_FRAMES) {
+            framesSinceChange++;
+            return scale;
+        }
+
+        if (averageFrameTimeMs > targetFrameTimeMs && scale > minScale) {
+            scale = Math.max(minScale, scale - STEP);
+            framesSinceChange = 0;
+        }
+        else if (averageFrameTimeMs < targetFrameTimeMs * RAISE_THRESHOLD && scale < maxScale) {
+            scale = Math.min(maxScale, scale + STEP);
+            framesSinceChange = 0;
+        }
+        return scale;
+    }
+
+    public float getScale() {
+        return scale;
+    }
+
+    public float getAverageFrameTimeMs() {
+        return averageFrameTimeMs;
+    }
+}
@@ -6,6 +6,8 @@ import android.opengl.GLES20;
 public class RenderTarget extends Texture {
     // Field to store the OpenGL framebuffer ID.
     private int framebuffer;
+    private int width;
+    private int height;
 
     // Constructor
     public RenderTarget() {
@@ -32,6 +34,8 @@ public class RenderTarget extends Texture {
 
         // Generate the framebuffer if not already done.
         generateFramebuffer();
+        this.width = width;
+        this.height = height;
 
         // Generate a texture ID using the superclass method.
         generateTextureId();
@@ -74,4 +78,30 @@ public class RenderTarget extends Texture {
     public int getFramebuffer() {
         return framebuffer;
     }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // Checks whether the framebuffer is allocated with the specified size.
+    public boolean hasSize(int width, int height) {
+        return framebuffer != 0 && this.width == width && this.height == height;
+    }
+
+    // Deletes the framebuffer along with its color texture.
+    @Override
+    public void destroy() {
+        if (framebuffer != 0) {
+            int[] framebuffers = new int[]{framebuffer};
+            GLES20.glDeleteFramebuffers(framebuffers.length, framebuffers, 0);
+            framebuffer = 0;
+        }
+        width = 0;
+        height = 0;
+        super.destroy();
+    }
 }
@@ -1,15 +1,16 @@
 package com.winlator.renderer;
 
 import com.winlator.xserver.Drawable;
+import com.winlator.xserver.Window;
 
 class RenderableWindow {
-    final Drawable content;
+    final Window window;
+    Drawable content;
     short rootX;
     short rootY;
+    boolean listed;
 
-    public RenderableWindow(Drawable content, int rootX, int rootY) {
-        this.content = content;
-        this.rootX = (short) rootX;
-        this.rootY = (short) rootY;
+    public RenderableWindow(Window window) {
+        this.window = window;
     }
 }
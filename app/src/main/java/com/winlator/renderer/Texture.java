@@ -2,6 +2,7 @@ package com.winlator.renderer;
 
 import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
+import android.opengl.GLES30;
 
 import com.winlator.XrActivity;
 import com.winlator.xserver.Drawable;
@@ -16,6 +17,7 @@ public class Texture {
     private int minFilter = GLES20.GL_LINEAR;
     protected int format = GLES11Ext.GL_BGRA;
     public boolean needsUpdate = true;
+    private int version = 0;
     protected byte unpackAlignment = 4; // or add a getter method
 
 
@@ -86,9 +88,27 @@ public class Texture {
 
     public void setNeedsUpdate(boolean needsUpdate) {
         this.needsUpdate = needsUpdate;
+        if (needsUpdate) version++;
+    }
+
+    // Counts the changes of the contents, a copy taken at one version is stale at the next
+    public int getVersion() {
+        return version;
+    }
+
+    // Uploads the contents from the pixel unpack buffer bound by the caller
+    public void updateFromPixelBuffer(short width, short height, int offset) {
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+        GLES30.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width, height, format, GLES20.GL_UNSIGNED_BYTE, offset);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        needsUpdate = false;
     }
 
     public void updateFromDrawable(Drawable drawable) {
+        updateFromDrawable(drawable, null);
+    }
+
+    public void updateFromDrawable(Drawable drawable, PixelBufferUploader uploader) {
         ByteBuffer data = drawable.getData();
         if (data == null) return;
 
@@ -96,9 +116,11 @@ public class Texture {
             allocateTexture(drawable.width, drawable.height, data);
         }
         else if (needsUpdate) {
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
-            GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, drawable.width, drawable.height, format, GLES20.GL_UNSIGNED_BYTE, data);
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+            if (uploader == null || !uploader.upload(textureId, drawable.width, drawable.height, format, data)) {
+                GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+                GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, drawable.width, drawable.height, format, GLES20.GL_UNSIGNED_BYTE, data);
+                GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+            }
             needsUpdate = false;
         }
     }
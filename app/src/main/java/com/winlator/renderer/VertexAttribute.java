@@ -2,6 +2,8 @@ package com.winlator.renderer;
 
 import android.opengl.GLES20;
 
+import com.winlator.renderer.material.ShaderMaterial;
+
 import java.nio.Buffer;
 import java.nio.FloatBuffer;
 
@@ -43,9 +45,10 @@ public class VertexAttribute {
         needsUpdate = false;
     }
 
-    public void bind(int programId) {
+    public void bind(ShaderMaterial material) {
         update();
-        if (location == -1) location = GLES20.glGetAttribLocation(programId, name);
+        // Programs sharing the attribute may place it at different locations
+        location = material.getAttributeLocation(name);
         GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, bufferId);
         GLES20.glEnableVertexAttribArray(location);
         GLES20.glVertexAttribPointer(location, itemSize, GLES20.GL_FLOAT, false, 0, 0);
@@ -0,0 +1,153 @@
+package com.winlator.renderer;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import com.winlator.renderer.material.WindowBatchMaterial;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+// Composites consecutive windows with a single instanced draw call on GLES3. The contents of
+// up to one texture unit per window stay bound at once, a batch is flushed when it runs out
+// of units, so the stacking order of the windows is kept across batches.
+class WindowBatchRenderer {
+    private static final byte MAX_TEXTURE_COUNT = 8;
+    private static final byte INSTANCE_SIZE = 7;
+    private static final int MAX_INSTANCE_COUNT = 256;
+    private final FloatBuffer instanceData = ByteBuffer.allocateDirect(MAX_INSTANCE_COUNT * INSTANCE_SIZE * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    private final int[] textureIds = new int[MAX_TEXTURE_COUNT];
+    private WindowBatchMaterial material;
+    private int instanceBufferId = 0;
+    private int xformXLocation = -1;
+    private int xformYLocation = -1;
+    private int textureIndexLocation = -1;
+    private int locationsProgramId = 0;
+    private byte textureCount = 0;
+    private int instanceCount = 0;
+    private int vertexCount = 0;
+    private int drawCount = 0;
+    private boolean supported = false;
+
+    public void init() {
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        supported = version != null && version.startsWith("OpenGL ES 3");
+        if (!supported) return;
+
+        int[] values = new int[1];
+        GLES20.glGetIntegerv(GLES20.GL_MAX_TEXTURE_IMAGE_UNITS, values, 0);
+        material = new WindowBatchMaterial(Math.min(values[0], MAX_TEXTURE_COUNT));
+
+        GLES20.glGenBuffers(1, values, 0);
+        instanceBufferId = values[0];
+        locationsProgramId = 0;
+    }
+
+    public boolean isSupported() {
+        return supported;
+    }
+
+    // Returns the number of draw calls of the last frame
+    public int getDrawCount() {
+        return drawCount;
+    }
+
+    public void begin(VertexAttribute quadVertices, short viewWidth, short viewHeight) {
+        material.use();
+        material.setUniformVec2(WindowBatchMaterial.VIEW_SIZE, viewWidth, viewHeight);
+        quadVertices.bind(material);
+        vertexCount = quadVertices.count();
+
+        if (locationsProgramId != material.programId) {
+            xformXLocation = GLES20.glGetAttribLocation(material.programId, "xformX");
+            xformYLocation = GLES20.glGetAttribLocation(material.programId, "xformY");
+            textureIndexLocation = GLES20.glGetAttribLocation(material.programId, "textureIndex");
+            locationsProgramId = material.programId;
+        }
+
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, instanceBufferId);
+        enableInstanceAttribute(xformXLocation, 3, 0);
+        enableInstanceAttribute(xformYLocation, 3, 3);
+        enableInstanceAttribute(textureIndexLocation, 1, 6);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+
+        textureCount = 0;
+        instanceCount = 0;
+        drawCount = 0;
+        instanceData.clear();
+    }
+
+    private static void enableInstanceAttribute(int location, int size, int offset) {
+        if (location == -1) return;
+        GLES20.glEnableVertexAttribArray(location);
+        GLES20.glVertexAttribPointer(location, size, GLES20.GL_FLOAT, false, INSTANCE_SIZE * 4, offset * 4);
+        GLES30.glVertexAttribDivisor(location, 1);
+    }
+
+    private static void disableInstanceAttribute(int location) {
+        if (location == -1) return;
+        GLES30.glVertexAttribDivisor(location, 0);
+        GLES20.glDisableVertexAttribArray(location);
+    }
+
+    public void add(int textureId, float[] xform) {
+        int textureIndex = -1;
+        for (int i = 0; i < textureCount; i++) {
+            if (textureIds[i] == textureId) {
+                textureIndex = i;
+                break;
+            }
+        }
+
+        if (textureIndex == -1) {
+            if (textureCount == material.getTextureCount()) flush();
+            textureIndex = textureCount;
+            textureIds[textureCount++] = textureId;
+        }
+
+        if (instanceCount == MAX_INSTANCE_COUNT) flush();
+
+        instanceData.put(xform[0]).put(xform[2]).put(xform[4]);
+        instanceData.put(xform[1]).put(xform[3]).put(xform[5]);
+        instanceData.put(textureIndex);
+        instanceCount++;
+    }
+
+    public void end(VertexAttribute quadVertices) {
+        flush();
+
+        disableInstanceAttribute(xformXLocation);
+        disableInstanceAttribute(xformYLocation);
+        disableInstanceAttribute(textureIndexLocation);
+        quadVertices.disable();
+    }
+
+    private void flush() {
+        if (instanceCount > 0) {
+            for (int i = 0; i < textureCount; i++) {
+                GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + i);
+                GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureIds[i]);
+            }
+
+            // Orphans the storage of the previous batch which the GPU may still read from
+            instanceData.flip();
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, instanceBufferId);
+            GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, MAX_INSTANCE_COUNT * INSTANCE_SIZE * 4, null, GLES20.GL_STREAM_DRAW);
+            GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, 0, instanceData.limit() * 4, instanceData);
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+
+            GLES30.glDrawArraysInstanced(GLES20.GL_TRIANGLE_STRIP, 0, vertexCount, instanceCount);
+            drawCount++;
+
+            for (int i = textureCount - 1; i >= 0; i--) {
+                GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + i);
+                GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+            }
+        }
+
+        textureCount = 0;
+        instanceCount = 0;
+        instanceData.clear();
+    }
+}
@@ -0,0 +1,170 @@
+package com.winlator.renderer;
+
+import android.util.Log;
+
+import app.gamenative.BuildConfig;
+import com.winlator.xserver.Window;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+// The windows to composite in stacking order, bottom first. Instead of walking the whole window
+// tree on every change, only the subtree of the window reported by the WindowManager callbacks is
+// patched at its place in the list. Entries are kept per window and reused when it is mapped again.
+class WindowDisplayList {
+    private final GLRenderer renderer;
+    private final Window rootWindow;
+    private final ArrayList<RenderableWindow> windows = new ArrayList<>();
+    private final HashMap<Window, RenderableWindow> entries = new HashMap<>();
+    private final ArrayList<RenderableWindow> tmpWindows = new ArrayList<>();
+
+    public WindowDisplayList(GLRenderer renderer, Window rootWindow) {
+        this.renderer = renderer;
+        this.rootWindow = rootWindow;
+    }
+
+    public List<RenderableWindow> getWindows() {
+        return windows;
+    }
+
+    public void rebuild() {
+        for (RenderableWindow renderableWindow : windows) renderableWindow.listed = false;
+        windows.clear();
+        collect(rootWindow, rootWindow.getX(), rootWindow.getY(), windows, false);
+    }
+
+    // Collects the subtree of the window again after it was mapped, unmapped, restacked or resized
+    public void updateSubtree(Window window) {
+        if (window == rootWindow) {
+            rebuild();
+        }
+        else {
+            removeSubtree(window);
+            if (isShown(window)) {
+                int index = getInsertionIndex(window);
+                tmpWindows.clear();
+                collect(window, window.getRootX(), window.getRootY(), tmpWindows, false);
+                windows.addAll(index, tmpWindows);
+                tmpWindows.clear();
+            }
+        }
+
+        if (BuildConfig.DEBUG) verify();
+    }
+
+    // Moves the entries of the subtree of the window, their stacking order stays the same
+    public void updatePosition(Window window) {
+        updatePosition(window, window.getRootX(), window.getRootY());
+        if (BuildConfig.DEBUG) verify();
+    }
+
+    private void updatePosition(Window window, int x, int y) {
+        RenderableWindow renderableWindow = entries.get(window);
+        if (renderableWindow != null && renderableWindow.listed) {
+            renderableWindow.rootX = (short)x;
+            renderableWindow.rootY = (short)y;
+        }
+
+        for (Window child : window.getChildren()) {
+            updatePosition(child, child.getX() + x, child.getY() + y);
+        }
+    }
+
+    // Drops the entries of a destroyed window, its subwindows are already detached from the tree
+    public void remove(Window window) {
+        removeSubtree(window);
+        entries.values().removeIf((renderableWindow) -> !renderableWindow.listed && !isInSubtree(renderableWindow.window, rootWindow));
+    }
+
+    private void removeSubtree(Window window) {
+        int count = 0;
+        for (int i = 0; i < windows.size(); i++) {
+            RenderableWindow renderableWindow = windows.get(i);
+            if (isInSubtree(renderableWindow.window, window) || !isInSubtree(renderableWindow.window, rootWindow)) {
+                renderableWindow.listed = false;
+            }
+            else windows.set(count++, renderableWindow);
+        }
+
+        for (int i = windows.size() - 1; i >= count; i--) windows.remove(i);
+    }
+
+    private void collect(Window window, int x, int y, ArrayList<RenderableWindow> result, boolean detached) {
+        if (!window.attributes.isMapped()) return;
+        if (window != rootWindow && renderer.isWindowViewable(window)) {
+            RenderableWindow renderableWindow = detached ? null : entries.get(window);
+            if (renderableWindow == null) {
+                renderableWindow = new RenderableWindow(window);
+                if (!detached) entries.put(window, renderableWindow);
+            }
+
+            renderableWindow.content = window.getContent();
+            renderableWindow.rootX = (short)x;
+            renderableWindow.rootY = (short)y;
+            renderableWindow.listed = !detached;
+            result.add(renderableWindow);
+        }
+
+        for (Window child : window.getChildren()) {
+            collect(child, child.getX() + x, child.getY() + y, result, detached);
+        }
+    }
+
+    // Entries of the windows that precede the window in stacking order are already in place,
+    // so its subtree goes right after the closest one of them that is listed
+    private int getInsertionIndex(Window window) {
+        Window current = window;
+        while (true) {
+            Window previous = current.previousSibling();
+            if (previous != null) {
+                while (previous.getChildCount() > 0) {
+                    List<Window> children = previous.getChildren();
+                    previous = children.get(children.size() - 1);
+                }
+                current = previous;
+            }
+            else current = current.getParent();
+
+            if (current == null || current == rootWindow) return 0;
+
+            RenderableWindow renderableWindow = entries.get(current);
+            if (renderableWindow != null && renderableWindow.listed) return windows.indexOf(renderableWindow) + 1;
+        }
+    }
+
+    private boolean isShown(Window window) {
+        while (window != null) {
+            if (!window.attributes.isMapped()) return false;
+            if (window == rootWindow) return true;
+            window = window.getParent();
+        }
+        return false;
+    }
+
+    private static boolean isInSubtree(Window window, Window ancestor) {
+        while (window != null) {
+            if (window == ancestor) return true;
+            window = window.getParent();
+        }
+        return false;
+    }
+
+    // Debug builds compare the patched list with a full rebuild after every change
+    private void verify() {
+        ArrayList<RenderableWindow> expected = new ArrayList<>();
+        collect(rootWindow, rootWindow.getX(), rootWindow.getY(), expected, true);
+
+        boolean matches = expected.size() == windows.size();
+        for (int i = 0; matches && i < expected.size(); i++) {
+            RenderableWindow a = expected.get(i);
+            RenderableWindow b = windows.get(i);
+            matches = a.window == b.window && a.content == b.content && a.rootX == b.rootX && a.rootY == b.rootY;
+        }
+
+        if (!matches) {
+            Log.e("WindowDisplayList", "Patched window list differs from a full rebuild (" + windows.size() + " entries, expected " + expected.size() + ")");
+            rebuild();
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package com.winlator.renderer.effects;
 
-import com.winlator.renderer.material.ScreenMaterial;
 import com.winlator.renderer.material.ShaderMaterial;
 
 public class ColorEffect extends Effect {
@@ -15,12 +14,6 @@ public class ColorEffect extends Effect {
         this.gamma = 1.0f;      // Default gamma value (no change)
     }
 
-    // Creates and returns the ShaderMaterial for this effect
-    @Override
-    protected ShaderMaterial createMaterial() {
-        return new ColorEffectMaterial();
-    }
-
     // Getters and Setters
     public float getBrightness() {
         return brightness;
@@ -46,51 +39,42 @@ public class ColorEffect extends Effect {
         this.gamma = gamma;
     }
 
-    // Inner class implementing the Color effect shader material
-    private class ColorEffectMaterial extends ScreenMaterial {
-        public ColorEffectMaterial() {
-            super();
-            setUniformNames("brightness", "contrast", "gamma", "screenTexture");
-        }
-
-        @Override
-        protected String getFragmentShader() {
-            return String.join("\n", new CharSequence[]{
-                    "precision highp float;",
-                    "uniform sampler2D screenTexture;",
-                    "uniform float brightness;",
-                    "uniform float contrast;",
-                    "uniform float gamma;",
-                    "varying vec2 vUV;",
-                    "void main() {",
-                    "    vec4 texelColor = texture2D(screenTexture, vUV);",
-                    "    vec3 color = texelColor.rgb;",
-                    "    color = clamp(color + brightness, 0.0, 1.0);", // Brightness adjustment
-                    "    color = (color - 0.5) * clamp(contrast + 1.0, 0.5, 2.0) + 0.5;", // Contrast adjustment
-                    "    color = pow(color, vec3(1.0 / gamma));", // Gamma adjustment
-                    "    gl_FragColor = vec4(color, texelColor.a);", // Apply color adjustments
-                    "}"
-            });
-        }
-
-        @Override
-        public void use() {
-            super.use(); // Bind the shader program
+    @Override
+    public boolean isPointwise() {
+        return true;
+    }
 
-            // Log the values before applying them to the shader
-            float brightness = ColorEffect.this.getBrightness();
-            float contrast = ColorEffect.this.getContrast();
-            float gamma = ColorEffect.this.getGamma();
+    @Override
+    protected String getFragmentFunction(String name) {
+        return String.join("\n", new CharSequence[]{
+                "uniform float brightness;",
+                "uniform float contrast;",
+                "uniform float gamma;",
+                "vec4 " + name + "(vec4 texelColor, vec2 uv) {",
+                "    vec3 color = texelColor.rgb;",
+                "    color = clamp(color + brightness, 0.0, 1.0);", // Brightness adjustment
+                "    color = (color - 0.5) * clamp(contrast + 1.0, 0.5, 2.0) + 0.5;", // Contrast adjustment
+                "    color = pow(color, vec3(1.0 / gamma));", // Gamma adjustment
+                "    return vec4(color, texelColor.a);", // Apply color adjustments
+                "}"
+        });
+    }
 
-            // Clamp the values to ensure they are within a reasonable range
-            brightness = Math.max(-1.0f, Math.min(brightness, 1.0f)); // Clamping between -1.0 and 1.0
-            contrast = Math.max(0.0f, Math.min(contrast, 2.0f)); // Clamping between 0.0 and 2.0
-            gamma = Math.max(0.1f, Math.min(gamma, 5.0f)); // Clamping between 0.1 and 5.0
+    @Override
+    public String[] getUniformNames() {
+        return new String[]{"brightness", "contrast", "gamma"};
+    }
 
-            // Set the shader uniform values for brightness, contrast, and gamma using the clamped values
-            setUniformFloat("brightness", brightness);
-            setUniformFloat("contrast", contrast);
-            setUniformFloat("gamma", gamma);
-        }
+    @Override
+    public void applyUniforms(ShaderMaterial material) {
+        // Clamp the values to ensure they are within a reasonable range
+        float brightness = Math.max(-1.0f, Math.min(this.brightness, 1.0f)); // Clamping between -1.0 and 1.0
+        float contrast = Math.max(0.0f, Math.min(this.contrast, 2.0f)); // Clamping between 0.0 and 2.0
+        float gamma = Math.max(0.1f, Math.min(this.gamma, 5.0f)); // Clamping between 0.1 and 5.0
+
+        // Set the shader uniform values for brightness, contrast, and gamma using the clamped values
+        material.setUniformFloat("brightness", brightness);
+        material.setUniformFloat("contrast", contrast);
+        material.setUniformFloat("gamma", gamma);
     }
 }
@@ -3,26 +3,27 @@ package com.winlator.renderer.effects;
 import com.winlator.renderer.material.ShaderMaterial;
 
 public abstract class Effect {
-    // Instance field for the shader material
-    private ShaderMaterial material;
-
     // Constructor
     public Effect() {
-        // Initialize the material (if needed)
     }
 
-    // Abstract method to be implemented by subclasses for creating the material
-    protected ShaderMaterial createMaterial() {
-        // Returning null indicates that the subclass is responsible for creating the material
-        return null;
+    // Point-wise effects only depend on the color of the current pixel, so EffectComposer
+    // can fuse them into the pass of the preceding effect instead of giving them their own pass
+    public boolean isPointwise() {
+        return false;
+    }
+
+    // Returns the GLSL declarations and the function of this effect named by the given name.
+    // Point-wise effects define "vec4 name(vec4 color, vec2 uv)", all other effects define
+    // "vec4 name(vec2 uv)" and may sample the shared "screenTexture" and "resolution" uniforms.
+    protected abstract String getFragmentFunction(String name);
+
+    // Returns the names of the uniforms declared by getFragmentFunction()
+    public String[] getUniformNames() {
+        return new String[0];
     }
 
-    // Returns the material associated with this effect
-    public ShaderMaterial getMaterial() {
-        // If material is not initialized, create it using the abstract method
-        if (material == null) {
-            material = createMaterial();
-        }
-        return material;
+    // Uploads the uniform values of this effect to the program currently in use
+    public void applyUniforms(ShaderMaterial material) {
     }
 }
@@ -0,0 +1,105 @@
+package com.winlator.renderer.effects;
+
+import com.winlator.renderer.material.ScreenMaterial;
+import com.winlator.renderer.material.ShaderMaterial;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// A single full-screen pass of the effect chain: at most one effect that samples the
+// screen texture followed by any number of point-wise effects fused into the same program.
+public class EffectPass {
+    private final Effect[] effects;
+    private final String key;
+
+    private EffectPass(List<Effect> effects) {
+        this.effects = effects.toArray(new Effect[0]);
+
+        StringBuilder sb = new StringBuilder();
+        for (Effect effect : this.effects) {
+            if (sb.length() > 0) sb.append('+');
+            sb.append(effect.getClass().getName());
+        }
+        key = sb.toString();
+    }
+
+    // Splits the effect chain into as few passes as possible while keeping its order
+    public static ArrayList<EffectPass> build(List<Effect> effects) {
+        ArrayList<EffectPass> passes = new ArrayList<>();
+        ArrayList<Effect> group = new ArrayList<>();
+
+        for (Effect effect : effects) {
+            if (!group.isEmpty() && (!effect.isPointwise() || containsClass(group, effect.getClass()))) {
+                passes.add(new EffectPass(group));
+                group.clear();
+            }
+            group.add(effect);
+        }
+
+        if (!group.isEmpty()) passes.add(new EffectPass(group));
+        return passes;
+    }
+
+    // Uniform and define names of the same effect class would clash within one program
+    private static boolean containsClass(List<Effect> group, Class<?> effectClass) {
+        for (Effect effect : group) if (effect.getClass() == effectClass) return true;
+        return false;
+    }
+
+    // Identifies the generated program, passes with the same effect classes share it
+    public String getKey() {
+        return key;
+    }
+
+    public ShaderMaterial createMaterial() {
+        return new EffectPassMaterial();
+    }
+
+    public void applyUniforms(ShaderMaterial material) {
+        for (Effect effect : effects) effect.applyUniforms(material);
+    }
+
+    private class EffectPassMaterial extends ScreenMaterial {
+        public EffectPassMaterial() {
+            super();
+            ArrayList<String> uniformNames = new ArrayList<>();
+            uniformNames.add("resolution");
+            uniformNames.add("screenTexture");
+            for (Effect effect : effects) {
+                for (String name : effect.getUniformNames()) uniformNames.add(name);
+            }
+            setUniformNames(uniformNames.toArray(new String[0]));
+        }
+
+        @Override
+        protected String getFragmentShader() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("precision highp float;\n");
+            sb.append("uniform sampler2D screenTexture;\n");
+            sb.append("uniform vec2 resolution;\n");
+            sb.append("varying vec2 vUV;\n");
+
+            for (int i = 0; i < effects.length; i++) {
+                sb.append(effects[i].getFragmentFunction("effect" + i)).append('\n');
+            }
+
+            sb.append("void main() {\n");
+            int start = 0;
+            if (effects[0].isPointwise()) {
+                sb.append("vec4 color = texture2D(screenTexture, vUV);\n");
+            }
+            else {
+                sb.append("vec4 color = effect0(vUV);\n");
+                start = 1;
+            }
+
+            for (int i = start; i < effects.length; i++) {
+                sb.append("color = effect").append(i).append("(color, vUV);\n");
+            }
+
+            sb.append("gl_FragColor = color;\n");
+            sb.append("}");
+            return sb.toString();
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.winlator.renderer.material;
 
 public class CursorMaterial extends ShaderMaterial {
     public CursorMaterial() {
+        // Same order as WindowMaterial, both are drawn through its uniform slots
         setUniformNames("xform", "viewSize", "texture");
     }
 
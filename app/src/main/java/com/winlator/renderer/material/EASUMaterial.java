@@ -0,0 +1,123 @@
+package com.winlator.renderer.material;
+
+// Edge adaptive spatial upsampling in the style of AMD FSR1 EASU.
+// Reconstructs each output pixel from a 12-tap window of the low resolution input
+// with a Lanczos-like kernel stretched along the local edge direction.
+public class EASUMaterial extends ScreenMaterial {
+    public EASUMaterial() {
+        super();
+        setUniformNames("screenTexture", "inputSize", "outputSize");
+    }
+
+    @Override
+    protected String getFragmentShader() {
+        return String.join("\n", new CharSequence[]{
+                "precision highp float;",
+                "uniform sampler2D screenTexture;",
+                "uniform vec2 inputSize;",
+                "uniform vec2 outputSize;",
+
+                "vec3 load(vec2 p) {",
+                "    return texture2D(screenTexture, (p + 0.5) / inputSize).rgb;",
+                "}",
+
+                "float luma(vec3 c) {",
+                "    return c.g + 0.5 * (c.r + c.b);",
+                "}",
+
+                // Accumulates the edge direction and length of one of the four bilinear quadrants
+                "void easuSet(inout vec2 dir, inout float len, float w, float lA, float lB, float lC, float lD, float lE) {",
+                "    float lenX = max(abs(lD - lC), abs(lC - lB));",
+                "    float dirX = lD - lB;",
+                "    dir.x += dirX * w;",
+                "    lenX = clamp(abs(dirX) / max(lenX, 1.0 / 65536.0), 0.0, 1.0);",
+                "    len += lenX * lenX * w;",
+                "    float lenY = max(abs(lE - lC), abs(lC - lA));",
+                "    float dirY = lE - lA;",
+                "    dir.y += dirY * w;",
+                "    lenY = clamp(abs(dirY) / max(lenY, 1.0 / 65536.0), 0.0, 1.0);",
+                "    len += lenY * lenY * w;",
+                "}",
+
+                // Accumulates one tap of the rotated and stretched kernel
+                "void easuTap(inout vec3 aC, inout float aW, vec2 off, vec2 dir, vec2 len2, float lob, float clp, vec3 c) {",
+                "    vec2 v = vec2(dot(off, dir), dot(off, vec2(-dir.y, dir.x))) * len2;",
+                "    float d2 = min(dot(v, v), clp);",
+                "    float wB = 0.4 * d2 - 1.0;",
+                "    float wA = lob * d2 - 1.0;",
+                "    wB *= wB;",
+                "    wA *= wA;",
+                "    wB = 1.5625 * wB - 0.5625;",
+                "    float w = wB * wA;",
+                "    aW += w;",
+                "    aC += c * w;",
+                "}",
+
+                "void main() {",
+                "    vec2 pp = gl_FragCoord.xy * inputSize / outputSize - 0.5;",
+                "    vec2 fp = floor(pp);",
+                "    pp -= fp;",
+
+                //     b c
+                //   e f g h
+                //   i j k l
+                //     n o
+                "    vec3 b = load(fp + vec2(0.0, -1.0));",
+                "    vec3 c = load(fp + vec2(1.0, -1.0));",
+                "    vec3 e = load(fp + vec2(-1.0, 0.0));",
+                "    vec3 f = load(fp);",
+                "    vec3 g = load(fp + vec2(1.0, 0.0));",
+                "    vec3 h = load(fp + vec2(2.0, 0.0));",
+                "    vec3 i = load(fp + vec2(-1.0, 1.0));",
+                "    vec3 j = load(fp + vec2(0.0, 1.0));",
+                "    vec3 k = load(fp + vec2(1.0, 1.0));",
+                "    vec3 l = load(fp + vec2(2.0, 1.0));",
+                "    vec3 n = load(fp + vec2(0.0, 2.0));",
+                "    vec3 o = load(fp + vec2(1.0, 2.0));",
+
+                "    float bL = luma(b), cL = luma(c), eL = luma(e), fL = luma(f);",
+                "    float gL = luma(g), hL = luma(h), iL = luma(i), jL = luma(j);",
+                "    float kL = luma(k), lL = luma(l), nL = luma(n), oL = luma(o);",
+
+                "    vec2 dir = vec2(0.0);",
+                "    float len = 0.0;",
+                "    easuSet(dir, len, (1.0 - pp.x) * (1.0 - pp.y), bL, eL, fL, gL, jL);",
+                "    easuSet(dir, len, pp.x * (1.0 - pp.y), cL, fL, gL, hL, kL);",
+                "    easuSet(dir, len, (1.0 - pp.x) * pp.y, fL, iL, jL, kL, nL);",
+                "    easuSet(dir, len, pp.x * pp.y, gL, jL, kL, lL, oL);",
+
+                "    float dirR = dot(dir, dir);",
+                "    bool zro = dirR < 1.0 / 32768.0;",
+                "    dirR = zro ? 1.0 : inversesqrt(dirR);",
+                "    dir.x = zro ? 1.0 : dir.x;",
+                "    dir *= dirR;",
+                "    len = len * 0.5;",
+                "    len *= len;",
+                "    float stretch = dot(dir, dir) / max(abs(dir.x), abs(dir.y));",
+                "    vec2 len2 = vec2(1.0 + (stretch - 1.0) * len, 1.0 - 0.5 * len);",
+                "    float lob = 0.5 - 0.29 * len;",
+                "    float clp = 1.0 / lob;",
+
+                "    vec3 aC = vec3(0.0);",
+                "    float aW = 0.0;",
+                "    easuTap(aC, aW, vec2(0.0, -1.0) - pp, dir, len2, lob, clp, b);",
+                "    easuTap(aC, aW, vec2(1.0, -1.0) - pp, dir, len2, lob, clp, c);",
+                "    easuTap(aC, aW, vec2(-1.0, 1.0) - pp, dir, len2, lob, clp, i);",
+                "    easuTap(aC, aW, vec2(0.0, 1.0) - pp, dir, len2, lob, clp, j);",
+                "    easuTap(aC, aW, vec2(0.0, 0.0) - pp, dir, len2, lob, clp, f);",
+                "    easuTap(aC, aW, vec2(-1.0, 0.0) - pp, dir, len2, lob, clp, e);",
+                "    easuTap(aC, aW, vec2(1.0, 1.0) - pp, dir, len2, lob, clp, k);",
+                "    easuTap(aC, aW, vec2(2.0, 1.0) - pp, dir, len2, lob, clp, l);",
+                "    easuTap(aC, aW, vec2(2.0, 0.0) - pp, dir, len2, lob, clp, h);",
+                "    easuTap(aC, aW, vec2(1.0, 0.0) - pp, dir, len2, lob, clp, g);",
+                "    easuTap(aC, aW, vec2(1.0, 2.0) - pp, dir, len2, lob, clp, o);",
+                "    easuTap(aC, aW, vec2(0.0, 2.0) - pp, dir, len2, lob, clp, n);",
+
+                // Clamp to the nearest 2x2 texels to avoid ringing
+                "    vec3 min4 = min(min(f, g), min(j, k));",
+                "    vec3 max4 = max(max(f, g), max(j, k));",
+                "    gl_FragColor = vec4(min(max4, max(min4, aC / aW)), 1.0);",
+                "}"
+        });
+    }
+}
@@ -0,0 +1,239 @@
+package com.winlator.renderer.material;
+
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLSurface;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Stores linked programs on disk with glGetProgramBinary on GLES3, so materials are not
+// compiled again after a context loss or in later sessions. Entries are keyed by the hash
+// of the shader sources and the driver strings, a driver update never loads stale binaries.
+public class ProgramBinaryCache {
+    private static final String TAG = "ProgramBinaryCache";
+    private static final int MAGIC = 0x57505243;
+    private static final int EGL_OPENGL_ES3_BIT = 0x40;
+    private static volatile File cacheDir;
+    private static volatile String driverKey;
+    private static final AtomicInteger hitCount = new AtomicInteger();
+    private static final AtomicInteger missCount = new AtomicInteger();
+    private static final AtomicLong compileTimeNs = new AtomicLong();
+    private static final AtomicLong savedTimeNs = new AtomicLong();
+
+    // Must be called on a thread with a current context, binaries are only used on GLES3
+    public static void init(File cacheDir) {
+        String driverKey = getDriverKey();
+        if (driverKey == null) {
+            ProgramBinaryCache.cacheDir = null;
+            return;
+        }
+
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+            Log.w(TAG, "Could not create " + cacheDir);
+            return;
+        }
+
+        ProgramBinaryCache.driverKey = driverKey;
+        ProgramBinaryCache.cacheDir = cacheDir;
+    }
+
+    public static boolean isEnabled() {
+        return cacheDir != null;
+    }
+
+    private static String getDriverKey() {
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        if (version == null || !version.startsWith("OpenGL ES 3")) return null;
+
+        int[] formatCount = new int[1];
+        GLES20.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, formatCount, 0);
+        if (formatCount[0] == 0) return null;
+
+        return GLES20.glGetString(GLES20.GL_VENDOR) + "\n" + GLES20.glGetString(GLES20.GL_RENDERER) + "\n" + version;
+    }
+
+    // Returns a linked program for the given sources, from the cache if possible
+    static int getProgram(String vertexShader, String fragmentShader) {
+        File file = getCacheFile(vertexShader, fragmentShader);
+        if (file != null && file.isFile()) {
+            long startTime = System.nanoTime();
+            long[] storedCompileTime = new long[1];
+            int programId = loadProgram(file, storedCompileTime);
+            if (programId != 0) {
+                hitCount.incrementAndGet();
+                savedTimeNs.addAndGet(storedCompileTime[0] - (System.nanoTime() - startTime));
+                return programId;
+            }
+            file.delete();
+        }
+
+        long startTime = System.nanoTime();
+        int programId = ShaderMaterial.compileShaders(vertexShader, fragmentShader);
+        long elapsed = System.nanoTime() - startTime;
+        missCount.incrementAndGet();
+        compileTimeNs.addAndGet(elapsed);
+
+        if (file != null) saveProgram(file, programId, elapsed);
+        return programId;
+    }
+
+    private static File getCacheFile(String vertexShader, String fragmentShader) {
+        File cacheDir = ProgramBinaryCache.cacheDir;
+        if (cacheDir == null) return null;
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(driverKey.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte)0);
+            digest.update(vertexShader.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte)0);
+            digest.update(fragmentShader.getBytes(StandardCharsets.UTF_8));
+
+            StringBuilder name = new StringBuilder();
+            for (byte b : digest.digest()) name.append(String.format("%02x", b));
+            return new File(cacheDir, name.append(".bin").toString());
+        }
+        catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    private static int loadProgram(File file, long[] compileTime) {
+        int binaryFormat;
+        ByteBuffer binary;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != MAGIC) return 0;
+            binaryFormat = in.readInt();
+            compileTime[0] = in.readLong();
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            binary = ByteBuffer.allocateDirect(data.length).order(ByteOrder.nativeOrder());
+            binary.put(data).flip();
+        }
+        catch (IOException e) {
+            return 0;
+        }
+
+        int programId = GLES20.glCreateProgram();
+        GLES30.glProgramBinary(programId, binaryFormat, binary, binary.remaining());
+
+        // Drivers may reject binaries of an older build even with the same version string
+        int[] linked = new int[1];
+        GLES20.glGetProgramiv(programId, GLES20.GL_LINK_STATUS, linked, 0);
+        if (linked[0] == 0) {
+            GLES20.glDeleteProgram(programId);
+            return 0;
+        }
+        return programId;
+    }
+
+    private static void saveProgram(File file, int programId, long compileTime) {
+        int[] length = new int[1];
+        GLES20.glGetProgramiv(programId, GLES30.GL_PROGRAM_BINARY_LENGTH, length, 0);
+        if (length[0] <= 0) return;
+
+        ByteBuffer binary = ByteBuffer.allocateDirect(length[0]).order(ByteOrder.nativeOrder());
+        int[] binaryFormat = new int[1];
+        GLES30.glGetProgramBinary(programId, length[0], length, 0, binaryFormat, 0, binary);
+        if (length[0] <= 0) return;
+
+        byte[] data = new byte[length[0]];
+        binary.get(data);
+
+        // Written to a temporary file first, the prewarm thread may store the same program
+        File tmpFile = new File(file.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tmpFile))) {
+            out.writeInt(MAGIC);
+            out.writeInt(binaryFormat[0]);
+            out.writeLong(compileTime);
+            out.writeInt(data.length);
+            out.write(data);
+        }
+        catch (IOException e) {
+            tmpFile.delete();
+            return;
+        }
+        if (!tmpFile.renameTo(file)) tmpFile.delete();
+    }
+
+    // Compiles the programs of the given materials that are not cached yet on a background context
+    // sharing objects with the current one, so their first use only has to load the binary.
+    public static void prewarm(final List<ShaderMaterial> materials) {
+        if (!isEnabled()) return;
+        final EGLContext sharedContext = EGL14.eglGetCurrentContext();
+
+        Thread thread = new Thread(() -> {
+            EGLDisplay display = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+            int[] version = new int[2];
+            if (!EGL14.eglInitialize(display, version, 0, version, 1)) return;
+
+            int[] configAttribs = {EGL14.EGL_RENDERABLE_TYPE, EGL_OPENGL_ES3_BIT, EGL14.EGL_SURFACE_TYPE, EGL14.EGL_PBUFFER_BIT, EGL14.EGL_NONE};
+            EGLConfig[] configs = new EGLConfig[1];
+            int[] configCount = new int[1];
+            if (!EGL14.eglChooseConfig(display, configAttribs, 0, configs, 0, 1, configCount, 0) || configCount[0] == 0) return;
+
+            int[] contextAttribs = {EGL14.EGL_CONTEXT_CLIENT_VERSION, 3, EGL14.EGL_NONE};
+            EGLContext context = EGL14.eglCreateContext(display, configs[0], sharedContext, contextAttribs, 0);
+            if (context == EGL14.EGL_NO_CONTEXT) return;
+
+            int[] surfaceAttribs = {EGL14.EGL_WIDTH, 1, EGL14.EGL_HEIGHT, 1, EGL14.EGL_NONE};
+            EGLSurface surface = EGL14.eglCreatePbufferSurface(display, configs[0], surfaceAttribs, 0);
+
+            try {
+                if (surface == EGL14.EGL_NO_SURFACE || !EGL14.eglMakeCurrent(display, surface, surface, context)) return;
+
+                long startTime = System.nanoTime();
+                int compiled = 0;
+                for (ShaderMaterial material : materials) {
+                    String vertexShader = material.getVertexShader();
+                    String fragmentShader = material.getFragmentShader();
+                    File file = getCacheFile(vertexShader, fragmentShader);
+                    if (file == null || file.isFile()) continue;
+
+                    long compileStartTime = System.nanoTime();
+                    int programId = ShaderMaterial.compileShaders(vertexShader, fragmentShader);
+                    saveProgram(file, programId, System.nanoTime() - compileStartTime);
+                    GLES20.glDeleteProgram(programId);
+                    compiled++;
+                }
+
+                Log.d(TAG, "Prewarmed " + compiled + " of " + materials.size() + " programs in " + (System.nanoTime() - startTime) / 1000000 + "ms. " + getReport());
+            }
+            catch (RuntimeException e) {
+                Log.w(TAG, "Prewarm failed", e);
+            }
+            finally {
+                EGL14.eglMakeCurrent(display, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+                if (surface != EGL14.EGL_NO_SURFACE) EGL14.eglDestroySurface(display, surface);
+                EGL14.eglDestroyContext(display, context);
+                EGL14.eglReleaseThread();
+            }
+        }, "ProgramPrewarm");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    // Summarizes how much compile time on the render thread the cache saved so far
+    public static String getReport() {
+        return String.format("Program cache: %d hits, %d compiled (%.1fms), %.1fms compile time saved",
+            hitCount.get(), missCount.get(), compileTimeNs.get() / 1000000.0f, savedTimeNs.get() / 1000000.0f);
+    }
+}
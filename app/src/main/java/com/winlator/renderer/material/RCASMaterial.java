@@ -0,0 +1,46 @@
+package com.winlator.renderer.material;
+
+// Robust contrast adaptive sharpening in the style of AMD FSR1 RCAS.
+// Restores the detail softened by EASUMaterial without pushing pixels past their neighbourhood.
+public class RCASMaterial extends ScreenMaterial {
+    public RCASMaterial() {
+        super();
+        setUniformNames("screenTexture", "resolution", "sharpness");
+    }
+
+    @Override
+    protected String getFragmentShader() {
+        return String.join("\n", new CharSequence[]{
+                "precision highp float;",
+                "#define RCAS_LIMIT (0.25 - (1.0 / 16.0))",
+                "uniform sampler2D screenTexture;",
+                "uniform vec2 resolution;",
+                "uniform float sharpness;",
+
+                "vec3 load(vec2 p) {",
+                "    return texture2D(screenTexture, p / resolution).rgb;",
+                "}",
+
+                "void main() {",
+                //     b
+                //   d e f
+                //     h
+                "    vec2 p = gl_FragCoord.xy;",
+                "    vec3 b = load(p + vec2(0.0, -1.0));",
+                "    vec3 d = load(p + vec2(-1.0, 0.0));",
+                "    vec3 e = load(p);",
+                "    vec3 f = load(p + vec2(1.0, 0.0));",
+                "    vec3 h = load(p + vec2(0.0, 1.0));",
+
+                "    vec3 mn4 = min(min(b, d), min(f, h));",
+                "    vec3 mx4 = max(max(b, d), max(f, h));",
+                "    vec3 hitMin = min(mn4, e) / max(4.0 * mx4, vec3(1.0 / 65536.0));",
+                "    vec3 hitMax = (1.0 - max(mx4, e)) / min(4.0 * min(mn4, e) - 4.0, vec3(-1.0 / 65536.0));",
+                "    vec3 lobeRGB = max(-hitMin, hitMax);",
+                "    float lobe = max(-RCAS_LIMIT, min(max(lobeRGB.r, max(lobeRGB.g, lobeRGB.b)), 0.0)) * sharpness;",
+                "    vec3 color = (lobe * (b + d + f + h) + e) / (4.0 * lobe + 1.0);",
+                "    gl_FragColor = vec4(clamp(color, 0.0, 1.0), 1.0);",
+                "}"
+        });
+    }
+}
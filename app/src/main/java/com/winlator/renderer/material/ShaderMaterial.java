@@ -2,17 +2,33 @@ package com.winlator.renderer.material;
 
 import android.graphics.Color;
 import android.opengl.GLES20;
+import android.opengl.GLES30;
 import android.util.Log;
 
 import androidx.collection.ArrayMap;
 
+import java.util.Arrays;
+
+// Uniforms are addressed by slot, the index of their name in setUniformNames(). Locations are
+// resolved once per linked program and the last value of every slot is remembered, so callers
+// in the draw loop neither hash uniform names nor repeat glUniform calls for unchanged values.
 public class ShaderMaterial {
     public int programId;
     private final ArrayMap<String, Integer> uniforms = new ArrayMap<>();
+    private String[] uniformNames = new String[0];
+    private int[] locations = new int[0];
+    private float[][] values = new float[0][];
+    private int locationsProgramId = 0;
+    private final ArrayMap<String, Integer> attributeLocations = new ArrayMap<>();
+    private int attributeLocationsProgramId = 0;
 
     public void setUniformNames(String... names) {
         uniforms.clear();
-        for (String name : names) uniforms.put(name, -1);
+        for (int i = 0; i < names.length; i++) uniforms.put(names[i], i);
+        uniformNames = names.clone();
+        locations = new int[names.length];
+        values = new float[names.length][];
+        locationsProgramId = 0;
     }
 
     protected static int compileShaders(String vertexShader, String fragmentShader) {
@@ -46,6 +62,7 @@ public class ShaderMaterial {
         }
         GLES20.glAttachShader(programId, fragmentShaderId);
 
+        if (ProgramBinaryCache.isEnabled()) GLES30.glProgramParameteri(programId, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GLES20.GL_TRUE);
         GLES20.glLinkProgram(programId);
 
         GLES20.glDeleteShader(vertexShaderId);
@@ -62,24 +79,52 @@ public class ShaderMaterial {
     }
 
     public void use() {
-        if (programId == 0) programId = compileShaders(getVertexShader(), getFragmentShader());
+        if (programId == 0) programId = ProgramBinaryCache.getProgram(getVertexShader(), getFragmentShader());
         GLES20.glUseProgram(programId);
 
-        for (int i = 0; i < uniforms.size(); i++) {
-            int location = uniforms.valueAt(i);
-            if (location == -1) {
-                String name = uniforms.keyAt(i);
-                uniforms.put(name, GLES20.glGetUniformLocation(programId, name));
+        if (locationsProgramId != programId) {
+            for (int i = 0; i < uniformNames.length; i++) {
+                locations[i] = GLES20.glGetUniformLocation(programId, uniformNames[i]);
+                values[i] = null;
             }
+            locationsProgramId = programId;
         }
     }
 
-    public int getUniformLocation(String name) {
-        Integer location = uniforms.get(name);
+    // Returns the location of the vertex attribute in the program, looked up once per linked program
+    public int getAttributeLocation(String name) {
+        if (attributeLocationsProgramId != programId) {
+            attributeLocations.clear();
+            attributeLocationsProgramId = programId;
+        }
+
+        Integer location = attributeLocations.get(name);
         if (location == null) {
+            location = GLES20.glGetAttribLocation(programId, name);
+            attributeLocations.put(name, location);
+        }
+        return location;
+    }
+
+    public boolean hasUniform(String name) {
+        Integer slot = uniforms.get(name);
+        return slot != null && locations[slot] != -1;
+    }
+
+    // Returns the slot of the uniform to pass to the slot based setters, -1 if it is not registered
+    public int getUniformSlot(String name) {
+        Integer slot = uniforms.get(name);
+        if (slot == null) {
             Log.e("ShaderMaterial", "Uniform " + name + " is not registered in setUniformNames().");
             return -1;
         }
+        return slot;
+    }
+
+    public int getUniformLocation(String name) {
+        int slot = getUniformSlot(name);
+        if (slot == -1) return -1;
+        int location = locations[slot];
         if (location == -1) {
             Log.e("ShaderMaterial", "Uniform " + name + " location not found in shader program.");
         }
@@ -89,27 +134,81 @@ public class ShaderMaterial {
 
     public void destroy() {
         GLES20.glDeleteProgram(programId);
+        reset();
+    }
+
+    // Forgets the program of a lost context without deleting it, GL names of a new context may be reused
+    public void reset() {
         programId = 0;
+        locationsProgramId = 0;
+        attributeLocationsProgramId = 0;
     }
 
-    public void setUniformVec2(String uniformName, float x, float y) {
-        int location = getUniformLocation(uniformName);
-        if (location != -1) {
+    // Returns false if the slot already holds the given values, otherwise remembers them
+    private boolean updateValues(int slot, int size, float x, float y, float z) {
+        float[] current = values[slot];
+        if (current != null && current.length == size && current[0] == x && (size < 2 || current[1] == y) && (size < 3 || current[2] == z)) {
+            return false;
+        }
+
+        if (current == null || current.length != size) current = values[slot] = new float[size];
+        current[0] = x;
+        if (size > 1) current[1] = y;
+        if (size > 2) current[2] = z;
+        return true;
+    }
+
+    public void setUniformVec2(int slot, float x, float y) {
+        int location = slot != -1 ? locations[slot] : -1;
+        if (location != -1 && updateValues(slot, 2, x, y, 0)) {
             GLES20.glUniform2f(location, x, y);
         }
     }
 
-    public void setUniformInt(String uniformName, int value) {
-        int location = getUniformLocation(uniformName);
-        if (location != -1) {
+    public void setUniformVec3(int slot, float x, float y, float z) {
+        int location = slot != -1 ? locations[slot] : -1;
+        if (location != -1 && updateValues(slot, 3, x, y, z)) {
+            GLES20.glUniform3f(location, x, y, z);
+        }
+    }
+
+    public void setUniformFloat(int slot, float value) {
+        int location = slot != -1 ? locations[slot] : -1;
+        if (location != -1 && updateValues(slot, 1, value, 0, 0)) {
+            GLES20.glUniform1f(location, value);
+        }
+    }
+
+    public void setUniformInt(int slot, int value) {
+        int location = slot != -1 ? locations[slot] : -1;
+        if (location != -1 && updateValues(slot, 1, Float.intBitsToFloat(value), 0, 0)) {
             GLES20.glUniform1i(location, value);
         }
     }
 
+    public void setUniformFloatArray(int slot, float[] array) {
+        int location = slot != -1 ? locations[slot] : -1;
+        if (location == -1) return;
+
+        float[] current = values[slot];
+        if (current != null && Arrays.equals(current, array)) return;
+        if (current == null || current.length != array.length) current = values[slot] = new float[array.length];
+        System.arraycopy(array, 0, current, 0, array.length);
+        GLES20.glUniform1fv(location, array.length, array, 0);
+    }
+
+    public void setUniformVec2(String uniformName, float x, float y) {
+        setUniformVec2(getUniformSlot(uniformName), x, y);
+    }
+
+    public void setUniformInt(String uniformName, int value) {
+        setUniformInt(getUniformSlot(uniformName), value);
+    }
+
     public void setUniformFloat(String name, float value) {
-        int location = getUniformLocation(name);
-        if (location >= 0) {
-            GLES20.glUniform1f(location, value);
+        int slot = getUniformSlot(name);
+        if (slot != -1 && locations[slot] != -1) {
+            setUniformFloat(slot, value);
         } else {
             Log.e("ScreenMaterial", "Uniform location for " + name + " not found!");
         }
@@ -117,26 +216,20 @@ public class ShaderMaterial {
 
 
     public void setUniformFloatArray(String uniformName, float[] values) {
-        int location = getUniformLocation(uniformName);
-        if (location != -1) {
-            GLES20.glUniform1fv(location, values.length, values, 0);
-        }
+        setUniformFloatArray(getUniformSlot(uniformName), values);
     }
 
     public void setUniformColor(String uniformName, int color) {
-        int location = getUniformLocation(uniformName);
-        if (location != -1) {
-            float red = Color.red(color) / 255.0f;
-            float green = Color.green(color) / 255.0f;
-            float blue = Color.blue(color) / 255.0f;
-            GLES20.glUniform3f(location, red, green, blue);
-        }
+        float red = Color.red(color) / 255.0f;
+        float green = Color.green(color) / 255.0f;
+        float blue = Color.blue(color) / 255.0f;
+        setUniformVec3(getUniformSlot(uniformName), red, green, blue);
     }
 
     public void setUniformVec3(String uniformName, float x, float y, float z) {
-        int location = getUniformLocation(uniformName);
-        if (location != -1) {
-            GLES20.glUniform3f(location, x, y, z);
+        int slot = getUniformSlot(uniformName);
+        if (slot != -1 && locations[slot] != -1) {
+            setUniformVec3(slot, x, y, z);
         } else {
             Log.e("ShaderMaterial", "Uniform location for " + uniformName + " not found!");
         }
@@ -0,0 +1,81 @@
+package com.winlator.renderer.material;
+
+import android.opengl.GLES20;
+
+// Draws a batch of windows with one instanced draw call on GLES3. Every instance carries the
+// rows of its transform and the index of the texture unit holding the content of its window.
+public class WindowBatchMaterial extends ShaderMaterial {
+    public static final int VIEW_SIZE = 0;
+    private final int textureCount;
+
+    public WindowBatchMaterial(int textureCount) {
+        this.textureCount = textureCount;
+        setUniformNames("viewSize", "textures");
+    }
+
+    public int getTextureCount() {
+        return textureCount;
+    }
+
+    @Override
+    public void use() {
+        boolean linked = programId != 0;
+        super.use();
+
+        // The samplers always read from the units of their index
+        if (!linked) {
+            int[] units = new int[textureCount];
+            for (int i = 0; i < textureCount; i++) units[i] = i;
+            GLES20.glUniform1iv(getUniformLocation("textures"), textureCount, units, 0);
+        }
+    }
+
+    @Override
+    protected String getVertexShader() {
+        return
+            "#version 300 es\n" +
+            "uniform vec2 viewSize;\n" +
+            "in vec2 position;\n" +
+            "in vec3 xformX;\n" +
+            "in vec3 xformY;\n" +
+            "in float textureIndex;\n" +
+            "out vec2 vUV;\n" +
+            "flat out int vTextureIndex;\n" +
+
+            "void main() {\n" +
+                "vUV = position;\n" +
+                "vec3 p = vec3(position, 1.0);\n" +
+                "vec2 transformedPos = vec2(dot(xformX, p), dot(xformY, p));\n" +
+                "gl_Position = vec4(2.0 * transformedPos.x / viewSize.x - 1.0, 1.0 - 2.0 * transformedPos.y / viewSize.y, 0.0, 1.0);\n" +
+                "vTextureIndex = int(textureIndex);\n" +
+            "}"
+        ;
+    }
+
+    @Override
+    protected String getFragmentShader() {
+        // Sampler arrays can only be indexed by constants in GLSL ES 3.00
+        StringBuilder sampleTexture = new StringBuilder();
+        for (int i = 0; i < textureCount; i++) {
+            if (i > 0) sampleTexture.append("else ");
+            if (i < textureCount - 1) sampleTexture.append("if (vTextureIndex == ").append(i).append(") ");
+            sampleTexture.append("color = texture(textures[").append(i).append("], vUV).rgb;\n");
+        }
+
+        return
+            "#version 300 es\n" +
+            "precision mediump float;\n" +
+
+            "uniform sampler2D textures[" + textureCount + "];\n" +
+            "in vec2 vUV;\n" +
+            "flat in int vTextureIndex;\n" +
+            "out vec4 fragColor;\n" +
+
+            "void main() {\n" +
+                "vec3 color;\n" +
+                sampleTexture +
+                "fragColor = vec4(color, 1.0);\n" +
+            "}"
+        ;
+    }
+}
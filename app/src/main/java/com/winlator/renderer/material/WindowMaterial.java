@@ -1,6 +1,11 @@
 package com.winlator.renderer.material;
 
 public class WindowMaterial extends ShaderMaterial {
+    // Uniform slots, CursorMaterial declares the same uniforms in the same order
+    public static final int XFORM = 0;
+    public static final int VIEW_SIZE = 1;
+    public static final int TEXTURE = 2;
+
     public WindowMaterial() {
         setUniformNames("xform", "viewSize", "texture");
     }
@@ -0,0 +1,28 @@
+package com.winlator.sysvshm;
+
+import java.nio.ByteBuffer;
+
+// Atomics and futex calls on direct buffers mapped from segments shared with other processes
+public final class SharedMemoryAtomics {
+    static {
+        System.loadLibrary("winlator");
+    }
+
+    private SharedMemoryAtomics() {}
+
+    // Atomic access to 64-bit values in a segment shared with another process, the acquire load
+    // orders the reads that follow it and the release store the writes before it
+    public static native long loadAcquire(ByteBuffer data, int offset);
+
+    public static native void storeRelease(ByteBuffer data, int offset, long value);
+
+    // Orders the writes before it before the writes after it
+    public static native void storeFence();
+
+    // Bumps the 32-bit futex word and wakes its waiters if the waiting flag is set
+    public static native void wakeFutex(ByteBuffer data, int futexOffset, int waitingOffset);
+
+    // Waits until the 32-bit futex word differs from the value or the timeout expires (a negative
+    // timeout waits forever), the waiting flag is set meanwhile. Returns the current futex word.
+    public static native int waitFutex(ByteBuffer data, int futexOffset, int waitingOffset, int value, int timeoutMs);
+}
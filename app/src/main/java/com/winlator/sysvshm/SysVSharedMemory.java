@@ -10,119 +10,129 @@ import com.winlator.xconnector.XConnectorEpoll;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.Locale;
 
+// Segments of shmget, created as ashmem regions and handed to clients as fds. Attached buffers are
+// indexed by identity, so detaching one does not have to search all segments. Removing a segment only
+// closes the fd of the server: clients usually remove a segment right after attaching it and keep
+// using their mapping, and they do not tell the server when they detach, so a region is never reused.
 public class SysVSharedMemory {
     private final SparseArray<SHMemory> shmemories = new SparseArray<>();
+    private final IdentityHashMap<ByteBuffer, SHMemory> attachedBuffers = new IdentityHashMap<>();
     private int maxSHMemoryId = 0;
+    private int createCount = 0;
+    private long mappedBytes = 0;
 
     static {
         System.loadLibrary("winlator");
     }
 
     private static class SHMemory {
-        private int fd;
+        private int fd = -1;
         private long size;
         private ByteBuffer data;
-
-        // Constructor for SHMemory
-        private SHMemory() {}
-
-        // Synthetic access methods for accessing the private fields
-        static int access$000(SHMemory shMemory) {
-            return shMemory.fd;
-        }
-
-        static int access$002(SHMemory shMemory, int fd) {
-            shMemory.fd = fd;
-            return fd;
-        }
-
-        static long access$200(SHMemory shMemory) {
-            return shMemory.size;
-        }
-
-        static long access$202(SHMemory shMemory, long size) {
-            shMemory.size = size;
-            return size;
-        }
-
-        static ByteBuffer access$300(SHMemory shMemory) {
-            return shMemory.data;
-        }
-
-        static ByteBuffer access$302(SHMemory shMemory, ByteBuffer data) {
-            shMemory.data = data;
-            return data;
-        }
+        private int attachCount = 0;
     }
 
     public int getFd(int shmid) {
         synchronized (shmemories) {
             SHMemory shmemory = shmemories.get(shmid);
-            return shmemory != null ? SHMemory.access$000(shmemory) : -1;
+            return shmemory != null ? shmemory.fd : -1;
         }
     }
 
     public int get(long size) {
         synchronized (shmemories) {
-            int index = shmemories.size();
-            int fd = ashmemCreateRegion(index, size);
-            if (fd < 0) fd = createSharedMemory("sysvshm-"+index, (int)size);
+            int fd = ashmemCreateRegion(createCount, size);
+            if (fd < 0) fd = createSharedMemory("sysvshm-" + createCount, (int)size);
             if (fd < 0) return -1;
 
             SHMemory shmemory = new SHMemory();
+            shmemory.fd = fd;
+            shmemory.size = size;
+            createCount++;
+
             int id = ++maxSHMemoryId;
-            SHMemory.access$002(shmemory, fd);
-            SHMemory.access$202(shmemory, size);
             shmemories.put(id, shmemory);
             return id;
         }
     }
 
+    // Closes the fd of the server, buffers that are still attached stay mapped until they are detached
     public void delete(int shmid) {
-        SHMemory shmemory = shmemories.get(shmid);
-        if (shmemory != null) {
-            if (SHMemory.access$000(shmemory) != -1) {
-                XConnectorEpoll.closeFd(SHMemory.access$000(shmemory));
-                SHMemory.access$002(shmemory, -1);
-            }
+        synchronized (shmemories) {
+            SHMemory shmemory = shmemories.get(shmid);
+            if (shmemory == null) return;
+
             shmemories.remove(shmid);
+            closeFd(shmemory);
         }
     }
 
     public void deleteAll() {
         synchronized (shmemories) {
-            for (int i = shmemories.size() - 1; i >= 0; i--) delete(shmemories.keyAt(i));
+            if (createCount > 0) Log.d("SysVSharedMemory", getStats());
+
+            for (int i = 0; i < shmemories.size(); i++) closeFd(shmemories.valueAt(i));
+            shmemories.clear();
         }
     }
 
     public ByteBuffer attach(int shmid) {
         synchronized (shmemories) {
             SHMemory shmemory = shmemories.get(shmid);
-            if (shmemory != null) {
-                if (SHMemory.access$300(shmemory) == null) {
-                    SHMemory.access$302(shmemory, mapSHMSegment(SHMemory.access$000(shmemory),
-                            SHMemory.access$200(shmemory), 0, true));
-            }
-                return SHMemory.access$300(shmemory);
-            } else {
-                return null;
+            if (shmemory == null) return null;
+
+            if (shmemory.data == null) {
+                shmemory.data = mapSHMSegment(shmemory.fd, shmemory.size, 0, true);
+                if (shmemory.data == null) return null;
+                mappedBytes += shmemory.size;
+                attachedBuffers.put(shmemory.data, shmemory);
             }
+
+            shmemory.attachCount++;
+            return shmemory.data;
         }
     }
 
+    // Unmaps the buffer once every attach of it was detached
     public void detach(ByteBuffer data) {
         synchronized (shmemories) {
-            for (int i = 0; i < shmemories.size(); i++) {
-                SHMemory shmemory = shmemories.valueAt(i);
-                if (SHMemory.access$300(shmemory) == data) {
-                    if (SHMemory.access$300(shmemory) != null) {
-                        unmapSHMSegment(SHMemory.access$300(shmemory), SHMemory.access$200(shmemory));
-                        SHMemory.access$302(shmemory, null);
-                    }
-                    break;
-                }
-            }
+            SHMemory shmemory = attachedBuffers.get(data);
+            if (shmemory == null || --shmemory.attachCount > 0) return;
+
+            attachedBuffers.remove(data);
+            unmapSHMSegment(shmemory.data, shmemory.size);
+            mappedBytes -= shmemory.size;
+            shmemory.data = null;
+        }
+    }
+
+    private static void closeFd(SHMemory shmemory) {
+        if (shmemory.fd != -1) {
+            XConnectorEpoll.closeFd(shmemory.fd);
+            shmemory.fd = -1;
+        }
+    }
+
+    public int getCreateCount() {
+        synchronized (shmemories) {
+            return createCount;
+        }
+    }
+
+    // Size of the buffers the server has attached
+    public long getMappedBytes() {
+        synchronized (shmemories) {
+            return mappedBytes;
+        }
+    }
+
+    public String getStats() {
+        synchronized (shmemories) {
+            return String.format(Locale.ENGLISH, "%d segments created, %d in use, %d attached (%dKB)",
+                createCount, shmemories.size(), attachedBuffers.size(), mappedBytes / 1024);
         }
     }
 
@@ -19,6 +19,7 @@ import android.os.Handler;
 import android.os.VibrationEffect;
 import android.os.Vibrator;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
 import android.view.PointerIcon;
@@ -32,6 +33,7 @@ import app.gamenative.R;
 import com.winlator.inputcontrols.Binding;
 import com.winlator.inputcontrols.ControlElement;
 import com.winlator.inputcontrols.ControlsProfile;
+import com.winlator.inputcontrols.ElementGrid;
 import com.winlator.inputcontrols.ExternalController;
 import com.winlator.inputcontrols.ExternalControllerBinding;
 import com.winlator.inputcontrols.GamepadState;
@@ -43,15 +45,26 @@ import com.winlator.xserver.XServer;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Timer;
 import java.util.TimerTask;
 
 public class InputControlsView extends View {
     public static final float DEFAULT_OVERLAY_OPACITY = 0.4f;
     private static final byte MOUSE_WHEEL_DELTA = 120;
+    private static final byte ELEMENT_GRID_CELL_SNAPS = 8;
     private boolean editMode = false;
     private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
     private final Paint outlinePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint cachePaint = new Paint();
+    private final ArrayList<ControlElement> liveElements = new ArrayList<>();
+    private final Rect liveBounds = new Rect();
+    private volatile int elementCacheGeneration = 0;
+    private final ElementGrid<ControlElement> elementGrid = new ElementGrid<>();
+    private volatile boolean elementGridNeedsUpdate = true;
+    private ControlsProfile elementGridProfile;
+    private int elementGridLayoutVersion;
+    private final SparseArray<ArrayList<ControlElement>> capturedElements = new SparseArray<>();
     private final Path path = new Path();
     private final ColorFilter colorFilter = new PorterDuffColorFilter(0xffffffff, PorterDuff.Mode.SRC_IN);
     private final Point cursor = new Point();
@@ -92,6 +105,8 @@ public class InputControlsView extends View {
     public void setJoysticksVisible(boolean visible) {
         this.showJoysticks = visible;
         app.gamenative.PrefManager.setShowJoysticks(visible);
+        elementCacheGeneration++;
+        elementGridNeedsUpdate = true;
         invalidate();
     }
 
@@ -108,7 +123,7 @@ public class InputControlsView extends View {
         app.gamenative.PluviaApp.events.onJava(kotlin.jvm.JvmClassMappingKt.getKotlinClass(app.gamenative.events.AndroidEvent.TouchTransparencyChanged.class), new app.gamenative.events.EventDispatcher.JavaEventListener() {
             @Override
             public void onEvent(Object event) {
-                overlayOpacity = ((app.gamenative.events.AndroidEvent.TouchTransparencyChanged)event).getAlpha();
+                setOverlayOpacity(((app.gamenative.events.AndroidEvent.TouchTransparencyChanged)event).getAlpha());
                 postInvalidate();
             }
         });
@@ -178,9 +193,15 @@ public class InputControlsView extends View {
     }
 
     public void setOverlayOpacity(float overlayOpacity) {
+        if (overlayOpacity != this.overlayOpacity) elementCacheGeneration++;
         this.overlayOpacity = overlayOpacity;
     }
 
+    // Bumped whenever the look of all elements changes, so their cached bitmaps are rendered again
+    public int getElementCacheGeneration() {
+        return elementCacheGeneration;
+    }
+
     public int getSnappingSize() {
         return snappingSize;
     }
@@ -205,6 +226,10 @@ public class InputControlsView extends View {
             return;
         }
 
+        if (width / 100 != snappingSize) {
+            elementCacheGeneration++;
+            elementGridNeedsUpdate = true;
+        }
         snappingSize = width / 100;
         readyToDraw = true;
 
@@ -213,18 +238,35 @@ public class InputControlsView extends View {
             drawCursor(canvas);
         }
 
+        int alpha = (int)(overlayOpacity * 255);
+        cachePaint.setAlpha(alpha);
+        liveBounds.setEmpty();
+
         if (stickElement != null) {
-            // Draw only the stick element if focus mode is active
-            stickElement.draw(canvas);
+            // The stick of the focus mode is moved without being touched, so it is always drawn live
+            liveElements.add(stickElement);
+            liveBounds.union(stickElement.getDrawBounds());
         }
 
         if (profile != null && showTouchscreenControls && !isFocusedOnStick()) {
             if (!profile.isElementsLoaded()) profile.loadElements(this);
             for (ControlElement element : profile.getElements()) {
-                element.draw(canvas);
+                if (element.isLive()) {
+                    liveElements.add(element);
+                    liveBounds.union(element.getDrawBounds());
+                }
+                else element.drawCached(canvas, cachePaint);
             }
         }
 
+        // All live elements share one layer covering just them, so the opacity is applied once
+        if (!liveElements.isEmpty()) {
+            int saveCount = canvas.saveLayerAlpha(liveBounds.left, liveBounds.top, liveBounds.right, liveBounds.bottom, alpha);
+            for (ControlElement element : liveElements) element.draw(canvas);
+            canvas.restoreToCount(saveCount);
+            liveElements.clear();
+        }
+
         super.onDraw(canvas);
     }
 
@@ -355,6 +397,10 @@ public class InputControlsView extends View {
     }
 
     public synchronized void setProfile(ControlsProfile profile) {
+        if (this.profile != null && this.profile != profile) {
+            for (ControlElement element : this.profile.getElements()) element.releaseCache();
+        }
+
         if (profile != null) {
             this.profile = profile;
             deselectAllElements();
@@ -380,13 +426,54 @@ public class InputControlsView extends View {
 
     private synchronized ControlElement intersectElement(float x, float y) {
         if (profile != null) {
-            for (ControlElement element : profile.getElements()) {
+            updateElementGrid();
+            for (ControlElement element : elementGrid.query(x, y)) {
                 if (element.containsPoint(x, y)) return element;
             }
         }
         return null;
     }
 
+    // Called when an element moved or changed its size, the grid is rebuilt on the next touch
+    public void invalidateElementGrid() {
+        elementGridNeedsUpdate = true;
+    }
+
+    private synchronized void updateElementGrid() {
+        int layoutVersion = profile.getLayoutVersion();
+        if (!elementGridNeedsUpdate && elementGridProfile == profile && elementGridLayoutVersion == layoutVersion) return;
+        elementGridNeedsUpdate = false;
+        elementGridProfile = profile;
+        elementGridLayoutVersion = layoutVersion;
+
+        elementGrid.reset(getWidth(), getHeight(), Math.max(snappingSize * ELEMENT_GRID_CELL_SNAPS, 32));
+        for (ControlElement element : profile.getElements()) {
+            Rect hitBounds = element.getHitBounds();
+            elementGrid.add(element, hitBounds.left, hitBounds.top, hitBounds.right, hitBounds.bottom);
+        }
+    }
+
+    // Elements that accepted the touch down of a pointer, they get its moves and its release
+    private ArrayList<ControlElement> getCapturedElements(int pointerId) {
+        ArrayList<ControlElement> elements = capturedElements.get(pointerId);
+        if (elements == null) {
+            elements = new ArrayList<>();
+            capturedElements.put(pointerId, elements);
+        }
+        return elements;
+    }
+
+    // Releases the elements the pointer pressed, returns true if one of them handled it
+    private boolean releaseCapturedElements(int pointerId) {
+        ArrayList<ControlElement> elements = capturedElements.get(pointerId);
+        if (elements == null) return false;
+
+        boolean handled = false;
+        for (int i = 0; i < elements.size(); i++) if (elements.get(i).handleTouchUp(pointerId)) handled = true;
+        elements.clear();
+        return handled;
+    }
+
     public Paint getPaint() {
         return paint;
     }
@@ -638,9 +725,12 @@ public class InputControlsView extends View {
                     float y = event.getY(actionIndex);
 
                     touchpadView.setPointerButtonLeftEnabled(true);
-                    for (ControlElement element : profile.getElements()) {
+                    updateElementGrid();
+                    ArrayList<ControlElement> captured = getCapturedElements(pointerId);
+                    for (ControlElement element : elementGrid.query(x, y)) {
                         if (element.handleTouchDown(pointerId, x, y)) {
                             handled = true;
+                            captured.add(element);
 
                             // Trigger haptic feedback for input controls
                             if (hapticsEnabled) {
@@ -656,8 +746,11 @@ public class InputControlsView extends View {
 
                             }
                         }
+                    }
+                    for (ControlElement element : profile.getElements()) {
                         if (element.getBindingAt(0) == Binding.MOUSE_LEFT_BUTTON) {
                             touchpadView.setPointerButtonLeftEnabled(false);
+                            break;
                         }
                     }
                     if (!handled) touchpadView.onTouchEvent(event);
@@ -667,21 +760,33 @@ public class InputControlsView extends View {
                     for (byte i = 0, count = (byte)event.getPointerCount(); i < count; i++) {
                         float x = event.getX(i);
                         float y = event.getY(i);
+                        int movePointerId = event.getPointerId(i);
 
                         handled = false;
-                        for (ControlElement element : profile.getElements()) {
-                            if (element.handleTouchMove(i, x, y)) handled = true;
+                        ArrayList<ControlElement> captured = capturedElements.get(movePointerId);
+                        if (captured != null) {
+                            for (int j = 0; j < captured.size(); j++) {
+                                if (captured.get(j).handleTouchMove(movePointerId, x, y)) handled = true;
+                            }
                         }
                         if (!handled) touchpadView.onTouchEvent(event);
                     }
                     break;
                 }
                 case MotionEvent.ACTION_UP:
-                case MotionEvent.ACTION_POINTER_UP:
-                case MotionEvent.ACTION_CANCEL:
-                    for (ControlElement element : profile.getElements()) if (element.handleTouchUp(pointerId)) handled = true;
+                case MotionEvent.ACTION_POINTER_UP: {
+                    handled = releaseCapturedElements(pointerId);
                     if (!handled) touchpadView.onTouchEvent(event);
                     break;
+                }
+                case MotionEvent.ACTION_CANCEL: {
+                    // A cancel ends every pointer of the gesture, not only the one at the action index
+                    for (int i = 0; i < capturedElements.size(); i++) {
+                        if (releaseCapturedElements(capturedElements.keyAt(i))) handled = true;
+                    }
+                    if (!handled) touchpadView.onTouchEvent(event);
+                    break;
+                }
             }
         }
         return true;
@@ -25,7 +25,10 @@ import androidx.annotation.Nullable;
 
 import app.gamenative.R;
 
+import com.winlator.alsaserver.AudioMetrics;
+import com.winlator.renderer.GLProfiler;
 import com.winlator.renderer.GLRenderer;
+import com.winlator.renderer.InputLatencyTracer;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -41,6 +44,10 @@ public class PerformanceHUD extends FrameLayout {
 
     private final TextView tvFPS, tvGPU, tvCPU, tvRAM, tvPower, tvBattery;
     private final TextView tvCPUTemp, tvGPUTemp, tvBatteryTemp;
+    private final TextView tvUploadTime;
+    private final TextView tvGPUPasses;
+    private final TextView tvAudio;
+    private final TextView tvInputLatency;
     private final LinearLayout container;
     private float currentFPS = 0;
     private final Handler handler = new Handler(Looper.getMainLooper());
@@ -68,6 +75,7 @@ public class PerformanceHUD extends FrameLayout {
             if (lastFPSUpdateTimeMs == 0) {
                 lastFPSUpdateTimeMs = now;
                 GLRenderer.getAndResetFrameCount(); // discard initial count
+                GLRenderer.getAndResetUploadTimeNs();
                 handler.postDelayed(this, 500);
                 return;
             }
@@ -75,6 +83,7 @@ public class PerformanceHUD extends FrameLayout {
             long elapsed = now - lastFPSUpdateTimeMs;
             if (elapsed >= 400) { // update roughly every 500ms
                 int frames = GLRenderer.getAndResetFrameCount();
+                long uploadTimeNs = GLRenderer.getAndResetUploadTimeNs();
 
                 // Try DXVK log first for true Vulkan/game FPS
                 float guestFPS = readGuestFPS();
@@ -86,11 +95,55 @@ public class PerformanceHUD extends FrameLayout {
                 }
                 lastFPSUpdateTimeMs = now;
                 tvFPS.setText(String.format(Locale.ENGLISH, "FPS: %.1f", currentFPS));
+                float uploadTimeMs = frames > 0 ? uploadTimeNs / 1000000f / frames : 0;
+                tvUploadTime.setText(String.format(Locale.ENGLISH, "(UP %.2fms)", uploadTimeMs));
+                updateGPUPasses();
             }
             handler.postDelayed(this, 500);
         }
     };
 
+    // Shows the average GPU time of every compositor pass while GL profiling is enabled
+    private void updateGPUPasses() {
+        GLProfiler.Report report = GLProfiler.getLatestReport();
+        if (report == null || report.getSectionCount() == 0) {
+            tvGPUPasses.setVisibility(GONE);
+            return;
+        }
+
+        StringBuilder sb = new StringBuilder("(GPU");
+        for (int i = 0; i < report.getSectionCount(); i++) {
+            sb.append(String.format(Locale.ENGLISH, " %s %.2f", report.getName(i), report.getAverageTimeMs(i)));
+        }
+        tvGPUPasses.setText(sb.append("ms)").toString());
+        tvGPUPasses.setVisibility(VISIBLE);
+    }
+
+    // Shows the worst latency of all audio streams, the underruns so far and the jitter of the guest
+    // writes while the ALSA server is playing something
+    private void updateAudio() {
+        AudioMetrics.Report report = AudioMetrics.getLatestReport();
+        if (report == null) {
+            tvAudio.setVisibility(GONE);
+            return;
+        }
+
+        tvAudio.setText(String.format(Locale.ENGLISH, "(AUD %.0fms X%d J%.1fms)", report.getMaxLatencyMs(), report.getTotalUnderrunCount(), report.getMaxWriteJitterMs()));
+        tvAudio.setVisibility(VISIBLE);
+    }
+
+    // Shows the input to swap latency percentiles while input latency tracing is enabled
+    private void updateInputLatency() {
+        InputLatencyTracer.Report report = InputLatencyTracer.getLatestReport();
+        if (report == null) {
+            tvInputLatency.setVisibility(GONE);
+            return;
+        }
+
+        tvInputLatency.setText(String.format(Locale.ENGLISH, "(LAT %.0f/%.0f/%.0fms)", report.p50LatencyMs, report.p95LatencyMs, report.p99LatencyMs));
+        tvInputLatency.setVisibility(VISIBLE);
+    }
+
     private float readGuestFPS() {
         // Try to read DXVK HUD FPS if it's being redirected to a file
         File logDir = new File(getContext().getFilesDir(), "imagefs/tmp/dxvk_fps");
@@ -161,7 +214,18 @@ public class PerformanceHUD extends FrameLayout {
         tvCPUTemp = createTempTextView(context);
         tvGPUTemp = createTempTextView(context);
         tvBatteryTemp = createTempTextView(context);
-
+        tvUploadTime = createTempTextView(context);
+        tvGPUPasses = createTempTextView(context);
+        tvGPUPasses.setVisibility(GONE);
+        tvAudio = createTempTextView(context);
+        tvAudio.setVisibility(GONE);
+        tvInputLatency = createTempTextView(context);
+        tvInputLatency.setVisibility(GONE);
+
+        insertAfter(tvFPS, tvUploadTime);
+        insertAfter(tvUploadTime, tvGPUPasses);
+        insertAfter(tvGPUPasses, tvAudio);
+        insertAfter(tvAudio, tvInputLatency);
         insertAfter(tvCPU, tvCPUTemp);
         insertAfter(tvGPU, tvGPUTemp);
         insertAfter(tvBattery, tvBatteryTemp);
@@ -331,6 +395,8 @@ public class PerformanceHUD extends FrameLayout {
         tvCPUTemp.setText(String.format(Locale.ENGLISH, "(%d°C)", getCpuTemp()));
         tvGPU.setText(String.format(Locale.ENGLISH, "GPU: %d%%", getGpuUsage()));
         tvGPUTemp.setText(String.format(Locale.ENGLISH, "(%d°C)", getGpuTemp()));
+        updateAudio();
+        updateInputLatency();
     }
 
     private int getCpuTemp() {
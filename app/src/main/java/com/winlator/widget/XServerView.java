@@ -54,6 +54,30 @@ public class XServerView extends GLSurfaceView {
         return renderer;
     }
 
+    @Override
+    public void requestRender() {
+        if (renderer != null) renderer.invalidateScene();
+        super.requestRender();
+    }
+
+    // Redraws only the cursor layer over the last composited scene
+    public void requestCursorRender() {
+        super.requestRender();
+    }
+
+    @Override
+    public void onPause() {
+        // The context may be lost while paused, the X side must not write into its mapped buffers
+        renderer.getPixelBufferUploader().stopStaging();
+        super.onPause();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        renderer.getPixelBufferUploader().stopStaging();
+        super.onDetachedFromWindow();
+    }
+
     // public void addPointerEventListener(Callback<MotionEvent> listener) {
     //     mouseEventCallbacks.add(listener);
     // }
@@ -0,0 +1,82 @@
+package com.winlator.winhandler;
+
+import com.winlator.sysvshm.SharedMemoryAtomics;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+// Writes the state of one gamepad into its shared memory block, which the guest reads without any
+// lock. The block starts with the axes (LX, LY, RX, RY, LT, RT as 16-bit values), the 15 SDL buttons
+// and the hat. The guest writes the rumble motors at offsets 32 and 34. Offset 40 holds a seqlock
+// version word: it is odd while a write is in progress and bumped to the next even value when the
+// write is done, so the guest retries a read whose version changed or was odd instead of seeing a
+// half written state. The state is composed in a local array first and only written when it changed.
+// The block of P1 also holds the rumble doorbell at offset 48: a guest that writes the motors of any
+// slot bumps it and wakes the futex if the host flag at offset 52 is set. A guest that supports it
+// rings it once when it maps the block, so the host knows it does not have to poll the motors.
+public class GamepadStateWriter {
+    public static final int BUTTON_COUNT = 15;
+    public static final int BUTTONS_OFFSET = 12;
+    public static final int STATE_SIZE = 28;
+    public static final int RUMBLE_LOW_OFFSET = 32;
+    public static final int RUMBLE_HIGH_OFFSET = 34;
+    public static final int SEQUENCE_OFFSET = 40;
+    public static final int RUMBLE_DOORBELL_OFFSET = 48;
+    public static final int RUMBLE_WAITING_OFFSET = 52;
+    private final ByteBuffer buffer;
+    private final byte[] state = new byte[STATE_SIZE];
+    private final byte[] writtenState = new byte[STATE_SIZE];
+    private final ByteBuffer stateBuffer = ByteBuffer.wrap(state).order(ByteOrder.LITTLE_ENDIAN);
+    private long sequence;
+    private boolean written = false;
+    private int writeCount = 0;
+
+    public GamepadStateWriter(ByteBuffer buffer) {
+        this.buffer = buffer;
+        // A version left odd by a writer that died is rounded up, so readers do not wait on it
+        sequence = (buffer.getLong(SEQUENCE_OFFSET) + 1) & ~1L;
+    }
+
+    // Returns true if the state was written, an unchanged state is only written when forced
+    public synchronized boolean write(short lx, short ly, short rx, short ry, short lt, short rt, byte[] buttons, boolean force) {
+        stateBuffer.putShort(0, lx);
+        stateBuffer.putShort(2, ly);
+        stateBuffer.putShort(4, rx);
+        stateBuffer.putShort(6, ry);
+        stateBuffer.putShort(8, lt);
+        stateBuffer.putShort(10, rt);
+        System.arraycopy(buttons, 0, state, BUTTONS_OFFSET, BUTTON_COUNT);
+        state[STATE_SIZE - 1] = 0; // HAT ignored
+
+        if (written && !force && Arrays.equals(state, writtenState)) return false;
+
+        storeSequence(++sequence);
+        storeFence();
+        for (int i = 0; i < STATE_SIZE; i++) buffer.put(i, state[i]);
+        storeSequence(++sequence);
+
+        System.arraycopy(state, 0, writtenState, 0, STATE_SIZE);
+        written = true;
+        writeCount++;
+        return true;
+    }
+
+    public synchronized long getSequence() {
+        return sequence;
+    }
+
+    public synchronized int getWriteCount() {
+        return writeCount;
+    }
+
+    // The release store orders the state written before it, the fence orders the odd version
+    // before the state written after it
+    protected void storeSequence(long value) {
+        SharedMemoryAtomics.storeRelease(buffer, SEQUENCE_OFFSET, value);
+    }
+
+    protected void storeFence() {
+        SharedMemoryAtomics.storeFence();
+    }
+}
@@ -0,0 +1,72 @@
+package com.winlator.winhandler;
+
+// Decides when the motor values a guest asks for are passed on to the vibrator of a slot. Values
+// equal to the ones already applied are dropped, and a game that updates its rumble every frame gets
+// at most one vibrator call per interval, with the latest value applied when the interval is over.
+// Stopping the motors is never delayed.
+public class RumbleCoalescer {
+    private final long intervalMs;
+    private int appliedLow = 0;
+    private int appliedHigh = 0;
+    private int pendingLow = 0;
+    private int pendingHigh = 0;
+    private boolean pending = false;
+    private long lastApplyTimeMs = 0;
+    private boolean applied = false;
+
+    public RumbleCoalescer(long intervalMs) {
+        this.intervalMs = intervalMs;
+    }
+
+    // Returns true if the motors should be set to getLow()/getHigh() now
+    public boolean offer(int low, int high, long timeMs) {
+        if (low == appliedLow && high == appliedHigh) {
+            pending = false;
+            return false;
+        }
+
+        if ((low == 0 && high == 0) || !applied || timeMs - lastApplyTimeMs >= intervalMs) {
+            apply(low, high, timeMs);
+            return true;
+        }
+
+        pendingLow = low;
+        pendingHigh = high;
+        pending = true;
+        return false;
+    }
+
+    // Returns true if a delayed value is due, it is then what getLow()/getHigh() return
+    public boolean poll(long timeMs) {
+        if (!pending || timeMs - lastApplyTimeMs < intervalMs) return false;
+        apply(pendingLow, pendingHigh, timeMs);
+        return true;
+    }
+
+    // Time until a delayed value is due, -1 if there is none
+    public long getDelayMs(long timeMs) {
+        return pending ? Math.max(0, lastApplyTimeMs + intervalMs - timeMs) : -1;
+    }
+
+    public int getLow() {
+        return appliedLow;
+    }
+
+    public int getHigh() {
+        return appliedHigh;
+    }
+
+    public void reset() {
+        appliedLow = appliedHigh = 0;
+        pending = false;
+        applied = false;
+    }
+
+    private void apply(int low, int high, long timeMs) {
+        appliedLow = low;
+        appliedHigh = high;
+        lastApplyTimeMs = timeMs;
+        pending = false;
+        applied = true;
+    }
+}
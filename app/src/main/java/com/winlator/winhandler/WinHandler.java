@@ -4,8 +4,12 @@ import static com.winlator.inputcontrols.ExternalController.TRIGGER_IS_AXIS;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.CombinedVibration;
+import android.os.SystemClock;
 import android.os.VibrationEffect;
 import android.os.Vibrator;
+import android.os.VibratorManager;
 import android.util.Log;
 import android.view.InputDevice;
 import android.view.KeyEvent;
@@ -21,6 +25,8 @@ import com.winlator.inputcontrols.ControlsProfile;
 import com.winlator.inputcontrols.ExternalController;
 import com.winlator.inputcontrols.GamepadState;
 import com.winlator.math.Mathf;
+import com.winlator.renderer.InputLatencyTracer;
+import com.winlator.sysvshm.SharedMemoryAtomics;
 import com.winlator.xserver.XServer;
 
 import java.io.File;
@@ -91,6 +97,8 @@ public class WinHandler {
     private final MappedByteBuffer[] extraGamepadBuffers = new MappedByteBuffer[MAX_PLAYERS - 1]; // P2..P4
     private final ExternalController[] extraControllers   = new ExternalController[MAX_PLAYERS - 1];
     private MappedByteBuffer gamepadBuffer; // P1
+    private final GamepadStateWriter[] gamepadWriters = new GamepadStateWriter[MAX_PLAYERS];
+    private final byte[][] sdlButtons = new byte[MAX_PLAYERS][GamepadStateWriter.BUTTON_COUNT];
 
     private final android.util.SparseArray<ExternalController> controllerCache = new android.util.SparseArray<>();
     private final GamepadState[] mergedStates = new GamepadState[MAX_PLAYERS];
@@ -141,13 +149,19 @@ public class WinHandler {
     private boolean lastVirtualActivatorPressed = false;
 
     // --- Rumble cache per-slot ----------------------------------------------
-    private final short[] lastLow  = new short[MAX_PLAYERS];
-    private final short[] lastHigh = new short[MAX_PLAYERS];
+    private final RumbleCoalescer[] rumbleCoalescers = new RumbleCoalescer[MAX_PLAYERS];
+    private static final int RUMBLE_COALESCE_MS = 32;
+    private static final int RUMBLE_POLL_MS = 16;       // until the guest rings the doorbell
+    private static final int RUMBLE_IDLE_WAIT_MS = 1000;
+    private static final int RUMBLE_SEGMENT_MS = 1000;  // repeated until the motors stop
     private Thread rumblePollerThread;
     private java.util.concurrent.ScheduledExecutorService inputPollerExecutor;
+    // State is written to SHM when it changes, the keepalive only rewrites it now and then and
+    // picks up controllers that were reassigned
+    private static final int KEEPALIVE_INTERVAL_MS = 250;
 
     // --- Turbo (autofire) ----------------------------------------------------
-    private static final int BUTTON_COUNT = 15; // length of sdlButtons
+    private static final int BUTTON_COUNT = GamepadStateWriter.BUTTON_COUNT; // length of sdlButtons
     private static final int MAX_SLOTS = MAX_PLAYERS; // 4
     private final boolean[][] turboEnabled = new boolean[MAX_SLOTS][BUTTON_COUNT];
     private final boolean[] includeTriggers = new boolean[MAX_SLOTS];
@@ -183,7 +197,10 @@ public class WinHandler {
         this.context = xServerView.getContext();
         this.controllerManager = ControllerManager.getInstance();
         this.preferences = PreferenceManager.getDefaultSharedPreferences(context);
-        for (int i = 0; i < MAX_PLAYERS; i++) mergedStates[i] = new GamepadState();
+        for (int i = 0; i < MAX_PLAYERS; i++) {
+            mergedStates[i] = new GamepadState();
+            rumbleCoalescers[i] = new RumbleCoalescer(RUMBLE_COALESCE_MS);
+        }
     }
 
     public void setInputControlsView(com.winlator.widget.InputControlsView view) {
@@ -209,6 +226,8 @@ public class WinHandler {
                 raf.setLength(64);
                 gamepadBuffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 64);
                 gamepadBuffer.order(ByteOrder.LITTLE_ENDIAN);
+                gamepadWriters[0] = new GamepadStateWriter(gamepadBuffer);
+                gamepadBuffer.putInt(GamepadStateWriter.RUMBLE_DOORBELL_OFFSET, 0);
                 Log.i(TAG, "Mapped SHM for Player 1");
             }
 
@@ -220,6 +239,7 @@ public class WinHandler {
                     raf.setLength(64);
                     extraGamepadBuffers[i] = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 64);
                     extraGamepadBuffers[i].order(ByteOrder.LITTLE_ENDIAN);
+                    gamepadWriters[i + 1] = new GamepadStateWriter(extraGamepadBuffers[i]);
                     Log.i(TAG, "Mapped SHM for Player " + (i + 2));
                 }
             }
@@ -230,9 +250,9 @@ public class WinHandler {
         running = true;
         startSendThread();
 
-        // Start input polling loop (120Hz)
+        // Start SHM keepalive (4Hz), input events write the state themselves
         inputPollerExecutor = Executors.newSingleThreadScheduledExecutor();
-        inputPollerExecutor.scheduleAtFixedRate(this::pokeSharedMemory, 0, 1000 / 120, TimeUnit.MILLISECONDS);
+        inputPollerExecutor.scheduleAtFixedRate(() -> pokeSharedMemory(true), 0, KEEPALIVE_INTERVAL_MS, TimeUnit.MILLISECONDS);
 
         Executors.newSingleThreadExecutor().execute(() -> {
             try {
@@ -263,6 +283,10 @@ public class WinHandler {
     public void stop() {
         running = false;
 
+        if (gamepadBuffer != null && rumblePollerThread != null) {
+            SharedMemoryAtomics.wakeFutex(gamepadBuffer, GamepadStateWriter.RUMBLE_DOORBELL_OFFSET, GamepadStateWriter.RUMBLE_WAITING_OFFSET);
+        }
+
         if (inputPollerExecutor != null) {
             inputPollerExecutor.shutdown();
             inputPollerExecutor = null;
@@ -379,16 +403,21 @@ public class WinHandler {
 
     /** Force current values into SHM immediately. Safe to call anytime. */
     public void pokeSharedMemory() {
+        pokeSharedMemory(false);
+    }
+
+    /** With force set, slots are rewritten even if their state did not change (keepalive). */
+    private void pokeSharedMemory(boolean force) {
         if (gamepadBuffer == null) return;
 
         verifyAssignedControllers();
         updateMergedState(0);
-        writeStateToMappedBuffer(mergedStates[0], gamepadBuffer, true, 0);
+        writeStateToMappedBuffer(mergedStates[0], gamepadBuffer, true, 0, force);
 
         for (int i = 0; i < extraGamepadBuffers.length; i++) {
             if (extraGamepadBuffers[i] != null) {
                 updateMergedState(i + 1);
-                writeStateToMappedBuffer(mergedStates[i + 1], extraGamepadBuffers[i], false, i + 1);
+                writeStateToMappedBuffer(mergedStates[i + 1], extraGamepadBuffers[i], false, i + 1, force);
             }
         }
     }
@@ -827,17 +856,20 @@ public class WinHandler {
     private void startRumblePoller() {
         rumblePollerThread = new Thread(() -> {
             long lastTick = 0;
+            int doorbell = 0;
+            boolean doorbellRung = false;
             while (running) {
+                long now = SystemClock.uptimeMillis();
+
                 // Rumble
-                pollSlotRumble(0, gamepadBuffer, currentController);
+                long rumbleDelayMs = pollSlotRumble(0, gamepadBuffer, currentController, now);
                 for (int i = 0; i < extraGamepadBuffers.length; i++) {
-                    pollSlotRumble(i + 1, extraGamepadBuffers[i], extraControllers[i]);
+                    long delayMs = pollSlotRumble(i + 1, extraGamepadBuffers[i], extraControllers[i], now);
+                    if (delayMs >= 0 && (rumbleDelayMs < 0 || delayMs < rumbleDelayMs)) rumbleDelayMs = delayMs;
                 }
 
                 // Turbo tick
                 if (anyTurboEnabled) {
-                    // run at ~120 Hz check
-                    long now = android.os.SystemClock.uptimeMillis();
                     if (now - lastTick >= TURBO_TICK_MS) {
                         lastTick = now;
                         if (maybeFlipTurboPhase()) {
@@ -847,42 +879,89 @@ public class WinHandler {
                     }
                 }
 
-                try { Thread.sleep(5); } catch (InterruptedException ignored) { break; }
+                // Sleep until the guest rings the doorbell, a guest that never did has its motors polled
+                long timeoutMs = doorbellRung ? RUMBLE_IDLE_WAIT_MS : RUMBLE_POLL_MS;
+                if (anyTurboEnabled) timeoutMs = Math.min(timeoutMs, TURBO_TICK_MS);
+                if (rumbleDelayMs >= 0) timeoutMs = Math.max(1, Math.min(timeoutMs, rumbleDelayMs));
+
+                if (gamepadBuffer != null) {
+                    int value = SharedMemoryAtomics.waitFutex(gamepadBuffer, GamepadStateWriter.RUMBLE_DOORBELL_OFFSET, GamepadStateWriter.RUMBLE_WAITING_OFFSET, doorbell, (int) timeoutMs);
+                    if (value != doorbell) {
+                        doorbell = value;
+                        doorbellRung = true;
+                    }
+                } else {
+                    try { Thread.sleep(timeoutMs); } catch (InterruptedException ignored) { break; }
+                }
             }
+
+            // The effects repeat until cancelled
+            stopVibration(0, currentController);
+            for (int i = 0; i < extraControllers.length; i++) stopVibration(i + 1, extraControllers[i]);
+            for (RumbleCoalescer coalescer : rumbleCoalescers) coalescer.reset();
         });
         rumblePollerThread.start();
     }
 
+    /** Returns the time until a coalesced rumble value of the slot is due, -1 if there is none. */
+    private long pollSlotRumble(int slot, MappedByteBuffer buf, ExternalController ctrl, long now) {
+        if (buf == null) return -1;
+        RumbleCoalescer coalescer = rumbleCoalescers[slot];
+        if (!controllerManager.isSlotEnabled(slot) || !controllerManager.isVibrationEnabled(slot)) {
+            if (coalescer.getLow() != 0 || coalescer.getHigh() != 0) {
+                coalescer.reset();
+                stopVibration(slot, ctrl);
+            }
+            return -1;
+        }
 
-    private void pollSlotRumble(int slot, MappedByteBuffer buf, ExternalController ctrl) {
-        if (buf == null) return;
-        if (!controllerManager.isSlotEnabled(slot) || !controllerManager.isVibrationEnabled(slot)) return;
+        int low = buf.getShort(GamepadStateWriter.RUMBLE_LOW_OFFSET) & 0xFFFF;
+        int high = buf.getShort(GamepadStateWriter.RUMBLE_HIGH_OFFSET) & 0xFFFF;
 
-        short low = buf.getShort(32);
-        short high = buf.getShort(34);
+        if (coalescer.offer(low, high, now) || coalescer.poll(now)) {
+            if (coalescer.getLow() == 0 && coalescer.getHigh() == 0) {
+                stopVibration(slot, ctrl);
+            } else {
+                startVibration(slot, ctrl, coalescer.getLow(), coalescer.getHigh());
+            }
+        }
+        return coalescer.getDelayMs(now);
+    }
 
-        if (low == lastLow[slot] && high == lastHigh[slot]) return;
-        lastLow[slot] = low; lastHigh[slot] = high;
+    private static int toVibrationAmplitude(int motor) {
+        return motor > 0 ? Math.min(255, Math.round(motor / 65535f * 254f) + 1) : 0;
+    }
 
-        if (low == 0 && high == 0) {
-            stopVibration(slot, ctrl);
-        } else {
-            startVibration(slot, ctrl, low, high);
-        }
+    /** XInput motors keep running until the game stops them, so the effect repeats until cancelled. */
+    private static VibrationEffect createRumbleEffect(int amplitude) {
+        return VibrationEffect.createWaveform(new long[]{RUMBLE_SEGMENT_MS}, new int[]{amplitude}, 0);
     }
 
-    private void startVibration(int slot, ExternalController ctrl, short low, short high) {
-        int amplitude = Math.max(low & 0xFFFF, high & 0xFFFF);
-        if (amplitude <= 0) { stopVibration(slot, ctrl); return; }
-        int a = Math.min(255, Math.round(amplitude / 65535f * 254f) + 1);
+    private void startVibration(int slot, ExternalController ctrl, int low, int high) {
+        int lowAmplitude = toVibrationAmplitude(low);
+        int highAmplitude = toVibrationAmplitude(high);
+        int a = Math.max(lowAmplitude, highAmplitude);
+        if (a <= 0) { stopVibration(slot, ctrl); return; }
 
-        // Prefer controller's vibrator
+        // Prefer controller's vibrators, a controller with two motors gets one value each
         if (ctrl != null) {
             InputDevice dev = InputDevice.getDevice(ctrl.getDeviceId());
             if (dev != null) {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+                    VibratorManager manager = dev.getVibratorManager();
+                    int[] ids = manager.getVibratorIds();
+                    if (ids.length >= 2) {
+                        manager.vibrate(CombinedVibration.startParallel()
+                            .addVibrator(ids[0], createRumbleEffect(lowAmplitude))
+                            .addVibrator(ids[1], createRumbleEffect(highAmplitude))
+                            .combine());
+                        return;
+                    }
+                }
+
                 Vibrator v = dev.getVibrator();
                 if (v != null && v.hasVibrator()) {
-                    v.vibrate(VibrationEffect.createOneShot(50, a));
+                    v.vibrate(createRumbleEffect(a));
                     return;
                 }
             }
@@ -890,11 +969,11 @@ public class WinHandler {
 
         // Optional: fall back to phone vibrator only for slot 0
         if (slot == 0) {
-            Vibrator phone = (Vibrator) context.getSystemService(Context.VIBRATOR_SERVICE);
+            Vibrator phone = getPhoneVibrator();
             if (phone != null && phone.hasVibrator()) {
                 float curved = (float) Math.pow(a / 255f, 0.6f);
                 int pa = Math.max(0, Math.min(255, Math.round(curved * 255f)));
-                if (pa > 0) phone.vibrate(VibrationEffect.createOneShot(50, pa));
+                if (pa > 0) phone.vibrate(createRumbleEffect(pa));
             }
         }
     }
@@ -903,27 +982,47 @@ public class WinHandler {
         if (ctrl != null) {
             InputDevice dev = InputDevice.getDevice(ctrl.getDeviceId());
             if (dev != null) {
-                Vibrator v = dev.getVibrator();
-                if (v != null && v.hasVibrator()) v.cancel();
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+                    dev.getVibratorManager().cancel();
+                } else {
+                    Vibrator v = dev.getVibrator();
+                    if (v != null && v.hasVibrator()) v.cancel();
+                }
             }
         }
         if (slot == 0) {
-            Vibrator phone = (Vibrator) context.getSystemService(Context.VIBRATOR_SERVICE);
+            Vibrator phone = getPhoneVibrator();
             if (phone != null) phone.cancel();
         }
     }
 
+    private Vibrator getPhoneVibrator() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            VibratorManager manager = (VibratorManager) context.getSystemService(Context.VIBRATOR_MANAGER_SERVICE);
+            return manager != null ? manager.getDefaultVibrator() : null;
+        }
+        return (Vibrator) context.getSystemService(Context.VIBRATOR_SERVICE);
+    }
+
     // ========================== SHM writing =================================
 
     private void writeStateToMappedBuffer(GamepadState src,
                                           MappedByteBuffer buffer,
                                           boolean isP1,
                                           int slotIndex) {
-        if (buffer == null || src == null) return;
+        writeStateToMappedBuffer(src, buffer, isP1, slotIndex, false);
+    }
 
-        synchronized (buffer) {
-            buffer.clear();
+    private void writeStateToMappedBuffer(GamepadState src,
+                                          MappedByteBuffer buffer,
+                                          boolean isP1,
+                                          int slotIndex,
+                                          boolean force) {
+        if (buffer == null || src == null || slotIndex < 0 || slotIndex >= MAX_PLAYERS) return;
+        GamepadStateWriter writer = gamepadWriters[slotIndex];
+        if (writer == null) return;
 
+        synchronized (writer) {
             // SHM writer: compute final LX/LY/RX/RY based on target
             float lx = src.thumbLX, ly = src.thumbLY;
             float rx = src.thumbRX, ry = src.thumbRY;
@@ -938,17 +1037,12 @@ public class WinHandler {
                 }
             }
 
-            buffer.putShort((short) (lx * 32767));
-            buffer.putShort((short) (ly * 32767));
-            buffer.putShort((short) (rx * 32767));
-            buffer.putShort((short) (ry * 32767));
-
             // Triggers (curved)
             float rawL = Math.max(0f, Math.min(1f, src.triggerL));
             float rawR = Math.max(0f, Math.min(1f, src.triggerR));
 
             // Buttons & dpad (SDL-style ordering)
-            byte[] sdlButtons = new byte[15];
+            byte[] sdlButtons = this.sdlButtons[slotIndex];
             sdlButtons[0]  = src.isPressed(0)  ? (byte)1 : 0;  // A
             sdlButtons[1]  = src.isPressed(1)  ? (byte)1 : 0;  // B
             sdlButtons[2]  = src.isPressed(2)  ? (byte)1 : 0;  // X
@@ -956,6 +1050,7 @@ public class WinHandler {
             sdlButtons[9]  = src.isPressed(4)  ? (byte)1 : 0;  // LB
             sdlButtons[10] = src.isPressed(5)  ? (byte)1 : 0;  // RB
             sdlButtons[4]  = src.isPressed(6)  ? (byte)1 : 0;  // Back
+            sdlButtons[5]  = 0;                                 // Guide
             sdlButtons[6]  = src.isPressed(7)  ? (byte)1 : 0;  // Start
             sdlButtons[7]  = src.isPressed(8)  ? (byte)1 : 0;  // LStick
             sdlButtons[8]  = src.isPressed(9)  ? (byte)1 : 0;  // RStick
@@ -977,11 +1072,10 @@ public class WinHandler {
             float rCurve = (float) Math.sqrt(rawR);
             int lAxis = Math.round(lCurve * 65_534f) - 32_767;
             int rAxis = Math.round(rCurve * 65_534f) - 32_767;
-            buffer.putShort((short) lAxis);
-            buffer.putShort((short) rAxis);
-
-            buffer.put(sdlButtons);
-            buffer.put((byte) 0); // HAT ignored
+            boolean written = writer.write((short) (lx * 32767), (short) (ly * 32767), (short) (rx * 32767), (short) (ry * 32767),
+                (short) lAxis, (short) rAxis, sdlButtons, force);
+            // Keepalive writes carry no new input
+            if (written && !force) InputLatencyTracer.onInputDelivered(InputLatencyTracer.stamp());
         }
     }
 
@@ -1179,6 +1273,7 @@ public class WinHandler {
 
     public void mouseEvent(int flags, int dx, int dy, int wheelDelta) {
         if (!initReceived) return;
+        final long inputTimeNs = InputLatencyTracer.stamp();
         addAction(() -> {
             sendData.rewind();
             sendData.put(RequestCodes.MOUSE_EVENT);
@@ -1189,17 +1284,20 @@ public class WinHandler {
             sendData.putShort((short) wheelDelta);
             sendData.put((byte) ((flags & MouseEventFlags.MOVE) != 0 ? 1 : 0)); // cursor pos feedback
             sendPacket(CLIENT_PORT);
+            InputLatencyTracer.onInputDelivered(inputTimeNs);
         });
     }
 
     public void keyboardEvent(byte vkey, int flags) {
         if (!initReceived) return;
+        final long inputTimeNs = InputLatencyTracer.stamp();
         addAction(() -> {
             sendData.rewind();
             sendData.put(RequestCodes.KEYBOARD_EVENT);
             sendData.put(vkey);
             sendData.putInt(flags);
             sendPacket(CLIENT_PORT);
+            InputLatencyTracer.onInputDelivered(inputTimeNs);
         });
     }
 
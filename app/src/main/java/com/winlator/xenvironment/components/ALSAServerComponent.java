@@ -10,6 +10,7 @@ import android.util.Log;
 
 import com.winlator.alsaserver.ALSAClientConnectionHandler;
 import com.winlator.alsaserver.ALSARequestHandler;
+import com.winlator.alsaserver.AudioMetrics;
 import com.winlator.xconnector.UnixSocketConfig;
 import com.winlator.xconnector.XConnectorEpoll;
 import com.winlator.xconnector.Client;
@@ -17,8 +18,11 @@ import com.winlator.xenvironment.EnvironmentComponent;
 import com.winlator.alsaserver.ALSAClient;
 import com.winlator.xenvironment.ImageFs;
 
+import java.io.File;
+
 public class ALSAServerComponent extends EnvironmentComponent {
     private XConnectorEpoll connector;
+    private ALSAClientConnectionHandler connectionHandler;
     private final ALSAClient.Options options;
     private final UnixSocketConfig socketConfig;
     private volatile boolean isPaused = false;
@@ -37,7 +41,8 @@ public class ALSAServerComponent extends EnvironmentComponent {
         ALSAClient.assignFramesPerBuffer(this.environment.getContext());
         ImageFs imagefs = ImageFs.find(this.environment.getContext());
 
-        XConnectorEpoll xConnectorEpoll = new XConnectorEpoll(this.socketConfig, new ALSAClientConnectionHandler(this.options, imagefs.getVariant()), new ALSARequestHandler());
+        this.connectionHandler = new ALSAClientConnectionHandler(this.options, imagefs.getVariant());
+        XConnectorEpoll xConnectorEpoll = new XConnectorEpoll(this.socketConfig, this.connectionHandler, new ALSARequestHandler());
         this.connector = xConnectorEpoll;
         xConnectorEpoll.setMultithreadedClients(true);
         this.connector.start();
@@ -59,9 +64,21 @@ public class ALSAServerComponent extends EnvironmentComponent {
             xConnectorEpoll.stop();
             this.connector = null;
         }
+
+        if (this.connectionHandler != null) {
+            this.connectionHandler.stopOutputThread();
+            this.connectionHandler = null;
+            writeAudioSessionLog();
+        }
         isPaused = false;
     }
 
+    // Keeps the audio telemetry of the session next to the other session logs in the tmp dir
+    private void writeAudioSessionLog() {
+        File logFile = new File(ImageFs.find(this.environment.getContext()).getTmpDir(), "audio_session.log");
+        if (AudioMetrics.writeSessionLog(logFile)) Log.d("ALSAServerComponent", "Audio session log written to " + logFile.getPath());
+    }
+
     private void registerAudioDeviceCallback() {
         Context context = this.environment.getContext();
         AudioManager audioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
@@ -8,6 +8,7 @@ import com.winlator.xconnector.UnixSocketConfig;
 import com.winlator.xserver.XClientConnectionHandler;
 import com.winlator.xserver.XClientRequestHandler;
 import com.winlator.xserver.XServer;
+import com.winlator.xserver.extensions.PresentExtension;
 
 public class XServerComponent extends EnvironmentComponent {
     private XConnectorEpoll connector;
@@ -36,6 +37,10 @@ public class XServerComponent extends EnvironmentComponent {
             connector.stop();
             connector = null;
         }
+
+        // Completes the presents still held back by the frame limiter and ends its thread
+        PresentExtension presentExtension = xServer.getExtension(PresentExtension.MAJOR_OPCODE);
+        if (presentExtension != null) presentExtension.getFrameLimiter().stop();
     }
 
     public XServer getXServer() {
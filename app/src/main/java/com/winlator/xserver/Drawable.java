@@ -46,7 +46,7 @@ public class Drawable extends XResource {
     }
 
     public void forceUpdate() {
-        texture.needsUpdate = true;
+        texture.setNeedsUpdate(true);
     }
 
     public void setTexture(Texture texture) {
@@ -1,5 +1,6 @@
 package com.winlator.xserver.events;
 
+import com.winlator.renderer.InputLatencyTracer;
 import com.winlator.xconnector.XOutputStream;
 import com.winlator.xconnector.XStreamLock;
 import com.winlator.xserver.Bitmask;
@@ -18,6 +19,7 @@ public class InputDeviceEvent extends Event {
     private final short rootX;
     private final short rootY;
     private final Bitmask state;
+    private final long inputTimeNs;
 
     public InputDeviceEvent(int code, byte detail, Window root, Window event, Window child, short rootX, short rootY, short eventX, short eventY, Bitmask state) {
         super(code);
@@ -31,6 +33,7 @@ public class InputDeviceEvent extends Event {
         this.eventX = eventX;
         this.eventY = eventY;
         this.state = state;
+        this.inputTimeNs = InputLatencyTracer.stamp();
     }
 
     @Override
@@ -51,5 +54,6 @@ public class InputDeviceEvent extends Event {
             outputStream.writeByte((byte)1);
             outputStream.writeByte((byte)0);
         }
+        InputLatencyTracer.onInputDelivered(inputTimeNs);
     }
 }
@@ -4,7 +4,10 @@ import static com.winlator.xserver.XClientRequestHandler.RESPONSE_CODE_SUCCESS;
 
 import android.util.SparseArray;
 
+import com.winlator.renderer.FrameLimiter;
+import com.winlator.renderer.GLRenderer;
 import com.winlator.renderer.GPUImage;
+import com.winlator.renderer.InputLatencyTracer;
 import com.winlator.renderer.Texture;
 import com.winlator.xconnector.XInputStream;
 import com.winlator.xconnector.XOutputStream;
@@ -32,6 +35,7 @@ public class PresentExtension implements Extension {
     public enum Kind {PIXMAP, MSC_NOTIFY}
     public enum Mode {COPY, FLIP, SKIP}
     private final SparseArray<Event> events = new SparseArray<>();
+    private final FrameLimiter frameLimiter = new FrameLimiter();
     private SyncExtension syncExtension;
 
     private static abstract class ClientOpcodes {
@@ -67,6 +71,10 @@ public class PresentExtension implements Extension {
         return 0;
     }
 
+    public FrameLimiter getFrameLimiter() {
+        return frameLimiter;
+    }
+
     private void sendIdleNotify(Window window, Pixmap pixmap, int serial, int idleFence) {
         if (idleFence != 0) syncExtension.setTriggered(idleFence);
 
@@ -125,14 +133,38 @@ public class PresentExtension implements Extension {
         Drawable content = window.getContent();
         if (content.visual.depth != pixmap.drawable.visual.depth) throw new BadMatch();
 
-        long ust = System.nanoTime() / 1000;
-        long msc = ust / FAKE_INTERVAL;
+        if (frameLimiter.isIdle()) {
+            synchronized (content.renderLock) {
+                content.copyArea((short)0, (short)0, xOff, yOff, pixmap.drawable.width, pixmap.drawable.height, pixmap.drawable);
+                stageFrame(client, content);
+                completePresent(window, pixmap, serial, idleFence);
+            }
+            InputLatencyTracer.onPresent(System.nanoTime());
+            return;
+        }
 
         synchronized (content.renderLock) {
             content.copyArea((short)0, (short)0, xOff, yOff, pixmap.drawable.width, pixmap.drawable.height, pixmap.drawable);
-            sendIdleNotify(window, pixmap, serial, idleFence);
-            sendCompleteNotify(window, serial, Kind.PIXMAP, Mode.COPY, ust, msc);
+            stageFrame(client, content);
         }
+        InputLatencyTracer.onPresent(System.nanoTime());
+
+        // The client waits for these before reusing the pixmap, holding them back throttles it
+        frameLimiter.submit(() -> completePresent(window, pixmap, serial, idleFence));
+    }
+
+    // Copies the frame into the mapped pixel buffer of the renderer here, so the render thread only
+    // has to issue its upload
+    private static void stageFrame(XClient client, Drawable content) {
+        GLRenderer renderer = client.xServer.getRenderer();
+        if (renderer != null) renderer.getPixelBufferUploader().stage(content);
+    }
+
+    private void completePresent(Window window, Pixmap pixmap, int serial, int idleFence) {
+        long ust = System.nanoTime() / 1000;
+        long msc = ust / FAKE_INTERVAL;
+        sendIdleNotify(window, pixmap, serial, idleFence);
+        sendCompleteNotify(window, serial, Kind.PIXMAP, Mode.COPY, ust, msc);
     }
 
     private void selectInput(XClient client, XInputStream inputStream, XOutputStream outputStream) throws IOException, XRequestError {
@@ -0,0 +1,122 @@
+package com.winlator.alsaserver
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class AudioLatencyControllerTest {
+    private val step = 256
+    private val window = 10
+    private val periodNs = step * 1_000_000_000L / 48000
+    private val afterHoldOffNs = AudioLatencyController.UNDERRUN_HOLD_OFF_NS + 1
+
+    private fun controller(): AudioLatencyController {
+        val controller = AudioLatencyController(step, window, 48000)
+        controller.setBounds(step * 2, step * 12)
+        return controller
+    }
+
+    private fun AudioLatencyController.runStable(periods: Int, queuedFrames: Int, timeNs: Long = afterHoldOffNs) {
+        repeat(periods) { update(0, queuedFrames, timeNs) }
+    }
+
+    @Test
+    fun underrunGrowsBufferImmediately() {
+        val controller = controller()
+        assertEquals(step * 2, controller.bufferSize)
+
+        assertEquals(step * 4, controller.update(1, 0, 0))
+        assertEquals(step * 6, controller.update(3, 0, 0))
+        assertTrue(controller.lastChange.underrun)
+    }
+
+    @Test
+    fun stableWindowsShrinkOneStepAtATime() {
+        val controller = controller()
+        controller.update(1, 0, 0)
+        controller.update(2, 0, 0)
+        assertEquals(step * 6, controller.bufferSize)
+
+        // Two underruns in a row doubled the hold-off
+        val timeNs = 2 * afterHoldOffNs
+        controller.runStable(window - 1, step * 5, timeNs)
+        assertEquals(step * 6, controller.bufferSize)
+        controller.runStable(1, step * 5, timeNs)
+        assertEquals(step * 5, controller.bufferSize)
+        controller.runStable(window, step * 4, timeNs)
+        assertEquals(step * 4, controller.bufferSize)
+    }
+
+    @Test
+    fun lowHeadroomKeepsBufferSize() {
+        val controller = controller()
+        controller.update(1, 0, 0)
+
+        controller.runStable(window - 1, step * 4)
+        controller.runStable(1, step * 2)
+        assertEquals(step * 4, controller.bufferSize)
+    }
+
+    @Test
+    fun sizeThatUnderranIsHeldOff() {
+        val controller = controller()
+        controller.update(1, 0, 0)
+        assertEquals(step * 4, controller.bufferSize)
+
+        // Plenty of headroom, but the buffer only goes back one step above the size that underran
+        controller.runStable(window * 5, step * 10, periodNs)
+        assertEquals(step * 3, controller.bufferSize)
+
+        controller.runStable(window, step * 10, afterHoldOffNs)
+        assertEquals(step * 2, controller.bufferSize)
+        assertEquals(0L, controller.getHoldOffRemainingNs(afterHoldOffNs))
+    }
+
+    @Test
+    fun bufferStaysWithinBounds() {
+        val controller = controller()
+        for (i in 1..10) controller.update(i, 0, 0)
+        assertEquals(step * 12, controller.bufferSize)
+
+        repeat(20) { controller.runStable(window, step * 12, AudioLatencyController.MAX_UNDERRUN_HOLD_OFF_NS) }
+        assertEquals(step * 2, controller.bufferSize)
+    }
+
+    @Test
+    fun timelineRecordsChanges() {
+        val controller = controller()
+        controller.update(1, 0, 0)
+        controller.runStable(window, step * 4)
+
+        assertEquals("+0.0s 10.7ms -> 21.3ms (underrun)\n+30.0s 21.3ms -> 16.0ms", controller.timeline)
+    }
+
+    // The output thread samples the queue right before a blocking write, when it reads about a period
+    // below the buffer size. A device that needs three periods queued underruns with two. The buffer
+    // has to settle instead of shrinking back into an underrun every window.
+    @Test
+    fun outputThreadSamplesDoNotCycleTheBuffer() {
+        val controller = controller()
+        var underruns = 0
+        var changes = 0
+        var lastBufferSize = controller.bufferSize
+        val settledNs = 1_000_000_000L
+
+        for (period in 0 until 10 * 60 * 48000 / step) {
+            val timeNs = period * periodNs
+            val bufferSize = controller.bufferSize
+            if (bufferSize < step * 3) underruns++
+            val queuedFrames = bufferSize - step + (period * 7919 % 64)
+            controller.update(underruns, queuedFrames, timeNs)
+
+            if (controller.bufferSize != lastBufferSize) {
+                if (timeNs > settledNs) changes++
+                lastBufferSize = controller.bufferSize
+            }
+        }
+
+        assertEquals(1, underruns)
+        assertEquals(step * 3, controller.bufferSize)
+        assertEquals(0, changes)
+    }
+}
@@ -0,0 +1,102 @@
+package com.winlator.alsaserver
+
+import java.nio.ByteBuffer
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+
+class AudioMetricsTest {
+    private val clients = ArrayList<AudioMetrics.Client>()
+
+    @Before
+    fun setUp() {
+        AudioMetrics.reset()
+    }
+
+    @After
+    fun tearDown() {
+        for (client in clients) AudioMetrics.removeClient(client)
+        AudioMetrics.reset()
+    }
+
+    private fun addClient(sampleRate: Int, bufferFrames: Int, bytes: Int): Pair<AudioMetrics.Client, AudioMixer.Stream> {
+        val ringBuffer = PCMRingBuffer(4096)
+        ringBuffer.write(ByteBuffer.allocate(bytes))
+        val stream = AudioMixer(sampleRate).addStream(ringBuffer, ALSAClient.DataType.S16LE, 2, sampleRate)
+        val client = AudioMetrics.addClient("${sampleRate}Hz", stream, sampleRate, bufferFrames)
+        clients.add(client)
+        return Pair(client, stream)
+    }
+
+    @Test
+    fun intervalStatsMeasureAverageMaxAndJitter() {
+        val stats = AudioMetrics.IntervalStats()
+        for (timeMs in longArrayOf(0, 10, 20, 34, 40, 50)) stats.record(1_000_000_000L + timeMs * 1_000_000L)
+
+        assertEquals(5, stats.count)
+        assertEquals(10.0f, stats.averageMs, 1e-4f)
+        assertEquals(14.0f, stats.maxMs, 1e-4f)
+        // Intervals 10, 10, 14, 6, 10
+        assertEquals(Math.sqrt(6.4).toFloat(), stats.jitterMs, 1e-4f)
+
+        stats.reset()
+        stats.record(1_062_000_000L)
+        assertEquals(1, stats.count)
+        assertEquals(12.0f, stats.averageMs, 1e-4f)
+
+        stats.restart()
+        stats.record(5_000_000_000L)
+        assertEquals(0, stats.count)
+    }
+
+    @Test
+    fun reportCombinesOutputAndClients() {
+        val (first, _) = addClient(48000, 960, 4 * 480)
+        val (second, _) = addClient(44100, 441, 0)
+        first.onWrite(1_000_000_000L)
+        first.onWrite(1_010_000_000L)
+        first.onWrite(1_022_000_000L)
+        first.onWriterBlocked(3_000_000L)
+        second.onDropped(100)
+
+        val periods = AudioMetrics.IntervalStats()
+        val report = AudioMetrics.publish(12.5f, 10.0f, 2, periods, 2_000_000_000L)
+
+        assertEquals(2, report.clientCount)
+        assertEquals(480L, report.getFramesWritten(0))
+        assertEquals(20.0f, report.getBufferSizeMs(0), 1e-4f)
+        assertEquals(10.0f + 12.5f, report.getLatencyMs(0), 1e-4f)
+        assertEquals(11.0f, report.getWriteIntervalMs(0), 1e-4f)
+        assertEquals(1.0f, report.getWriteJitterMs(0), 1e-4f)
+        assertEquals(1, report.getWriterBlockedCount(0))
+        assertEquals(3.0f, report.getWriterBlockedTimeMs(0), 1e-4f)
+        assertEquals(10.0f, report.getBufferSizeMs(1), 1e-4f)
+        assertEquals(22.5f, report.maxLatencyMs, 1e-4f)
+        assertEquals(2, report.totalUnderrunCount)
+        assertEquals(1.0f, report.maxWriteJitterMs, 1e-4f)
+        assertTrue(report === AudioMetrics.getLatestReport())
+
+        // The next report only measures the writes after this one
+        assertEquals(0.0f, AudioMetrics.publish(12.5f, 10.0f, 2, periods, 3_000_000_000L).getWriteIntervalMs(0), 0f)
+    }
+
+    @Test
+    fun sessionLogKeepsReportsAndClosedClients() {
+        val (client, _) = addClient(48000, 960, 0)
+        AudioMetrics.publish(10.0f, 5.0f, 0, AudioMetrics.IntervalStats(), System.nanoTime())
+        client.onWriterBlocked(1_000_000L)
+        AudioMetrics.removeClient(client)
+        clients.clear()
+
+        val lines = AudioMetrics.getSessionLog().trim().lines()
+        assertEquals(2, lines.size)
+        assertTrue(lines[0], lines[0].contains("out 10.0ms buf 5.0ms xrun 0") && lines[0].contains("48000Hz"))
+        assertTrue(lines[1], lines[1].contains("48000Hz closed") && lines[1].contains("blocked 1/1ms"))
+
+        AudioMetrics.clearLatestReport()
+        assertNull(AudioMetrics.getLatestReport())
+    }
+}
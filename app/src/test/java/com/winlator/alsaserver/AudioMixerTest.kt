@@ -0,0 +1,106 @@
+package com.winlator.alsaserver
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class AudioMixerTest {
+    private fun ringOf(vararg samples: Short): PCMRingBuffer {
+        val data = ByteBuffer.allocate(samples.size * 2).order(ByteOrder.LITTLE_ENDIAN)
+        for (sample in samples) data.putShort(sample)
+        data.flip()
+        val ringBuffer = PCMRingBuffer(4096)
+        ringBuffer.write(data)
+        return ringBuffer
+    }
+
+    private fun assertMix(expected: FloatArray, actual: FloatArray) {
+        for (i in expected.indices) assertEquals("sample $i", expected[i], actual[i], 1e-6f)
+    }
+
+    @Test
+    fun sameRateStreamIsPassedThrough() {
+        val mixer = AudioMixer(48000)
+        val samples = shortArrayOf(0, 100, 16384, -16384, 32767, -32768, 1, -1, 0, 0)
+        mixer.addStream(ringOf(*samples), ALSAClient.DataType.S16LE, 2, 48000).setPlaying(true)
+
+        val output = FloatArray(8)
+        mixer.mix(output, 4)
+
+        assertMix(FloatArray(8) { samples[it] / 32768.0f }, output)
+    }
+
+    @Test
+    fun streamsAreScaledAndSummed() {
+        val mixer = AudioMixer(48000)
+        val a = shortArrayOf(8192, -8192, 16384, 0, 0, 0)
+        val b = shortArrayOf(16384, 16384, -16384, 8192, 0, 0)
+        mixer.addStream(ringOf(*a), ALSAClient.DataType.S16LE, 2, 48000).apply { volume = 0.5f; setPlaying(true) }
+        mixer.addStream(ringOf(*b), ALSAClient.DataType.S16LE, 2, 48000).apply { volume = 0.25f; setPlaying(true) }
+
+        val output = FloatArray(4)
+        mixer.mix(output, 2)
+
+        assertMix(FloatArray(4) { a[it] / 32768.0f * 0.5f + b[it] / 32768.0f * 0.25f }, output)
+    }
+
+    @Test
+    fun monoU8IsConvertedToStereo() {
+        val mixer = AudioMixer(48000)
+        val data = ByteBuffer.wrap(byteArrayOf(128.toByte(), 192.toByte(), 64, 0))
+        val ringBuffer = PCMRingBuffer(64)
+        ringBuffer.write(data)
+        mixer.addStream(ringBuffer, ALSAClient.DataType.U8, 1, 48000).setPlaying(true)
+
+        val output = FloatArray(6)
+        mixer.mix(output, 3)
+
+        assertMix(floatArrayOf(0f, 0f, 0.5f, 0.5f, -0.5f, -0.5f), output)
+    }
+
+    @Test
+    fun upsampledStreamKeepsItsLevel() {
+        val mixer = AudioMixer(48000)
+        mixer.addStream(ringOf(*ShortArray(200) { 8192 }), ALSAClient.DataType.S16LE, 2, 24000).setPlaying(true)
+
+        val output = FloatArray(80)
+        mixer.mix(output, 40)
+
+        // The filter rings while it starts from silence, then settles on the input level
+        for (i in 64 until 80) assertEquals("sample $i", 0.25f, output[i], 1e-3f)
+    }
+
+    @Test
+    fun resamplingCarriesPhaseAcrossPasses() {
+        val whole = AudioMixer(48000)
+        val split = AudioMixer(48000)
+        val samples = ShortArray(256) { (it * 100).toShort() }
+        whole.addStream(ringOf(*samples), ALSAClient.DataType.S16LE, 2, 44100).setPlaying(true)
+        split.addStream(ringOf(*samples), ALSAClient.DataType.S16LE, 2, 44100).setPlaying(true)
+
+        val expected = FloatArray(40)
+        whole.mix(expected, 20)
+
+        val first = FloatArray(14)
+        val second = FloatArray(26)
+        split.mix(first, 7)
+        split.mix(second, 13)
+
+        assertMix(expected, first + second)
+    }
+
+    @Test
+    fun mixIsClippedAndUnderrunsAreSilent() {
+        val mixer = AudioMixer(48000)
+        val stream = mixer.addStream(ringOf(32767, -32768, 32767, -32768), ALSAClient.DataType.S16LE, 2, 48000)
+        stream.volume = 2.0f
+        stream.setPlaying(true)
+
+        val output = FloatArray(6)
+        mixer.mix(output, 3)
+
+        assertMix(floatArrayOf(1f, -1f, 1f, -1f, 0f, 0f), output)
+        assertEquals(1, stream.underrunCount)
+    }
+}
@@ -0,0 +1,49 @@
+package com.winlator.alsaserver
+
+import java.nio.ByteBuffer
+import org.junit.Ignore
+import org.junit.Test
+
+// Throughput of the conversion and resampling paths in MB/s and per period
+@Ignore("Prints timings only, run by hand when changing PCMConverter or the resamplers")
+class PCMConverterBenchmark {
+    private val frames = 4096
+    private val iterations = 2000
+
+    private fun measure(name: String, bytesPerIteration: Int, block: () -> Unit) {
+        repeat(iterations / 4) { block() }
+        val startTime = System.nanoTime()
+        repeat(iterations) { block() }
+        val elapsed = System.nanoTime() - startTime
+        val megabytes = bytesPerIteration.toDouble() * iterations / 1e6
+        println(String.format("%-24s %8.1f MB/s %8.2f us/period", name, megabytes / (elapsed / 1e9), elapsed / 1e3 / iterations))
+    }
+
+    @Test
+    fun conversion() {
+        val output = FloatArray(frames * 2)
+        for ((dataType, channels) in listOf(ALSAClient.DataType.U8 to 2, ALSAClient.DataType.S16LE to 2, ALSAClient.DataType.S16BE to 2, ALSAClient.DataType.FLOATBE to 2, ALSAClient.DataType.S16LE to 6)) {
+            val converter = PCMConverter(dataType, channels)
+            val src = ByteBuffer.allocateDirect(frames * converter.frameBytes)
+            measure("$dataType x$channels", src.capacity()) {
+                src.clear()
+                converter.convert(src, output, 0, frames)
+            }
+        }
+    }
+
+    @Test
+    fun resampling() {
+        val output = FloatArray(frames * 2)
+        for (inputRate in intArrayOf(44100, 22050, 96000)) {
+            val resampler = PCMResampler(inputRate, 48000)
+            val silence = FloatArray(frames * 4)
+            measure("resample $inputRate", frames * 8) {
+                val required = resampler.getRequiredInputFrames(frames)
+                System.arraycopy(silence, 0, resampler.getInputBuffer(required), resampler.inputFrames * 2, required * 2)
+                resampler.commitInput(required)
+                resampler.mixInto(output, 0, frames, 1.0f)
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.winlator.alsaserver
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class PCMConverterTest {
+    private fun convert(dataType: ALSAClient.DataType, channels: Int, frames: Int, data: ByteBuffer): FloatArray {
+        val src = ByteBuffer.allocateDirect(data.remaining())
+        src.put(data).flip()
+        val output = FloatArray(frames * 2 + 2)
+        PCMConverter(dataType, channels).convert(src, output, 2, frames)
+        assertEquals(0, src.remaining())
+        return output.copyOfRange(2, output.size)
+    }
+
+    private fun shorts(order: ByteOrder, vararg samples: Short): ByteBuffer {
+        val data = ByteBuffer.allocate(samples.size * 2).order(order)
+        for (sample in samples) data.putShort(sample)
+        return data.flip() as ByteBuffer
+    }
+
+    private fun floats(order: ByteOrder, vararg samples: Float): ByteBuffer {
+        val data = ByteBuffer.allocate(samples.size * 4).order(order)
+        for (sample in samples) data.putFloat(sample)
+        return data.flip() as ByteBuffer
+    }
+
+    @Test
+    fun s16IsConvertedBitExactInBothByteOrders() {
+        val samples = shortArrayOf(0, 1, -1, 32767, -32768, 12345, -12345, 256)
+        val expected = FloatArray(samples.size) { samples[it] / 32768.0f }
+
+        assertArrayEquals(expected, convert(ALSAClient.DataType.S16LE, 2, 4, shorts(ByteOrder.LITTLE_ENDIAN, *samples)), 0f)
+        assertArrayEquals(expected, convert(ALSAClient.DataType.S16BE, 2, 4, shorts(ByteOrder.BIG_ENDIAN, *samples)), 0f)
+    }
+
+    @Test
+    fun floatIsCopiedBitExactInBothByteOrders() {
+        val samples = floatArrayOf(0f, 1f, -1f, 0.1f, -0.333f, 1e-7f)
+
+        assertArrayEquals(samples, convert(ALSAClient.DataType.FLOATLE, 2, 3, floats(ByteOrder.LITTLE_ENDIAN, *samples)), 0f)
+        assertArrayEquals(samples, convert(ALSAClient.DataType.FLOATBE, 2, 3, floats(ByteOrder.BIG_ENDIAN, *samples)), 0f)
+    }
+
+    @Test
+    fun u8IsCenteredAndMonoIsDuplicated() {
+        val data = ByteBuffer.wrap(byteArrayOf(0, 64, 128.toByte(), 255.toByte()))
+
+        assertArrayEquals(floatArrayOf(-1f, -1f, -0.5f, -0.5f, 0f, 0f, 127 / 128f, 127 / 128f), convert(ALSAClient.DataType.U8, 1, 4, data), 0f)
+    }
+
+    @Test
+    fun surroundIsFoldedIntoFrontPair() {
+        val g = 0.70710678f
+        // FL FR RL RR FC LFE
+        val frame = floatArrayOf(0.1f, 0.2f, 0.3f, 0.4f, 0.5f, 0.9f)
+
+        assertArrayEquals(
+            floatArrayOf(0.1f + 0.3f * g + 0.5f * g, 0.2f + 0.4f * g + 0.5f * g),
+            convert(ALSAClient.DataType.FLOATLE, 6, 1, floats(ByteOrder.LITTLE_ENDIAN, *frame)),
+            0f,
+        )
+    }
+
+    @Test
+    fun sourceByteOrderIsRestored() {
+        val src = ByteBuffer.allocateDirect(4).order(ByteOrder.LITTLE_ENDIAN)
+        PCMConverter(ALSAClient.DataType.S16BE, 2).convert(src, FloatArray(2), 0, 1)
+
+        assertEquals(ByteOrder.LITTLE_ENDIAN, src.order())
+    }
+}
@@ -0,0 +1,85 @@
+package com.winlator.alsaserver
+
+import kotlin.math.PI
+import kotlin.math.abs
+import kotlin.math.sin
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class PCMResamplerTest {
+    private fun PCMResampler.append(samples: FloatArray) {
+        val frames = samples.size / 2
+        val input = getInputBuffer(frames)
+        System.arraycopy(samples, 0, input, inputFrames * 2, samples.size)
+        commitInput(frames)
+    }
+
+    private fun sine(frames: Int, frequency: Double, sampleRate: Int) = FloatArray(frames * 2) {
+        (0.5 * sin(2 * PI * frequency * (it / 2) / sampleRate)).toFloat()
+    }
+
+    @Test
+    fun equalRatesPassThroughBitExact() {
+        val resampler = PCMResampler(48000, 48000)
+        val samples = FloatArray(64) { it * 0.013f - 0.4f }
+        resampler.append(samples)
+
+        val output = FloatArray(64)
+        assertEquals(32, resampler.mixInto(output, 0, 32, 1.0f))
+        assertArrayEquals(samples, output, 0f)
+        assertEquals(0, resampler.getRequiredInputFrames(0))
+    }
+
+    @Test
+    fun chunkedInputGivesBitExactSameOutput() {
+        val samples = sine(4000, 997.0, 44100)
+        val whole = PCMResampler(44100, 48000)
+        whole.append(samples)
+        val expected = FloatArray(2000)
+        whole.mixInto(expected, 0, 1000, 1.0f)
+
+        val chunked = PCMResampler(44100, 48000)
+        val actual = FloatArray(2000)
+        var produced = 0
+        var consumed = 0
+        while (produced < 1000) {
+            val frames = minOf(chunked.getRequiredInputFrames(37), 4000 - consumed)
+            chunked.append(samples.copyOfRange(consumed * 2, (consumed + frames) * 2))
+            consumed += frames
+            produced += chunked.mixInto(actual, produced * 2, minOf(37, 1000 - produced), 1.0f)
+        }
+
+        assertArrayEquals(expected, actual, 0f)
+    }
+
+    @Test
+    fun sineIsReproducedAtCommonRates() {
+        val rates = arrayOf(intArrayOf(44100, 48000), intArrayOf(22050, 48000), intArrayOf(96000, 48000), intArrayOf(48000, 44100))
+        for ((inputRate, outputRate) in rates) {
+            val resampler = PCMResampler(inputRate, outputRate)
+            resampler.append(sine(inputRate / 5, 1000.0, inputRate))
+            val frames = outputRate / 10
+            val output = FloatArray(frames * 2)
+            assertEquals(frames, resampler.mixInto(output, 0, frames, 1.0f))
+
+            // Output frames are aligned with the input, after the filter settled they match the signal
+            var maxError = 0.0
+            for (k in 100 until frames) {
+                val expected = 0.5 * sin(2 * PI * 1000.0 * k / outputRate)
+                maxError = maxOf(maxError, abs(output[k * 2] - expected))
+            }
+            assertTrue("$inputRate -> $outputRate error $maxError", maxError < 2e-4)
+        }
+    }
+
+    @Test
+    fun missingInputIsReported() {
+        val resampler = PCMResampler(44100, 48000)
+        val required = resampler.getRequiredInputFrames(10)
+        resampler.append(FloatArray((required - 1) * 2))
+
+        assertEquals(9, resampler.mixInto(FloatArray(20), 0, 10, 1.0f))
+    }
+}
@@ -0,0 +1,109 @@
+package com.winlator.alsaserver
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class SharedPCMRingBufferTest {
+    // Accesses the header without the native atomics, the test runs both sides on one thread
+    private class TestRingBuffer(buffer: ByteBuffer, frameBytes: Int) : SharedPCMRingBuffer(buffer, frameBytes) {
+        var wakeCount = 0
+
+        override fun loadPosition(offset: Int): Long = sharedBuffer.getLong(offset)
+
+        override fun storePosition(offset: Int, value: Long) {
+            sharedBuffer.putLong(offset, value)
+        }
+
+        override fun wakeWriter() {
+            wakeCount++
+        }
+    }
+
+    // Writes samples like the guest plugin does, straight into the data area of the segment
+    private class Guest(private val sharedBuffer: ByteBuffer) {
+        private val capacity = sharedBuffer.getInt(SharedPCMRingBuffer.CAPACITY_OFFSET)
+
+        fun write(samples: ShortArray): Int {
+            val writePosition = sharedBuffer.getLong(SharedPCMRingBuffer.WRITE_POSITION_OFFSET)
+            val readPosition = sharedBuffer.getLong(SharedPCMRingBuffer.READ_POSITION_OFFSET)
+            val count = minOf(samples.size, (capacity - (writePosition - readPosition)).toInt() / 2)
+            for (i in 0 until count) {
+                val offset = ((writePosition + i * 2) % capacity).toInt()
+                sharedBuffer.putShort(SharedPCMRingBuffer.HEADER_SIZE + offset, samples[i])
+            }
+            sharedBuffer.putLong(SharedPCMRingBuffer.WRITE_POSITION_OFFSET, writePosition + count * 2)
+            return count
+        }
+    }
+
+    private fun sharedBuffer(capacity: Int): ByteBuffer {
+        return ByteBuffer.allocateDirect(SharedPCMRingBuffer.getSharedSize(capacity)).order(ByteOrder.LITTLE_ENDIAN)
+    }
+
+    @Test
+    fun headerDescribesTheRing() {
+        val sharedBuffer = sharedBuffer(256)
+        TestRingBuffer(sharedBuffer, 4)
+
+        assertEquals(SharedPCMRingBuffer.MAGIC, sharedBuffer.getInt(0))
+        assertEquals(SharedPCMRingBuffer.VERSION, sharedBuffer.getInt(4))
+        assertEquals(256, sharedBuffer.getInt(SharedPCMRingBuffer.CAPACITY_OFFSET))
+        assertEquals(4, sharedBuffer.getInt(SharedPCMRingBuffer.FRAME_BYTES_OFFSET))
+        assertEquals(0L, sharedBuffer.getLong(SharedPCMRingBuffer.WRITE_POSITION_OFFSET))
+        assertEquals(0L, sharedBuffer.getLong(SharedPCMRingBuffer.READ_POSITION_OFFSET))
+    }
+
+    @Test
+    fun mixerPlaysWhatTheGuestWritesAcrossTheWrap() {
+        val sharedBuffer = sharedBuffer(96)
+        val ringBuffer = TestRingBuffer(sharedBuffer, 4)
+        val guest = Guest(sharedBuffer)
+        val mixer = AudioMixer(48000)
+        mixer.addStream(ringBuffer, ALSAClient.DataType.S16LE, 2, 48000).setPlaying(true)
+
+        val samples = ShortArray(400) { (it * 50 - 10000).toShort() }
+        val output = FloatArray(16)
+        var written = 0
+        var played = 0
+        while (played < samples.size) {
+            written += guest.write(samples.copyOfRange(written, minOf(written + 20, samples.size)))
+            mixer.mix(output, 8)
+            for (i in 0 until 16) {
+                if (played < written) assertEquals("sample $played", samples[played] / 32768.0f, output[i], 1e-6f)
+                played++
+            }
+        }
+
+        assertEquals(samples.size * 2L, sharedBuffer.getLong(SharedPCMRingBuffer.READ_POSITION_OFFSET))
+        assertEquals(samples.size / 2L, ringBuffer.readPosition / 4)
+        assertTrue(ringBuffer.wakeCount > 0)
+    }
+
+    @Test
+    fun clearAdvancesTheSharedReadPosition() {
+        val sharedBuffer = sharedBuffer(64)
+        val ringBuffer = TestRingBuffer(sharedBuffer, 4)
+        Guest(sharedBuffer).write(ShortArray(12) { 1000 })
+
+        ringBuffer.clear()
+
+        assertEquals(24L, sharedBuffer.getLong(SharedPCMRingBuffer.READ_POSITION_OFFSET))
+        assertEquals(0, ringBuffer.readableBytes)
+        assertEquals(1, ringBuffer.wakeCount)
+    }
+
+    @Test
+    fun writePositionOutsideTheRingReadsAsEmpty() {
+        val sharedBuffer = sharedBuffer(64)
+        val ringBuffer = TestRingBuffer(sharedBuffer, 4)
+
+        sharedBuffer.putLong(SharedPCMRingBuffer.WRITE_POSITION_OFFSET, 1000)
+        assertEquals(0, ringBuffer.readableBytes)
+
+        sharedBuffer.putLong(SharedPCMRingBuffer.WRITE_POSITION_OFFSET, -8)
+        assertEquals(0, ringBuffer.readableBytes)
+    }
+}
@@ -0,0 +1,77 @@
+package com.winlator.inputcontrols
+
+import java.util.Random
+import org.junit.Ignore
+import org.junit.Test
+
+// Cost of hit testing the touches of a five finger MotionEvent against synthetic profiles, once with
+// a scan over all elements and once through the grid
+@Ignore("Timing comparison without assertions, start it manually after touching ElementGrid")
+class ElementGridBenchmark {
+    private val width = 2400
+    private val height = 1080
+    private val snappingSize = width / 100
+    private val pointers = 5
+    private val iterations = 200000
+
+    private class Bounds(val left: Int, val top: Int, val right: Int, val bottom: Int) {
+        fun contains(x: Float, y: Float): Boolean {
+            val px = (x + 0.5f).toInt()
+            val py = (y + 0.5f).toInt()
+            return px >= left && px < right && py >= top && py < bottom
+        }
+    }
+
+    // Buttons, sticks and d-pads of the sizes ControlElement gives them, spread over the view
+    private fun createProfile(random: Random, elementCount: Int): List<Bounds> {
+        return List(elementCount) {
+            val halfSize = snappingSize * intArrayOf(3, 3, 4, 6, 7)[random.nextInt(5)]
+            val x = random.nextInt(width)
+            val y = random.nextInt(height)
+            Bounds(x - halfSize, y - halfSize, x + halfSize, y + halfSize)
+        }
+    }
+
+    private fun measure(name: String, block: (Int) -> Int) {
+        var hits = 0
+        repeat(iterations / 4) { hits += block(it) }
+        val startTime = System.nanoTime()
+        repeat(iterations) { hits += block(it) }
+        val elapsed = System.nanoTime() - startTime
+        println(String.format("%-24s %8.1f ns/event (%d hits)", name, elapsed.toDouble() / iterations, hits))
+    }
+
+    @Test
+    fun hitTesting() {
+        val random = Random(50)
+        val touchCount = 1024
+        val touchX = FloatArray(touchCount * pointers) { random.nextFloat() * width }
+        val touchY = FloatArray(touchCount * pointers) { random.nextFloat() * height }
+
+        for (elementCount in intArrayOf(10, 40, 100)) {
+            val elements = createProfile(random, elementCount)
+            val grid = ElementGrid<Bounds>()
+            grid.reset(width, height, snappingSize * 8)
+            for (element in elements) grid.add(element, element.left, element.top, element.right, element.bottom)
+
+            measure("scan $elementCount elements") { iteration ->
+                var hits = 0
+                val base = (iteration % touchCount) * pointers
+                for (i in base until base + pointers) {
+                    for (element in elements) if (element.contains(touchX[i], touchY[i])) hits++
+                }
+                hits
+            }
+
+            measure("grid $elementCount elements") { iteration ->
+                var hits = 0
+                val base = (iteration % touchCount) * pointers
+                for (i in base until base + pointers) {
+                    val candidates = grid.query(touchX[i], touchY[i])
+                    for (j in candidates.indices) if (candidates[j].contains(touchX[i], touchY[i])) hits++
+                }
+                hits
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.winlator.inputcontrols
+
+import java.util.Random
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class ElementGridTest {
+    private class Bounds(val id: Int, val left: Int, val top: Int, val right: Int, val bottom: Int) {
+        // Same rounding and edges as ControlElement.containsPoint
+        fun contains(x: Float, y: Float): Boolean {
+            val px = (x + 0.5f).toInt()
+            val py = (y + 0.5f).toInt()
+            return px >= left && px < right && py >= top && py < bottom
+        }
+    }
+
+    private fun buildGrid(elements: List<Bounds>, width: Int, height: Int, cellSize: Int): ElementGrid<Bounds> {
+        val grid = ElementGrid<Bounds>()
+        grid.reset(width, height, cellSize)
+        for (element in elements) grid.add(element, element.left, element.top, element.right, element.bottom)
+        return grid
+    }
+
+    @Test
+    fun findsTheSameElementsInTheSameOrderAsALinearScan() {
+        val random = Random(50)
+        val width = 2400
+        val height = 1080
+        val elements = ArrayList<Bounds>()
+        for (i in 0 until 60) {
+            val halfSize = 20 + random.nextInt(150)
+            // Some elements reach past the edges of the view
+            val x = random.nextInt(width + 200) - 100
+            val y = random.nextInt(height + 200) - 100
+            elements.add(Bounds(i, x - halfSize, y - halfSize, x + halfSize, y + halfSize))
+        }
+        val grid = buildGrid(elements, width, height, 192)
+
+        for (i in 0 until 20000) {
+            val x = random.nextFloat() * (width + 400) - 200
+            val y = random.nextFloat() * (height + 400) - 200
+            val expected = elements.filter { it.contains(x, y) }.map { it.id }
+            val actual = grid.query(x, y).filter { it.contains(x, y) }.map { it.id }
+            assertEquals("at $x, $y", expected, actual)
+        }
+    }
+
+    @Test
+    fun pointsOnCellEdgesFindElementsStartingThere() {
+        val element = Bounds(0, 128, 128, 200, 200)
+        val grid = buildGrid(listOf(element), 1000, 1000, 64)
+
+        // 127.6 rounds to 128, which is in the next cell
+        assertTrue(grid.query(127.6f, 127.6f).contains(element))
+        assertTrue(grid.query(199.4f, 150.0f).contains(element))
+        assertTrue(grid.query(50.0f, 50.0f).isEmpty())
+    }
+
+    @Test
+    fun resetDropsTheOldLayout() {
+        val grid = buildGrid(listOf(Bounds(0, 0, 0, 100, 100)), 1000, 1000, 64)
+        assertEquals(1, grid.size())
+
+        grid.reset(500, 500, 32)
+        assertEquals(0, grid.size())
+        assertTrue(grid.query(10.0f, 10.0f).isEmpty())
+
+        val element = Bounds(1, 400, 400, 450, 450)
+        grid.add(element, element.left, element.top, element.right, element.bottom)
+        assertEquals(listOf(element), grid.query(420.0f, 420.0f))
+        assertTrue(grid.query(10.0f, 10.0f).isEmpty())
+    }
+}
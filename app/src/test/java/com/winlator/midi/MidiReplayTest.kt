@@ -0,0 +1,146 @@
+package com.winlator.midi
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import kotlin.math.abs
+import kotlin.random.Random
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class MidiReplayTest {
+    private class Event(val timeUs: Long, val data: ByteArray)
+
+    // Writes the events like the guest driver does, one MIDI_BATCH packet per flush
+    private fun encodeBatch(events: List<Event>): ByteBuffer {
+        val size = MidiBatchReader.HEADER_SIZE + events.sumOf { MidiBatchReader.EVENT_HEADER_SIZE + it.data.size }
+        val packet = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN)
+        val baseTimeUs = events.first().timeUs
+        packet.put(RequestCodes.MIDI_BATCH)
+        packet.putShort(events.size.toShort())
+        packet.putLong(baseTimeUs)
+        for (event in events) {
+            packet.putInt((event.timeUs - baseTimeUs).toInt())
+            packet.putShort(event.data.size.toShort())
+            packet.put(event.data)
+        }
+        packet.flip()
+        return packet
+    }
+
+    // A recorded minute of a dense track: sixteenth notes at 150 BPM on four channels with
+    // humanized timing, controller sweeps and a GS reset SysEx every few bars
+    private fun recordedStream(): List<Event> {
+        val random = Random(42)
+        val events = ArrayList<Event>()
+        val sixteenthUs = 100_000L
+        for (step in 0 until 600) {
+            val stepTimeUs = step * sixteenthUs
+            if (step % 64 == 0) {
+                events.add(Event(stepTimeUs, byteArrayOf(0xF0.toByte(), 0x41, 0x10, 0x42, 0x12, 0x40, 0x00, 0x7F, 0x00, 0x41, 0xF7.toByte())))
+            }
+            for (channel in 0 until 4) {
+                val timeUs = stepTimeUs + random.nextLong(0, 3000)
+                val note = 36 + random.nextInt(48)
+                events.add(Event(timeUs, byteArrayOf((0x90 or channel).toByte(), note.toByte(), (40 + random.nextInt(80)).toByte())))
+                events.add(Event(timeUs + 80_000, byteArrayOf((0x80 or channel).toByte(), note.toByte(), 0)))
+                events.add(Event(timeUs + 500, byteArrayOf((0xB0 or channel).toByte(), 74, random.nextInt(128).toByte())))
+            }
+        }
+        events.sortBy { it.timeUs }
+        return events
+    }
+
+    @Test
+    fun batchRoundTripsShortAndSysExMessages() {
+        val events = listOf(
+            Event(1_000_000, byteArrayOf(0x90.toByte(), 60, 100)),
+            Event(1_000_250, byteArrayOf(0xF0.toByte(), 0x7E, 0x7F, 0x09, 0x01, 0xF7.toByte())),
+            Event(1_004_000, byteArrayOf(0xC0.toByte(), 5)),
+            Event(1_004_000, byteArrayOf(0xFE.toByte())),
+        )
+        val packet = encodeBatch(events)
+        assertEquals(RequestCodes.MIDI_BATCH, packet.get())
+
+        val received = ArrayList<Event>()
+        assertTrue(MidiBatchReader().read(packet) { timeUs, data, length -> received.add(Event(timeUs, data.copyOf(length))) })
+
+        assertEquals(events.size, received.size)
+        for (i in events.indices) {
+            assertEquals(events[i].timeUs, received[i].timeUs)
+            assertArrayEquals(events[i].data, received[i].data)
+        }
+    }
+
+    @Test
+    fun truncatedBatchIsRejected() {
+        val packet = encodeBatch(listOf(Event(0, byteArrayOf(0x90.toByte(), 60, 100)), Event(10, byteArrayOf(0x80.toByte(), 60, 0))))
+        packet.limit(packet.limit() - 1)
+        packet.get()
+
+        var count = 0
+        assertFalse(MidiBatchReader().read(packet) { _, _, _ -> count++ })
+        assertEquals(1, count)
+    }
+
+    @Test
+    fun replayKeepsRecordedTimingDespiteDeliveryJitter() {
+        val events = recordedStream()
+        val random = Random(7)
+        val flushIntervalUs = 5_000L
+        val synthStartUs = 123_456L
+        val reader = MidiBatchReader()
+        val scheduler = MidiScheduler()
+
+        val scheduledTimes = ArrayList<Long>()
+        val arrivalTimes = ArrayList<Long>()
+        var lateEvents = 0
+        var index = 0
+        var flushTimeUs = flushIntervalUs
+        while (index < events.size) {
+            val batch = ArrayList<Event>()
+            while (index < events.size && events[index].timeUs <= flushTimeUs && batch.size < 512) batch.add(events[index++])
+            if (batch.isNotEmpty()) {
+                // The packet arrives up to 4ms after the flush, the synthesizer clock runs alongside
+                val arrivalUs = flushTimeUs + random.nextLong(0, 4000)
+                val synthTimeUs = arrivalUs + synthStartUs
+                val packet = encodeBatch(batch)
+                packet.get()
+                reader.read(packet) { timeUs, _, _ ->
+                    val scheduledUs = scheduler.toSynthTime(timeUs, synthTimeUs)
+                    if (scheduledUs < synthTimeUs) lateEvents++
+                    scheduledTimes.add(scheduledUs)
+                    arrivalTimes.add(synthTimeUs)
+                }
+            }
+            flushTimeUs += flushIntervalUs
+        }
+
+        assertEquals(events.size, scheduledTimes.size)
+        var maxErrorUs = 0L
+        var maxUnscheduledErrorUs = 0L
+        for (i in events.indices) {
+            val recordedUs = events[i].timeUs - events[0].timeUs
+            maxErrorUs = maxOf(maxErrorUs, abs(scheduledTimes[i] - scheduledTimes[0] - recordedUs))
+            maxUnscheduledErrorUs = maxOf(maxUnscheduledErrorUs, abs(arrivalTimes[i] - arrivalTimes[0] - recordedUs))
+        }
+
+        assertEquals(0, lateEvents)
+        assertEquals(0, scheduler.reanchorCount)
+        assertEquals("max timing error of ${events.size} scheduled events", 0L, maxErrorUs)
+        assertTrue("max timing error on arrival ${maxUnscheduledErrorUs}us", maxUnscheduledErrorUs > 1000)
+    }
+
+    @Test
+    fun lateEventsAnchorTheClockAgain() {
+        val scheduler = MidiScheduler(10_000)
+        assertEquals(60_000L, scheduler.toSynthTime(1_000_000, 50_000))
+        assertEquals(65_000L, scheduler.toSynthTime(1_005_000, 52_000))
+
+        // The guest stalled, its next event would be due before the synthesizer time
+        assertEquals(210_000L, scheduler.toSynthTime(1_010_000, 200_000))
+        assertEquals(1, scheduler.reanchorCount)
+    }
+}
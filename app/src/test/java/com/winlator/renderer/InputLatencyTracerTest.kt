@@ -0,0 +1,165 @@
+package com.winlator.renderer
+
+import java.util.PriorityQueue
+import java.util.Random
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+
+class InputLatencyTracerTest {
+    private class TimedAction(val timeNs: Long, val order: Int, val action: () -> Unit)
+
+    // Runs the X server, a synthetic client and the renderer on one simulated timeline
+    private class Timeline {
+        private val queue = PriorityQueue<TimedAction>(compareBy<TimedAction>({ it.timeNs }, { it.order }))
+        private var order = 0
+
+        fun at(timeNs: Long, action: () -> Unit) {
+            queue.add(TimedAction(timeNs, order++, action))
+        }
+
+        fun run() {
+            while (queue.isNotEmpty()) queue.poll()!!.action()
+        }
+    }
+
+    @Before
+    fun setUp() {
+        InputLatencyTracer.reset()
+        InputLatencyTracer.setEnabled(true)
+    }
+
+    @After
+    fun tearDown() {
+        InputLatencyTracer.setEnabled(false)
+    }
+
+    private fun publishReport(timeNs: Long): InputLatencyTracer.Report {
+        InputLatencyTracer.onFrameStart()
+        InputLatencyTracer.onFrameSwapped(timeNs)
+        return InputLatencyTracer.getLatestReport()!!
+    }
+
+    @Test
+    fun presentDuringAFrameWaitsForTheNextSwap() {
+        InputLatencyTracer.onInputDelivered(1_000_000_000L)
+        InputLatencyTracer.onFrameStart()
+        InputLatencyTracer.onFrameSwapped(1_004_000_000L)
+
+        InputLatencyTracer.onFrameStart()
+        InputLatencyTracer.onPresent(1_010_000_000L)
+        InputLatencyTracer.onFrameSwapped(1_012_000_000L)
+        assertNull(InputLatencyTracer.getLatestReport())
+
+        InputLatencyTracer.onFrameStart()
+        InputLatencyTracer.onFrameSwapped(1_020_000_000L)
+
+        val report = publishReport(1_600_000_000L)
+        assertEquals(1, report.sampleCount)
+        assertEquals(20.0f, report.p50LatencyMs, 1e-3f)
+        assertEquals(20.0f, report.p99LatencyMs, 1e-3f)
+        assertEquals(10.0f, report.averagePresentDelayMs, 1e-3f)
+    }
+
+    @Test
+    fun burstOfInputsIsMeasuredFromTheFirst() {
+        InputLatencyTracer.onInputDelivered(1_002_000_000L)
+        InputLatencyTracer.onInputDelivered(1_000_000_000L)
+        InputLatencyTracer.onInputDelivered(1_005_000_000L)
+        InputLatencyTracer.onPresent(1_010_000_000L)
+        // Presents without new input are not measured
+        InputLatencyTracer.onPresent(1_011_000_000L)
+        InputLatencyTracer.onFrameStart()
+        InputLatencyTracer.onFrameSwapped(1_016_000_000L)
+
+        val report = publishReport(1_600_000_000L)
+        assertEquals(1, report.sampleCount)
+        assertEquals(16.0f, report.maxLatencyMs, 1e-3f)
+    }
+
+    @Test
+    fun inputWithoutPresentIsUnmatched() {
+        InputLatencyTracer.onInputDelivered(1_000_000_000L)
+        InputLatencyTracer.onPresent(2_500_000_000L)
+        InputLatencyTracer.onFrameStart()
+        InputLatencyTracer.onFrameSwapped(2_510_000_000L)
+
+        InputLatencyTracer.onInputDelivered(3_100_000_000L)
+        InputLatencyTracer.onPresent(3_105_000_000L)
+        InputLatencyTracer.onFrameStart()
+        InputLatencyTracer.onFrameSwapped(3_108_000_000L)
+
+        val report = InputLatencyTracer.getLatestReport()!!
+        assertEquals(1, report.sampleCount)
+        assertEquals(1, report.unmatchedCount)
+        assertEquals(8.0f, report.p50LatencyMs, 1e-3f)
+    }
+
+    @Test
+    fun disabledTracerRecordsNothing() {
+        InputLatencyTracer.setEnabled(false)
+        assertEquals(0L, InputLatencyTracer.stamp())
+
+        InputLatencyTracer.onInputDelivered(1_000_000_000L)
+        InputLatencyTracer.onPresent(1_010_000_000L)
+        InputLatencyTracer.onFrameStart()
+        InputLatencyTracer.onFrameSwapped(2_000_000_000L)
+        assertNull(InputLatencyTracer.getLatestReport())
+
+        InputLatencyTracer.setEnabled(true)
+        assertTrue(InputLatencyTracer.stamp() > 0)
+    }
+
+    // A client that redraws when it gets input: it reads its socket a few ms after the event was
+    // written, renders and presents. The renderer starts a frame every vsync and swaps it a little
+    // later. The percentiles of the tracer have to match the latencies the timeline produced.
+    @Test
+    fun syntheticClientLatencyMatchesTheTimeline() {
+        val random = Random(48)
+        val timeline = Timeline()
+        val vsyncNs = 16_666_667L
+        val compositeNs = 3_000_000L
+        val startNs = 1_000_000_000L
+        val expectedLatencies = ArrayList<Float>()
+
+        var inputTimeNs = startNs + 5_000_000L
+        for (i in 0 until 120) {
+            val deliveredNs = inputTimeNs
+            val presentNs = deliveredNs + 1_000_000L + random.nextInt(8_000_000) + 5_000_000L + 137
+            timeline.at(deliveredNs) { InputLatencyTracer.onInputDelivered(deliveredNs) }
+            // A second event of the same burst does not change what is measured
+            timeline.at(deliveredNs + 700_000L) { InputLatencyTracer.onInputDelivered(deliveredNs + 700_000L) }
+            timeline.at(presentNs) { InputLatencyTracer.onPresent(presentNs) }
+
+            val frameStartNs = startNs + ((presentNs - startNs) / vsyncNs + 1) * vsyncNs
+            expectedLatencies.add((frameStartNs + compositeNs - deliveredNs) / 1_000_000.0f)
+            inputTimeNs += 40_000_000L + random.nextInt(50_000_000)
+        }
+
+        val endNs = inputTimeNs + 100_000_000L
+        var frameStartNs = startNs
+        while (frameStartNs < endNs) {
+            val swapNs = frameStartNs + compositeNs
+            timeline.at(frameStartNs) { InputLatencyTracer.onFrameStart() }
+            timeline.at(swapNs) { InputLatencyTracer.onFrameSwapped(swapNs) }
+            frameStartNs += vsyncNs
+        }
+        timeline.run()
+
+        val report = publishReport(endNs + 1_000_000_000L)
+        expectedLatencies.sort()
+        fun percentile(p: Float) = expectedLatencies[Math.ceil(p / 100.0 * expectedLatencies.size).toInt() - 1]
+
+        assertEquals(120, report.sampleCount)
+        assertEquals(0, report.unmatchedCount)
+        assertEquals(percentile(50f), report.p50LatencyMs, 1e-3f)
+        assertEquals(percentile(95f), report.p95LatencyMs, 1e-3f)
+        assertEquals(percentile(99f), report.p99LatencyMs, 1e-3f)
+        assertEquals(expectedLatencies.last(), report.maxLatencyMs, 1e-3f)
+        // Reading the socket, rendering and presenting takes 6 to 14ms, then up to a vsync and the swap
+        assertTrue(report.p50LatencyMs > 6.0f + 3.0f && report.maxLatencyMs < 14.0f + 16.7f + 3.0f)
+    }
+}
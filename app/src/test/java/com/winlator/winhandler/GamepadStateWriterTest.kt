@@ -0,0 +1,100 @@
+package com.winlator.winhandler
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class GamepadStateWriterTest {
+    // Stores the version without the native atomics and takes a snapshot of the block at every
+    // store, which is what a guest reading at that moment would see
+    private class TestWriter(private val sharedBuffer: ByteBuffer) : GamepadStateWriter(sharedBuffer) {
+        val snapshots = ArrayList<ByteArray>()
+        var fenceCount = 0
+
+        override fun storeSequence(value: Long) {
+            sharedBuffer.putLong(SEQUENCE_OFFSET, value)
+            val snapshot = ByteArray(sharedBuffer.capacity())
+            for (i in snapshot.indices) snapshot[i] = sharedBuffer.get(i)
+            snapshots.add(snapshot)
+        }
+
+        override fun storeFence() {
+            fenceCount++
+        }
+    }
+
+    private fun sharedBuffer(): ByteBuffer = ByteBuffer.allocateDirect(64).order(ByteOrder.LITTLE_ENDIAN)
+
+    private fun buttons(vararg pressed: Int): ByteArray {
+        val buttons = ByteArray(GamepadStateWriter.BUTTON_COUNT)
+        for (i in pressed) buttons[i] = 1
+        return buttons
+    }
+
+    @Test
+    fun stateIsWrittenBetweenOddAndEvenVersions() {
+        val sharedBuffer = sharedBuffer()
+        val writer = TestWriter(sharedBuffer)
+
+        assertTrue(writer.write(100, -200, 300, -400, -32767, 32767, buttons(0, 14), false))
+
+        assertEquals(2, writer.snapshots.size)
+        assertEquals(1, writer.fenceCount)
+        val begin = ByteBuffer.wrap(writer.snapshots[0]).order(ByteOrder.LITTLE_ENDIAN)
+        assertEquals(1L, begin.getLong(GamepadStateWriter.SEQUENCE_OFFSET))
+        assertEquals(0.toShort(), begin.getShort(0))
+
+        val end = ByteBuffer.wrap(writer.snapshots[1]).order(ByteOrder.LITTLE_ENDIAN)
+        assertEquals(2L, end.getLong(GamepadStateWriter.SEQUENCE_OFFSET))
+        assertEquals(100.toShort(), end.getShort(0))
+        assertEquals((-400).toShort(), end.getShort(6))
+        assertEquals((-32767).toShort(), end.getShort(8))
+        assertEquals(32767.toShort(), end.getShort(10))
+        assertEquals(1.toByte(), end.get(GamepadStateWriter.BUTTONS_OFFSET))
+        assertEquals(0.toByte(), end.get(GamepadStateWriter.BUTTONS_OFFSET + 1))
+        assertEquals(1.toByte(), end.get(GamepadStateWriter.BUTTONS_OFFSET + 14))
+        assertEquals(2L, writer.sequence)
+    }
+
+    @Test
+    fun unchangedStateIsOnlyWrittenWhenForced() {
+        val writer = TestWriter(sharedBuffer())
+        val buttons = buttons(3)
+
+        assertTrue(writer.write(1, 2, 3, 4, 5, 6, buttons, false))
+        assertFalse(writer.write(1, 2, 3, 4, 5, 6, buttons, false))
+        assertEquals(1, writer.writeCount)
+
+        assertTrue(writer.write(1, 2, 3, 4, 5, 6, buttons, true))
+        buttons[3] = 0
+        assertTrue(writer.write(1, 2, 3, 4, 5, 6, buttons, false))
+        assertEquals(3, writer.writeCount)
+        assertEquals(6L, writer.sequence)
+    }
+
+    @Test
+    fun rumbleWrittenByTheGuestIsLeftAlone() {
+        val sharedBuffer = sharedBuffer()
+        sharedBuffer.putShort(32, 1234)
+        sharedBuffer.putShort(34, -1)
+        TestWriter(sharedBuffer).write(-1, -1, -1, -1, -1, -1, ByteArray(GamepadStateWriter.BUTTON_COUNT) { 1 }, false)
+
+        assertEquals(1234.toShort(), sharedBuffer.getShort(32))
+        assertEquals((-1).toShort(), sharedBuffer.getShort(34))
+        assertEquals(0.toByte(), sharedBuffer.get(GamepadStateWriter.STATE_SIZE - 1))
+    }
+
+    @Test
+    fun versionLeftOddIsRoundedUp() {
+        val sharedBuffer = sharedBuffer()
+        sharedBuffer.putLong(GamepadStateWriter.SEQUENCE_OFFSET, 7)
+        val writer = TestWriter(sharedBuffer)
+        assertEquals(8L, writer.sequence)
+
+        writer.write(0, 0, 0, 0, 0, 0, buttons(), false)
+        assertEquals(10L, sharedBuffer.getLong(GamepadStateWriter.SEQUENCE_OFFSET))
+    }
+}
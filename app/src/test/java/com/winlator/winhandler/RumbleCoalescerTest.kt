@@ -0,0 +1,69 @@
+package com.winlator.winhandler
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class RumbleCoalescerTest {
+    @Test
+    fun unchangedValuesAreDropped() {
+        val coalescer = RumbleCoalescer(32)
+        assertFalse(coalescer.offer(0, 0, 1000))
+
+        assertTrue(coalescer.offer(40000, 20000, 1000))
+        assertFalse(coalescer.offer(40000, 20000, 1100))
+        assertEquals(40000, coalescer.low)
+        assertEquals(20000, coalescer.high)
+        assertEquals(-1L, coalescer.getDelayMs(1100))
+    }
+
+    @Test
+    fun quickUpdatesApplyTheLatestValueOncePerInterval() {
+        val coalescer = RumbleCoalescer(32)
+        assertTrue(coalescer.offer(10000, 0, 1000))
+
+        // A game ramping its rumble every frame
+        assertFalse(coalescer.offer(20000, 0, 1016))
+        assertFalse(coalescer.offer(30000, 0, 1024))
+        assertEquals(8L, coalescer.getDelayMs(1024))
+        assertFalse(coalescer.poll(1031))
+        assertEquals(10000, coalescer.low)
+
+        assertTrue(coalescer.poll(1032))
+        assertEquals(30000, coalescer.low)
+        assertEquals(-1L, coalescer.getDelayMs(1032))
+        assertFalse(coalescer.poll(1100))
+    }
+
+    @Test
+    fun stopIsNeverDelayed() {
+        val coalescer = RumbleCoalescer(32)
+        assertTrue(coalescer.offer(0, 65535, 1000))
+        assertFalse(coalescer.offer(0, 30000, 1010))
+
+        assertTrue(coalescer.offer(0, 0, 1012))
+        assertEquals(0, coalescer.high)
+        assertFalse(coalescer.poll(2000))
+    }
+
+    @Test
+    fun returningToTheAppliedValueCancelsThePendingOne() {
+        val coalescer = RumbleCoalescer(32)
+        assertTrue(coalescer.offer(5000, 5000, 1000))
+        assertFalse(coalescer.offer(6000, 5000, 1005))
+        assertFalse(coalescer.offer(5000, 5000, 1010))
+
+        assertFalse(coalescer.poll(1100))
+        assertEquals(5000, coalescer.low)
+    }
+
+    @Test
+    fun firstValueAfterResetIsAppliedRightAway() {
+        val coalescer = RumbleCoalescer(32)
+        assertTrue(coalescer.offer(5000, 0, 1000))
+        coalescer.reset()
+
+        assertTrue(coalescer.offer(5000, 0, 1001))
+    }
+}